@@ -0,0 +1,378 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.macro.Interpreter;
+import ij.measure.ResultsTable;
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter;
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter.Enhancement;
+import ijt.analysis.granulometry.GranulometryEvent;
+import ijt.analysis.granulometry.GranulometryListener;
+import ijt.analysis.granulometry.GranulometryResult;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.Grayscale_Granulometry_3D;
+import ijt.analysis.granulometry.ShardedBatch;
+import ijt.analysis.granulometry.monitor.GranulometryMetrics;
+import ijt.analysis.granulometry.monitor.GranulometryMonitor;
+import ijt.analysis.granulometry.monitor.PerformanceReport;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * End-to-end throughput benchmark of the batch granulometry pipeline.
+ * 
+ * A directory of synthetic texture images is first generated (see
+ * {@link SyntheticTextureGenerator}). The images are then processed by the
+ * exec() method of the batch plugin, using an increasing number of threads:
+ * each thread runs the whole pipeline on a shard of the files, and saves
+ * its results (text tables, .npy matrices and performance report), as the
+ * plugin does. For each number of threads, the throughput, the peak heap
+ * usage, the time spent in garbage collection and the time spent in each
+ * stage are reported. The stage times are obtained from the performance
+ * reports of the batch. The recovered volume curves are compared to the
+ * ground truth, and the benchmark fails if the error exceeds the tolerance.
+ * 
+ * The batch pipeline processes planar images. Stacks (depth larger than 1)
+ * are processed file by file with the 3D plugin instead, and only the
+ * decoding and volume curve stages are reported for them.
+ * 
+ * Parameters are given as "key=value" arguments:
+ * <ul>
+ * <li>count: the number of images (default 20)</li>
+ * <li>size: the size of images in each direction (default 512)</li>
+ * <li>depth: the number of slices, 1 for planar images (default 1)</li>
+ * <li>bits: the bit depth of images, 8, 16 or 32 (default 8)</li>
+ * <li>radii: the comma-separated list of grain radius values (default 2,4,6,10,15)</li>
+ * <li>threads: the maximal number of threads (default: number of processors)</li>
+ * <li>dir: the directory of images (default: a temporary directory). The
+ * result files are written in a sibling directory with the suffix
+ * "-results".</li>
+ * <li>tolerance: the maximal error on normalized volume curves (default 0.02)</li>
+ * <li>report: the file to write the tab-separated report in (optional)</li>
+ * </ul>
+ * 
+ * @author David Legland
+ *
+ */
+public class BatchThroughputBenchmark
+{
+	SyntheticTextureGenerator generator = new SyntheticTextureGenerator();
+	int maxThreads = Runtime.getRuntime().availableProcessors();
+	File imageDir = null;
+	double tolerance = .02;
+	File reportFile = null;
+	
+	// cumulated time spent in each stage, in nanoseconds
+	AtomicLong decodeTime = new AtomicLong();
+	AtomicLong enhanceTime = new AtomicLong();
+	AtomicLong morphoTime = new AtomicLong();
+	AtomicLong volumeTime = new AtomicLong();
+	AtomicLong writeTime = new AtomicLong();
+	
+	/** Accumulates the timings of each step of the volume curves of stacks */
+	GranulometryListener timingListener = new GranulometryListener()
+	{
+		@Override
+		public void stepStarted(GranulometryEvent evt)
+		{
+		}
+
+		@Override
+		public void stepFinished(GranulometryEvent evt)
+		{
+			morphoTime.addAndGet(evt.getStrelTime() + evt.getOperationTime());
+			volumeTime.addAndGet(evt.getVolumeTime());
+		}
+
+		@Override
+		public boolean isCancelRequested()
+		{
+			return false;
+		}
+	};
+	
+	public static void main(String[] args) throws Exception
+	{
+		BatchThroughputBenchmark benchmark = new BatchThroughputBenchmark();
+		benchmark.parseArguments(args);
+		boolean valid = benchmark.run();
+		if (!valid)
+		{
+			System.exit(1);
+		}
+	}
+	
+	private void parseArguments(String[] args)
+	{
+		for (String arg : args)
+		{
+			int index = arg.indexOf('=');
+			if (index < 0)
+				throw new IllegalArgumentException("Arguments must be in the form key=value: " + arg);
+			String key = arg.substring(0, index);
+			String value = arg.substring(index + 1);
+			
+			if (key.equals("count"))
+				generator.imageCount = Integer.parseInt(value);
+			else if (key.equals("size"))
+				generator.size = Integer.parseInt(value);
+			else if (key.equals("depth"))
+				generator.depth = Integer.parseInt(value);
+			else if (key.equals("bits"))
+				generator.bitDepth = Integer.parseInt(value);
+			else if (key.equals("radii"))
+			{
+				String[] tokens = value.split(",");
+				generator.radiusList = new int[tokens.length];
+				for (int i = 0; i < tokens.length; i++)
+					generator.radiusList[i] = Integer.parseInt(tokens[i].trim());
+			}
+			else if (key.equals("threads"))
+				maxThreads = Integer.parseInt(value);
+			else if (key.equals("dir"))
+				imageDir = new File(value);
+			else if (key.equals("tolerance"))
+				tolerance = Double.parseDouble(value);
+			else if (key.equals("report"))
+				reportFile = new File(value);
+			else
+				throw new IllegalArgumentException("Unknown argument: " + key);
+		}
+	}
+	
+	/**
+	 * Runs the benchmark for each number of threads.
+	 * 
+	 * @return true if all the recovered curves are within the tolerance.
+	 */
+	public boolean run() throws Exception
+	{
+		if (imageDir == null)
+		{
+			imageDir = new File(System.getProperty("java.io.tmpdir"), "granulometry-benchmark");
+		}
+		System.out.println("Generate " + generator.imageCount + " images in " + imageDir.getAbsolutePath());
+		Map<String, double[]> groundTruth = generator.generate(imageDir);
+		
+		File[] fileList = new File[groundTruth.size()];
+		int i = 0;
+		for (String name : groundTruth.keySet())
+			fileList[i++] = new File(imageDir, name);
+		
+		File resultDir = new File(imageDir.getParentFile(), imageDir.getName() + "-results");
+		resultDir.mkdirs();
+		
+		// the batch plugin displays a preview image, that must not open a window
+		Interpreter.batchMode = true;
+
+		PrintWriter report = new PrintWriter(System.out, true);
+		if (reportFile != null)
+		{
+			report = new PrintWriter(new FileWriter(reportFile));
+		}
+		report.println("threads\timages\tseconds\timages/s\tpeakHeapMB\tgcMs\tdecodeMs\tenhanceMs\tmorphoMs\tvolumeMs\twriteMs\tmaxError");
+		
+		boolean valid = true;
+		for (int nThreads = 1; nThreads <= maxThreads; nThreads++)
+		{
+			valid &= runOnce(fileList, groundTruth, resultDir, nThreads, report);
+		}
+		
+		if (reportFile != null)
+			report.close();
+		return valid;
+	}
+	
+	private boolean runOnce(File[] fileList, Map<String, double[]> groundTruth, File resultDir,
+			int nThreads, PrintWriter report) throws Exception
+	{
+		decodeTime.set(0);
+		enhanceTime.set(0);
+		morphoTime.set(0);
+		volumeTime.set(0);
+		writeTime.set(0);
+		GranulometryMetrics metrics = GranulometryMonitor.metrics();
+		metrics.reset();
+		
+		System.gc();
+		resetHeapPeaks();
+		long gc0 = gcTime();
+		long t0 = System.nanoTime();
+		
+		// each thread processes a shard of the files
+		String basePath = new File(resultDir, "batch").getAbsolutePath();
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		ArrayList<Future<GranulometryResult>> futures = new ArrayList<Future<GranulometryResult>>(nThreads);
+		for (int s = 0; s < nThreads; s++)
+		{
+			final File[] shard = ShardedBatch.selectShard(fileList, s, nThreads);
+			final String shardPath = ShardedBatch.shardBasePath(basePath, s, nThreads);
+			if (shard.length == 0)
+				continue;
+			futures.add(executor.submit(new Callable<GranulometryResult>()
+			{
+				@Override
+				public GranulometryResult call() throws Exception
+				{
+					return generator.depth > 1 ? processStacks(shard) : processShard(shard, shardPath);
+				}
+			}));
+		}
+		executor.shutdown();
+		
+		// collect results, and compare with ground truth
+		double maxError = 0;
+		int nImages = 0;
+		for (Future<GranulometryResult> future : futures)
+		{
+			GranulometryResult volumeResult = future.get();
+			for (int r = 0; r < volumeResult.getRowCount(); r++)
+			{
+				double[] volumes = volumeResult.getRow(r);
+				double[] expected = groundTruth.get(volumeResult.getLabel(r));
+				for (int k = 0; k < Math.min(volumes.length, expected.length); k++)
+				{
+					double error = Math.abs(volumes[k] / volumes[0] - expected[k]);
+					maxError = Math.max(maxError, error);
+				}
+			}
+			nImages += volumeResult.getRowCount();
+		}
+		
+		long t = System.nanoTime();
+		metrics.writeTo(new File(basePath + "-" + nThreads + ".metrics.txt"));
+		writeTime.addAndGet(System.nanoTime() - t);
+		long t1 = System.nanoTime();
+		
+		double seconds = (t1 - t0) / 1e9;
+		report.println(String.format(Locale.ENGLISH, 
+				"%d\t%d\t%.3f\t%.2f\t%.1f\t%d\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%.5f",
+				nThreads, nImages, seconds, nImages / seconds,
+				heapPeak() / (1024.0 * 1024.0), gcTime() - gc0, 
+				decodeTime.get() / 1e6, enhanceTime.get() / 1e6, 
+				morphoTime.get() / 1e6, volumeTime.get() / 1e6, 
+				writeTime.get() / 1e6, maxError));
+		report.flush();
+		
+		if (nImages < fileList.length)
+		{
+			System.err.println(String.format(Locale.ENGLISH,
+					"Only %d images out of %d were processed with %d threads", 
+					nImages, fileList.length, nThreads));
+			return false;
+		}
+		if (maxError > tolerance)
+		{
+			System.err.println(String.format(Locale.ENGLISH,
+					"Error on volume curves (%.5f) exceeds tolerance (%.5f) with %d threads", 
+					maxError, tolerance, nThreads));
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Runs the batch pipeline on a list of planar images, saves the results,
+	 * and returns the volume curves indexed by the radius of the structuring
+	 * element.
+	 */
+	private GranulometryResult processShard(File[] files, String basePath) throws IOException
+	{
+		// diameter 2k+1 corresponds to radius k
+		int radiusMax = generator.maxRadius() + 1;
+		Batch_Granulometry_By_Diameter plugin = new Batch_Granulometry_By_Diameter();
+		Object[] results = plugin.exec(files, Operation.OPENING, Strel.Shape.DISK,
+				2 * radiusMax + 1, 2, Enhancement.NONE, false, 1.0, "pixel");
+		if (results == null)
+			throw new IOException("Could not process the images of " + basePath);
+		
+		long t0 = System.nanoTime();
+		plugin.saveResults(results, basePath, true);
+		writeTime.addAndGet(System.nanoTime() - t0);
+		
+		// stage times, as reported by the batch
+		PerformanceReport perfReport = (PerformanceReport) results[7];
+		for (PerformanceReport.Entry entry : perfReport.getEntries())
+		{
+			decodeTime.addAndGet(entry.getDecodeTime());
+			enhanceTime.addAndGet(entry.getEnhanceTime());
+			morphoTime.addAndGet(entry.getMorphoTime());
+			volumeTime.addAndGet(entry.getVolumeTime());
+		}
+		return (GranulometryResult) results[1];
+	}
+	
+	/**
+	 * Computes the volume curves of a list of stacks with the 3D plugin, as
+	 * the batch pipeline only processes planar images.
+	 */
+	private GranulometryResult processStacks(File[] files) throws IOException
+	{
+		int radiusMax = generator.maxRadius() + 1;
+		GranulometryResult result = null;
+		for (File file : files)
+		{
+			long t0 = System.nanoTime();
+			ImagePlus imagePlus = IJ.openImage(file.getAbsolutePath());
+			if (imagePlus == null)
+				throw new IOException("Could not read image file: " + file.getAbsolutePath());
+			decodeTime.addAndGet(System.nanoTime() - t0);
+			
+			ResultsTable table = new Grayscale_Granulometry_3D().computeVolumeCurve(imagePlus,
+					Morphology.Operation.OPENING, Strel3D.Shape.BALL, radiusMax, 1, 1.0, "", timingListener);
+			double[] volumes = table.getColumnAsDoubles(2);
+			if (result == null)
+				result = new GranulometryResult(new double[volumes.length]);
+			result.addRow(file.getName(), volumes);
+		}
+		return result;
+	}
+	
+	private static final void resetHeapPeaks()
+	{
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+	
+	private static final long heapPeak()
+	{
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+	
+	private static final long gcTime()
+	{
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			time += Math.max(gc.getCollectionTime(), 0);
+		}
+		return time;
+	}
+}
@@ -0,0 +1,219 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Random;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Provides the input images used by the benchmarks: the images bundled with
+ * the test resources, and synthetic textures of arbitrary size and type.
+ * 
+ * The location of the test resources is given by the
+ * "granulometry.benchmark.data" system property, and defaults to
+ * "src/tests/resources".
+ * 
+ * @author David Legland
+ *
+ */
+public class BenchmarkImages
+{
+	/**
+	 * The name of the system property containing the path to the directory of
+	 * test resources.
+	 */
+	public static final String DATA_DIR_PROPERTY = "granulometry.benchmark.data";
+	
+	/**
+	 * @return the directory containing the test resources.
+	 */
+	public static final File dataDirectory()
+	{
+		return new File(System.getProperty(DATA_DIR_PROPERTY, "src/tests/resources"));
+	}
+	
+	/**
+	 * @return the processor of the "euroCoins_gray8.png" image.
+	 */
+	public static final ImageProcessor euroCoins()
+	{
+		return openImage(new File(new File(dataDirectory(), "images"), "euroCoins_gray8.png"));
+	}
+	
+	/**
+	 * @return the sorted list of image files within the "vtt2010" directory.
+	 */
+	public static final File[] vttFiles()
+	{
+		File dir = new File(dataDirectory(), "vtt2010");
+		File[] files = dir.listFiles(new FilenameFilter()
+		{
+			@Override
+			public boolean accept(File dir, String name)
+			{
+				return name.endsWith(".TIF");
+			}
+		});
+		if (files == null || files.length == 0)
+		{
+			throw new RuntimeException("Could not find benchmark images in directory: " + dir.getAbsolutePath());
+		}
+		Arrays.sort(files);
+		return files;
+	}
+	
+	/**
+	 * @return the processor of the first image of the "vtt2010" directory.
+	 */
+	public static final ImageProcessor vttImage()
+	{
+		return openImage(vttFiles()[0]);
+	}
+	
+	/**
+	 * Returns one of the benchmark images identified by a name: "euroCoins",
+	 * "vtt2010", or "synthetic" followed by the image size (e.g.
+	 * "synthetic1024").
+	 * 
+	 * @param name
+	 *            the name of the input
+	 * @return the corresponding image processor
+	 */
+	public static final ImageProcessor fromName(String name)
+	{
+		if (name.equals("euroCoins"))
+			return euroCoins();
+		if (name.equals("vtt2010"))
+			return vttImage();
+		if (name.startsWith("synthetic"))
+		{
+			int size = Integer.parseInt(name.substring("synthetic".length()));
+			return syntheticImage(size, size, 8, 42);
+		}
+		throw new IllegalArgumentException("Unknown benchmark image: " + name);
+	}
+	
+	private static final ImageProcessor openImage(File file)
+	{
+		ImagePlus imagePlus = IJ.openImage(file.getAbsolutePath());
+		if (imagePlus == null)
+		{
+			throw new RuntimeException("Could not open benchmark image: " + file.getAbsolutePath());
+		}
+		return imagePlus.getProcessor();
+	}
+	
+	/**
+	 * Creates a synthetic texture image, made of bright disks with random
+	 * radius and random intensity over a noisy dark background.
+	 * 
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param bitDepth
+	 *            the bit depth of the image, either 8, 16 or 32
+	 * @param seed
+	 *            the seed of the random generator, for reproducibility
+	 * @return a new synthetic image
+	 */
+	public static final ImageProcessor syntheticImage(int width, int height, int bitDepth, long seed)
+	{
+		ImageProcessor image = createProcessor(width, height, bitDepth);
+		fillTexture(image, maxValue(bitDepth), new Random(seed));
+		return image;
+	}
+
+	/**
+	 * Creates a synthetic 3D texture, obtained by stacking independent
+	 * synthetic 2D textures.
+	 * 
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param depth
+	 *            the number of slices of the image
+	 * @param bitDepth
+	 *            the bit depth of the image, either 8, 16 or 32
+	 * @param seed
+	 *            the seed of the random generator, for reproducibility
+	 * @return a new synthetic 3D image
+	 */
+	public static final ImageStack syntheticStack(int width, int height, int depth, int bitDepth, long seed)
+	{
+		Random random = new Random(seed);
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++)
+		{
+			ImageProcessor slice = createProcessor(width, height, bitDepth);
+			fillTexture(slice, maxValue(bitDepth), random);
+			stack.addSlice(slice);
+		}
+		return stack;
+	}
+	
+	private static final ImageProcessor createProcessor(int width, int height, int bitDepth)
+	{
+		switch (bitDepth)
+		{
+		case 8: return new ByteProcessor(width, height);
+		case 16: return new ShortProcessor(width, height);
+		case 32: return new FloatProcessor(width, height);
+		default:
+			throw new IllegalArgumentException("Unsupported bit depth: " + bitDepth);
+		}
+	}
+	
+	private static final double maxValue(int bitDepth)
+	{
+		return bitDepth == 16 ? 4095 : 255;
+	}
+	
+	private static final void fillTexture(ImageProcessor image, double maxValue, Random random)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		
+		// noisy background, using about one fifth of the dynamic range
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				image.setf(x, y, (float) (random.nextDouble() * maxValue * .2));
+			}
+		}
+		
+		// add disks until approximately one third of the image is covered
+		double area = 0;
+		while (area < width * height / 3.0)
+		{
+			int radius = 2 + random.nextInt(14);
+			int xc = random.nextInt(width);
+			int yc = random.nextInt(height);
+			float value = (float) (maxValue * (.5 + random.nextDouble() * .5));
+			
+			for (int y = Math.max(yc - radius, 0); y <= Math.min(yc + radius, height - 1); y++)
+			{
+				for (int x = Math.max(xc - radius, 0); x <= Math.min(xc + radius, width - 1); x++)
+				{
+					int dx = x - xc;
+					int dy = y - yc;
+					if (dx * dx + dy * dy <= radius * radius)
+					{
+						image.setf(x, y, value);
+					}
+				}
+			}
+			area += Math.PI * radius * radius;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Measures the cost per pixel of a granulometry step (morphological
+ * operation followed by the computation of the volume) for each bit depth.
+ * This compares the native processing of 16-bit and 32-bit images with the
+ * processing of 8-bit images, obtained with the "Convert to 8-bit" option of
+ * the plugins.
+ * 
+ * @author David Legland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitDepthStepBenchmark
+{
+	/**
+	 * The side length of the images. 
+	 */
+	static final int SIZE = 1024;
+	
+	@Param({"8", "16", "32"})
+	public int bitDepth;
+	
+	@Param({"DISK", "SQUARE"})
+	public Strel.Shape shape;
+	
+	@Param({"2", "8"})
+	public int radius;
+	
+	ImageProcessor image;
+	Strel strel;
+	
+	@Setup
+	public void setup()
+	{
+		image = BenchmarkImages.syntheticImage(SIZE, SIZE, bitDepth, 42);
+		strel = shape.fromRadius(radius);
+		strel.showProgress(false);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(SIZE * SIZE)
+	public double closingStep()
+	{
+		ImageProcessor result = Morphology.closing(image, strel);
+		return GrayscaleGranulometry.imageVolume(result);
+	}
+}
@@ -0,0 +1,70 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.GranulometryEngine;
+import ijt.analysis.granulometry.engine.MorphoLibJEngine;
+import ijt.analysis.granulometry.engine.SeparableMinMaxEngine;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Compares the granulometry engines on a single step, for the shapes of
+ * structuring element supported by all engines, and for each bit depth.
+ *
+ * @author David Legland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark
+{
+	@Param({MorphoLibJEngine.NAME, SeparableMinMaxEngine.NAME})
+	public String engineName;
+
+	@Param({"8", "16", "32"})
+	public int bitDepth;
+
+	@Param({"SQUARE", "LINE_HORIZ"})
+	public Strel.Shape shape;
+
+	@Param({"2", "8", "24"})
+	public int radius;
+
+	ImageProcessor image;
+	GranulometryEngine engine;
+
+	@Setup
+	public void setup()
+	{
+		image = BenchmarkImages.syntheticImage(1024, 1024, bitDepth, 42);
+		if (engineName.equals(MorphoLibJEngine.NAME))
+			engine = new MorphoLibJEngine();
+		else
+			engine = new SeparableMinMaxEngine();
+	}
+
+	@Benchmark
+	public ImageProcessor closing()
+	{
+		return engine.apply(image, Morphology.Operation.CLOSING, shape, SizeType.RADIUS, radius);
+	}
+}
@@ -0,0 +1,57 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import ijt.analysis.granulometry.Grayscale_Granulometry_3D;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * Measures the time needed for computing a volume curve on a 3D image.
+ * 
+ * @author David Legland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class Granulometry3DBenchmark
+{
+	@Param({"64", "128"})
+	public int size;
+	
+	@Param
+	public Strel3D.Shape shape;
+	
+	ImagePlus imagePlus;
+	
+	@Setup
+	public void setup()
+	{
+		imagePlus = new ImagePlus("synthetic", BenchmarkImages.syntheticStack(size, size, size, 8, 42));
+	}
+	
+	@Benchmark
+	public ResultsTable computeVolumeCurve()
+	{
+		Grayscale_Granulometry_3D plugin = new Grayscale_Granulometry_3D();
+		return plugin.computeVolumeCurve(imagePlus, Morphology.Operation.CLOSING, shape, 6, 1, 1.0, "", null);
+	}
+}
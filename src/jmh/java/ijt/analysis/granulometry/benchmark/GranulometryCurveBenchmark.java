@@ -0,0 +1,66 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.measure.ResultsTable;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Measures the time needed for computing complete granulometric curves,
+ * using either radius or diameter of structuring elements.
+ * 
+ * @author David Legland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GranulometryCurveBenchmark
+{
+	@Param({"euroCoins", "vtt2010", "synthetic512", "synthetic2048"})
+	public String input;
+	
+	@Param({"CLOSING", "OPENING"})
+	public Operation operation;
+	
+	@Param({"SQUARE", "DISK", "OCTAGON"})
+	public Strel.Shape shape;
+	
+	ImageProcessor image;
+	
+	@Setup
+	public void setup()
+	{
+		image = BenchmarkImages.fromName(input);
+	}
+	
+	@Benchmark
+	public ResultsTable radiusGranulometry()
+	{
+		return GrayscaleGranulometry.radiusGranulometry(image, operation, shape, 25, 1, null);
+	}
+
+	@Benchmark
+	public ResultsTable diameterGranulometry()
+	{
+		return GrayscaleGranulometry.diameterGranulometry(image, operation, shape, 51, 2, null);
+	}
+}
@@ -0,0 +1,120 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.measure.ResultsTable;
+import ijt.analysis.granulometry.GranulometryResult;
+import ijt.analysis.granulometry.GrayscaleGranulometry;
+
+/**
+ * Measures the time needed for post-processing volume curves: computation of
+ * derivatives, and of summary statistics of granulometric curves.
+ * 
+ * @author David Legland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GranulometryTableBenchmark
+{
+	/** The number of curves within the granulometry table */
+	@Param({"100", "10000"})
+	public int nRows;
+	
+	/** The number of strel sizes within each curve */
+	@Param({"50", "200"})
+	public int nSizes;
+	
+	double[] volumes;
+	ResultsTable volumeTable;
+	ResultsTable granuloTable;
+	GranulometryResult granuloResult;
+	
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(42);
+		
+		// a decreasing volume curve, as obtained with an opening
+		volumes = new double[nSizes + 1];
+		volumes[0] = 1e6;
+		for (int i = 1; i <= nSizes; i++)
+		{
+			volumes[i] = volumes[i - 1] - random.nextDouble() * 1000;
+		}
+		
+		volumeTable = new ResultsTable();
+		for (int i = 0; i <= nSizes; i++)
+		{
+			volumeTable.incrementCounter();
+			volumeTable.addValue("Diameter", 2 * i + 1);
+			volumeTable.addValue("Volume", volumes[i]);
+		}
+		
+		// granulometry table with strel sizes as column names
+		granuloTable = new ResultsTable();
+		for (int r = 0; r < nRows; r++)
+		{
+			granuloTable.incrementCounter();
+			granuloTable.addLabel("image" + r);
+			double[] granulo = GrayscaleGranulometry.derivate(volumes);
+			for (int i = 0; i < nSizes; i++)
+			{
+				granuloTable.addValue(Integer.toString(2 * i + 3), granulo[i]);
+			}
+		}
+		
+		// the same granulometries, using the columnar result
+		double[] sizes = new double[nSizes];
+		for (int i = 0; i < nSizes; i++)
+		{
+			sizes[i] = 2 * i + 3;
+		}
+		granuloResult = new GranulometryResult(sizes);
+		for (int r = 0; r < nRows; r++)
+		{
+			granuloResult.addRow("image" + r, GrayscaleGranulometry.derivate(volumes));
+		}
+	}
+	
+	@Benchmark
+	public double[] derivateArray()
+	{
+		return GrayscaleGranulometry.derivate(volumes);
+	}
+	
+	@Benchmark
+	public ResultsTable derivateTable()
+	{
+		return GrayscaleGranulometry.derivate(volumeTable);
+	}
+	
+	@Benchmark
+	public ResultsTable granuloStats()
+	{
+		return GrayscaleGranulometry.granuloStats(granuloTable);
+	}
+	
+	@Benchmark
+	public GranulometryResult granuloStatsColumnar()
+	{
+		return GrayscaleGranulometry.granuloStats(granuloResult);
+	}
+}
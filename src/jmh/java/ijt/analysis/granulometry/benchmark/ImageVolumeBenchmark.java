@@ -0,0 +1,67 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry;
+
+/**
+ * Measures the time needed for computing the gray level volume of 2D and 3D
+ * images, for the different image types.
+ * 
+ * The 3D images have a side length equal to the quarter of the 2D image
+ * size.
+ * 
+ * @author David Legland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageVolumeBenchmark
+{
+	@Param({"256", "1024"})
+	public int size;
+	
+	@Param({"8", "16", "32"})
+	public int bitDepth;
+	
+	ImageProcessor image;
+	ImageStack stack;
+	
+	@Setup
+	public void setup()
+	{
+		image = BenchmarkImages.syntheticImage(size, size, bitDepth, 42);
+		int size3d = size / 4;
+		stack = BenchmarkImages.syntheticStack(size3d, size3d, size3d, bitDepth, 42);
+	}
+	
+	@Benchmark
+	public double imageVolume2D()
+	{
+		return GrayscaleGranulometry.imageVolume(image);
+	}
+	
+	@Benchmark
+	public double imageVolume3D()
+	{
+		return GrayscaleGranulometry.imageVolume(stack);
+	}
+}
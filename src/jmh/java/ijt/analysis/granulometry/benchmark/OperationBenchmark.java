@@ -0,0 +1,65 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Measures the time needed for a single morphological operation, for each
+ * shape of structuring element and several radius values. This corresponds
+ * to the work performed at each step of a granulometric curve.
+ * 
+ * @author David Legland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperationBenchmark
+{
+	@Param({"euroCoins", "synthetic1024"})
+	public String input;
+	
+	@Param
+	public Operation operation;
+	
+	@Param
+	public Strel.Shape shape;
+	
+	@Param({"2", "8", "24"})
+	public int radius;
+	
+	ImageProcessor image;
+	Strel strel;
+	
+	@Setup
+	public void setup()
+	{
+		image = BenchmarkImages.fromName(input);
+		strel = shape.fromRadius(radius);
+		strel.showProgress(false);
+	}
+	
+	@Benchmark
+	public ImageProcessor apply()
+	{
+		return operation.getOperation().apply(image, strel);
+	}
+}
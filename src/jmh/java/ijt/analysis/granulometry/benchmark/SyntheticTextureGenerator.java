@@ -0,0 +1,241 @@
+package ijt.analysis.granulometry.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Generates directories of synthetic texture images with a known size
+ * distribution of grains.
+ * 
+ * Each image contains non-overlapping bright disks (or balls, for 3D images)
+ * with constant intensity over a black background. The radius of each grain
+ * is chosen randomly within a list of radius values. As grains are flat and
+ * separated, the volume of the opening by a disk (or ball) of radius k is
+ * equal to the sum of the volumes of the grains with radius greater than or
+ * equal to k. This provides the ground truth for the volume curves.
+ * 
+ * Grains are digitized using the same convention as the ImageJ rank filters
+ * (pixels such that dx^2+dy^2 &le; r^2+1), that is also used for creating
+ * disk structuring elements.
+ * 
+ * @author David Legland
+ *
+ */
+public class SyntheticTextureGenerator
+{
+	/** The number of images to generate */
+	public int imageCount = 20;
+	
+	/** The size of the images, in each direction */
+	public int size = 512;
+	
+	/** The number of slices, or 1 for planar images */
+	public int depth = 1;
+	
+	/** The bit depth of images, either 8, 16 or 32 */
+	public int bitDepth = 8;
+	
+	/** The list of possible grain radius values */
+	public int[] radiusList = new int[] {2, 4, 6, 10, 15};
+	
+	/** The fraction of the image area to cover with grains */
+	public double coverage = .3;
+	
+	/** The seed used for initializing random generator */
+	public long seed = 42;
+	
+	/**
+	 * @return the maximal radius of the grains.
+	 */
+	public int maxRadius()
+	{
+		int rMax = 0;
+		for (int r : radiusList)
+			rMax = Math.max(rMax, r);
+		return rMax;
+	}
+	
+	/**
+	 * Generates the set of images within the specified directory.
+	 * 
+	 * @param dir
+	 *            the directory to write images in. Is created if necessary.
+	 * @return the expected normalized volume curves, indexed by file name.
+	 *         Element k of each curve is the fraction of image volume that
+	 *         remains after an opening by a structuring element of radius k.
+	 */
+	public Map<String, double[]> generate(File dir)
+	{
+		if (!dir.exists() && !dir.mkdirs())
+		{
+			throw new RuntimeException("Could not create directory: " + dir.getAbsolutePath());
+		}
+		
+		Random random = new Random(seed);
+		Map<String, double[]> groundTruth = new LinkedHashMap<String, double[]>(imageCount);
+		for (int i = 0; i < imageCount; i++)
+		{
+			String fileName = String.format(Locale.ENGLISH, "synth%05d.tif", i);
+			
+			// volume of grains for each radius value
+			double[] grainVolumes = new double[maxRadius() + 1];
+			ImagePlus imagePlus = depth > 1
+					? new ImagePlus(fileName, createStack(random, grainVolumes))
+					: new ImagePlus(fileName, createImage(random, grainVolumes));
+			IJ.saveAs(imagePlus, "tiff", new File(dir, fileName).getAbsolutePath());
+			
+			groundTruth.put(fileName, cumulatedFractions(grainVolumes));
+		}
+		return groundTruth;
+	}
+	
+	private double[] cumulatedFractions(double[] grainVolumes)
+	{
+		int n = grainVolumes.length;
+		double total = 0;
+		for (double v : grainVolumes)
+			total += v;
+		
+		// the fraction of volume of grains with radius greater or equal to k
+		double[] res = new double[n + 1];
+		double cumsum = 0;
+		for (int k = n - 1; k >= 0; k--)
+		{
+			cumsum += grainVolumes[k];
+			res[k] = cumsum / total;
+		}
+		return res;
+	}
+
+	private ImageProcessor createImage(Random random, double[] grainVolumes)
+	{
+		ImageProcessor image = createProcessor();
+		float value = grainValue();
+		
+		ArrayList<int[]> grains = new ArrayList<int[]>();
+		double area = 0;
+		int nTries = 0;
+		while (area < coverage * size * size && nTries++ < 100000)
+		{
+			int radius = radiusList[random.nextInt(radiusList.length)];
+			int xc = radius + 1 + random.nextInt(size - 2 * radius - 2);
+			int yc = radius + 1 + random.nextInt(size - 2 * radius - 2);
+			if (intersects(grains, xc, yc, 0, radius))
+				continue;
+			grains.add(new int[] {xc, yc, 0, radius});
+			
+			int count = 0;
+			int r2 = radius * radius + 1;
+			for (int y = yc - radius; y <= yc + radius; y++)
+			{
+				for (int x = xc - radius; x <= xc + radius; x++)
+				{
+					int dx = x - xc;
+					int dy = y - yc;
+					if (dx * dx + dy * dy <= r2)
+					{
+						image.setf(x, y, value);
+						count++;
+					}
+				}
+			}
+			grainVolumes[radius] += count * value;
+			area += count;
+		}
+		return image;
+	}
+	
+	private ImageStack createStack(Random random, double[] grainVolumes)
+	{
+		ImageStack stack = new ImageStack(size, size);
+		for (int z = 0; z < depth; z++)
+			stack.addSlice(createProcessor());
+		float value = grainValue();
+
+		ArrayList<int[]> grains = new ArrayList<int[]>();
+		double volume = 0;
+		int nTries = 0;
+		while (volume < coverage * size * size * depth && nTries++ < 100000)
+		{
+			int radius = radiusList[random.nextInt(radiusList.length)];
+			if (2 * radius + 2 >= depth)
+				continue;
+			int xc = radius + 1 + random.nextInt(size - 2 * radius - 2);
+			int yc = radius + 1 + random.nextInt(size - 2 * radius - 2);
+			int zc = radius + 1 + random.nextInt(depth - 2 * radius - 2);
+			if (intersects(grains, xc, yc, zc, radius))
+				continue;
+			grains.add(new int[] {xc, yc, zc, radius});
+			
+			int count = 0;
+			int r2 = radius * radius;
+			for (int z = zc - radius; z <= zc + radius; z++)
+			{
+				for (int y = yc - radius; y <= yc + radius; y++)
+				{
+					for (int x = xc - radius; x <= xc + radius; x++)
+					{
+						int dx = x - xc;
+						int dy = y - yc;
+						int dz = z - zc;
+						if (dx * dx + dy * dy + dz * dz <= r2)
+						{
+							stack.setVoxel(x, y, z, value);
+							count++;
+						}
+					}
+				}
+			}
+			grainVolumes[radius] += count * value;
+			volume += count;
+		}
+		return stack;
+	}
+	
+	/**
+	 * Checks if a new grain is closer than two pixels from one of the existing
+	 * grains.
+	 */
+	private static final boolean intersects(ArrayList<int[]> grains, int xc, int yc, int zc, int radius)
+	{
+		for (int[] grain : grains)
+		{
+			double dx = grain[0] - xc;
+			double dy = grain[1] - yc;
+			double dz = grain[2] - zc;
+			double minDist = grain[3] + radius + 3;
+			if (dx * dx + dy * dy + dz * dz < minDist * minDist)
+				return true;
+		}
+		return false;
+	}
+	
+	private ImageProcessor createProcessor()
+	{
+		switch (bitDepth)
+		{
+		case 8: return new ByteProcessor(size, size);
+		case 16: return new ShortProcessor(size, size);
+		case 32: return new FloatProcessor(size, size);
+		default:
+			throw new IllegalArgumentException("Unsupported bit depth: " + bitDepth);
+		}
+	}
+	
+	private float grainValue()
+	{
+		return bitDepth == 16 ? 4000 : 200;
+	}
+}
@@ -0,0 +1,307 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ij.measure.ResultsTable;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import ijt.analysis.granulometry.engine.GranulometryEngine;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Computes granulometric curves with an adaptive sampling of the sizes of
+ * structuring elements.
+ *
+ * The computation runs in three stages:
+ * <ol>
+ * <li>coarse sampling, using a geometric progression of sizes</li>
+ * <li>early termination, when the volume is close to its limit value (the
+ * volume of an image filled with the maximum value for dilation and closing,
+ * or the minimum value for erosion and opening)</li>
+ * <li>refinement, by inserting intermediate sizes within the intervals where
+ * the volume varies strongly</li>
+ * </ol>
+ * The result is a table with irregularly spaced sizes, that can be processed
+ * by the derivate() and granuloStats() methods.
+ *
+ * @author David Legland
+ *
+ */
+public class AdaptiveGranulometry
+{
+	/**
+	 * The default ratio between two consecutive sizes of the coarse
+	 * sampling.
+	 */
+	public static final double DEFAULT_RATIO = 2.0;
+
+	/**
+	 * The default tolerance for early termination, as a fraction of the
+	 * difference between the limit volume and the original volume.
+	 */
+	public static final double DEFAULT_TOLERANCE = 0.001;
+
+	/**
+	 * The default maximal variation of volume between two consecutive sizes,
+	 * as a fraction of the total variation.
+	 */
+	public static final double DEFAULT_MAX_VARIATION = 0.05;
+
+	/**
+	 * Computes the volume curve with adaptive sampling, using default
+	 * parameters.
+	 *
+	 * @see #adaptiveGranulometry(ImageProcessor, Morphology.Operation,
+	 *      Strel.Shape, SizeType, int, double, double, double,
+	 *      GranulometryListener)
+	 */
+	public final static ResultsTable adaptiveGranulometry(ImageProcessor image,
+			Morphology.Operation op, Strel.Shape shape, SizeType sizeType,
+			int sizeMax, GranulometryListener listener)
+	{
+		return adaptiveGranulometry(image, op, shape, sizeType, sizeMax,
+				DEFAULT_RATIO, DEFAULT_TOLERANCE, DEFAULT_MAX_VARIATION, listener);
+	}
+
+	/**
+	 * Computes the volume curve of an image with adaptive sampling of the
+	 * sizes.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizeMax
+	 *            the largest size that can be computed
+	 * @param ratio
+	 *            the ratio between two consecutive sizes of the coarse
+	 *            sampling, greater than 1
+	 * @param tolerance
+	 *            the computation stops when the distance between the volume
+	 *            and its limit is smaller than this fraction of the total
+	 *            variation
+	 * @param maxVariation
+	 *            the intervals with a variation greater than this fraction of
+	 *            the total variation are refined
+	 * @param listener
+	 *            the listener notified of each computed size, or null. As
+	 *            the number of sizes is not known in advance, the step count
+	 *            of events corresponds to the sizes scheduled so far.
+	 * @return a table containing the size and the volume for each computed
+	 *         size, sorted by increasing size. The first row corresponds to
+	 *         the original image, with size 0.
+	 */
+	public final static ResultsTable adaptiveGranulometry(ImageProcessor image,
+			Morphology.Operation op, Strel.Shape shape, SizeType sizeType,
+			int sizeMax, double ratio, double tolerance, double maxVariation,
+			GranulometryListener listener)
+	{
+		// volumes indexed by strel size, the original image having size 0
+		TreeMap<Integer, Double> volumes = new TreeMap<Integer, Double>();
+		double vol0 = GrayscaleGranulometry.imageVolume(image);
+		volumes.put(0, vol0);
+
+		// the volume obtained for very large sizes
+		double limit = limitVolume(image, op);
+		double totalRange = Math.abs(limit - vol0);
+
+		// coarse sampling, until the volume is close to its limit
+		int[] coarseSizes = coarseSizes(sizeMax, ratio);
+		StepCounter counter = new StepCounter(coarseSizes.length, listener);
+		for (int size : coarseSizes)
+		{
+			double vol = computeStep(image, op, shape, sizeType, size, counter);
+			if (Double.isNaN(vol))
+			{
+				return createTable(volumes, sizeType);
+			}
+			volumes.put(size, vol);
+
+			if (!Double.isNaN(limit) && Math.abs(limit - vol) <= tolerance * totalRange)
+			{
+				break;
+			}
+		}
+
+		// refine the intervals with large variations
+		double variation = Math.abs(volumes.lastEntry().getValue() - vol0);
+		while (true)
+		{
+			ArrayList<Integer> newSizes = new ArrayList<Integer>();
+			Map.Entry<Integer, Double> prev = null;
+			for (Map.Entry<Integer, Double> entry : volumes.entrySet())
+			{
+				// refine intervals between two computed sizes
+				if (prev != null && prev.getKey() > 0 && entry.getKey() - prev.getKey() > 1)
+				{
+					double diff = Math.abs(entry.getValue() - prev.getValue());
+					if (diff > maxVariation * variation)
+					{
+						newSizes.add((prev.getKey() + entry.getKey()) / 2);
+					}
+				}
+				prev = entry;
+			}
+			if (newSizes.isEmpty())
+			{
+				break;
+			}
+
+			// compute the volumes of the new sizes
+			counter.stepCount = counter.stepIndex + newSizes.size();
+			for (int size : newSizes)
+			{
+				double vol = computeStep(image, op, shape, sizeType, size, counter);
+				if (Double.isNaN(vol))
+				{
+					return createTable(volumes, sizeType);
+				}
+				volumes.put(size, vol);
+			}
+		}
+
+		return createTable(volumes, sizeType);
+	}
+
+	/**
+	 * Returns the geometric progression of sizes used for coarse sampling,
+	 * starting from 1 and ending with the largest size.
+	 */
+	private final static int[] coarseSizes(int sizeMax, double ratio)
+	{
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		int size = 1;
+		while (true)
+		{
+			sizes.add(size);
+			if (size >= sizeMax)
+				break;
+			size = Math.min(Math.max(size + 1, (int) Math.round(size * ratio)), sizeMax);
+		}
+
+		int[] res = new int[sizes.size()];
+		for (int i = 0; i < res.length; i++)
+			res[i] = sizes.get(i);
+		return res;
+	}
+
+	/**
+	 * Applies the operation to the original image for a single size, and
+	 * returns the volume of the result, or NaN if the computation was
+	 * cancelled. The listener is notified with the index of the step within
+	 * the whole computation.
+	 */
+	private final static double computeStep(ImageProcessor image,
+			Morphology.Operation op, Strel.Shape shape, SizeType sizeType,
+			int size, StepCounter counter)
+	{
+		GranulometryListener listener = counter.listener;
+		int index = counter.stepIndex;
+		if (listener != null)
+		{
+			if (listener.isCancelRequested())
+				return Double.NaN;
+			listener.stepStarted(new GranulometryEvent(index, counter.stepCount, size));
+		}
+
+		// sizes are known only during refinement: select the engine before
+		// timing the step, as selection may require calibration
+		GranulometryEngine engine = EngineSelector.getDefault().select(
+				image.getBitDepth(), op, shape, sizeType, size);
+
+		long t2 = System.nanoTime();
+		ImageProcessor result = engine.apply(image, op, shape, sizeType, size);
+
+		long t3 = System.nanoTime();
+		double vol = GrayscaleGranulometry.imageVolume(result);
+
+		long t4 = System.nanoTime();
+		if (listener != null)
+		{
+			// the structuring element is created by the engine, within the
+			// operation
+			GranulometryEvent evt = new GranulometryEvent(index, counter.stepCount,
+					size, 0, t3 - t2, t4 - t3, t4 - counter.startTime);
+			evt.resultImage = result;
+			listener.stepFinished(evt);
+		}
+		counter.stepIndex++;
+		return vol;
+	}
+
+	/**
+	 * Keeps the index of the current step, and the number of steps known so
+	 * far. The number of steps is updated at each refinement stage.
+	 */
+	private static class StepCounter
+	{
+		int stepIndex = 0;
+		int stepCount;
+		long startTime = System.nanoTime();
+		GranulometryListener listener;
+
+		StepCounter(int stepCount, GranulometryListener listener)
+		{
+			this.stepCount = stepCount;
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * Returns the volume of the image transformed by the operation using an
+	 * infinitely large structuring element, or NaN if it is not known.
+	 */
+	private final static double limitVolume(ImageProcessor image, Morphology.Operation op)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		double vmin = Double.POSITIVE_INFINITY;
+		double vmax = Double.NEGATIVE_INFINITY;
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				double value = image.getf(x, y);
+				vmin = Math.min(vmin, value);
+				vmax = Math.max(vmax, value);
+			}
+		}
+
+		double nPixels = (double) width * height;
+		switch (op)
+		{
+		case DILATION:
+		case CLOSING:
+			return vmax * nPixels;
+		case EROSION:
+		case OPENING:
+			return vmin * nPixels;
+		default:
+			return Double.NaN;
+		}
+	}
+
+	private final static ResultsTable createTable(TreeMap<Integer, Double> volumes, SizeType sizeType)
+	{
+		ResultsTable table = new ResultsTable();
+		for (Map.Entry<Integer, Double> entry : volumes.entrySet())
+		{
+			table.incrementCounter();
+			table.addValue(sizeType.toString(), entry.getKey());
+			table.addValue("Volume", entry.getValue());
+		}
+		return table;
+	}
+}
@@ -0,0 +1,307 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ij.measure.ResultsTable;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Computes granulometric curves within a time budget, by progressively
+ * refining the curve until the deadline expires.
+ *
+ * The refinement runs in three stages:
+ * <ol>
+ * <li>a coarse curve, using a geometric progression of sizes computed on a
+ * multiresolution pyramid (approximate values)</li>
+ * <li>the same sizes computed on the original image (exact values), except
+ * the sizes below the switchover size, that are already exact</li>
+ * <li>intermediate sizes, obtained by bisecting each interval, until all the
+ * sizes between 1 and the maximal size are computed</li>
+ * </ol>
+ * The curve is published to the listener after each stage or refinement
+ * round, and the last curve is returned when the deadline expires.
+ *
+ * @author David Legland
+ *
+ */
+public class AnytimeGranulometry
+{
+	/**
+	 * The switchover size used for computing the coarse curve.
+	 */
+	static final int COARSE_SWITCH_SIZE = 4;
+
+	/**
+	 * Listener notified each time the curve is refined.
+	 */
+	public interface CurveListener
+	{
+		/**
+		 * Called after each refinement of the curve.
+		 *
+		 * @param curve
+		 *            the current state of the curve
+		 */
+		public void curveRefined(Curve curve);
+	}
+
+	/**
+	 * The current state of a granulometric curve, containing the computed
+	 * sizes and the corresponding volumes, and whether the volume of each
+	 * size was computed on the original image.
+	 */
+	public static class Curve
+	{
+		SizeType sizeType;
+		int[] sizes;
+		double[] volumes;
+		boolean[] exact;
+		boolean complete;
+
+		Curve(SizeType sizeType, TreeMap<Integer, Double> volumeMap,
+				TreeMap<Integer, Boolean> exactMap, boolean complete)
+		{
+			int n = volumeMap.size();
+			this.sizeType = sizeType;
+			this.sizes = new int[n];
+			this.volumes = new double[n];
+			this.exact = new boolean[n];
+			int i = 0;
+			for (Map.Entry<Integer, Double> entry : volumeMap.entrySet())
+			{
+				sizes[i] = entry.getKey();
+				volumes[i] = entry.getValue();
+				exact[i] = exactMap.get(entry.getKey());
+				i++;
+			}
+			this.complete = complete;
+		}
+
+		/**
+		 * @return the list of sizes, starting with 0 for the original image
+		 */
+		public int[] getSizes()
+		{
+			return sizes;
+		}
+
+		/**
+		 * @return the volume computed for each size
+		 */
+		public double[] getVolumes()
+		{
+			return volumes;
+		}
+
+		/**
+		 * @param index
+		 *            the index of a size
+		 * @return true if the volume of the size was computed on the
+		 *         original image, false if it was approximated
+		 */
+		public boolean isExact(int index)
+		{
+			return exact[index];
+		}
+
+		/**
+		 * @return true if all the sizes were computed exactly before the
+		 *         deadline
+		 */
+		public boolean isComplete()
+		{
+			return complete;
+		}
+
+		/**
+		 * @return a table containing the size, the volume, and a column
+		 *         "Exact" equal to 1 for exact volumes and 0 for
+		 *         approximated ones
+		 */
+		public ResultsTable getVolumeTable()
+		{
+			ResultsTable table = new ResultsTable();
+			for (int i = 0; i < sizes.length; i++)
+			{
+				table.incrementCounter();
+				table.addValue(sizeType.toString(), sizes[i]);
+				table.addValue("Volume", volumes[i]);
+				table.addValue("Exact", exact[i] ? 1 : 0);
+			}
+			return table;
+		}
+
+		/**
+		 * @return the granulometric curve, in the format of the
+		 *         GrayscaleGranulometry.derivate() method
+		 */
+		public ResultsTable getGranulometry()
+		{
+			return GrayscaleGranulometry.derivate(getVolumeTable());
+		}
+	}
+
+	/**
+	 * Computes the volume curve of an image within a time budget.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizeMax
+	 *            the largest size of structuring element
+	 * @param timeBudget
+	 *            the maximal computation time, in milliseconds
+	 * @param curveListener
+	 *            the listener notified of each refinement, or null
+	 * @return the most refined curve computed before the deadline
+	 */
+	public final static Curve volumeCurve(ImageProcessor image,
+			Morphology.Operation op, Strel.Shape shape, SizeType sizeType,
+			int sizeMax, long timeBudget, CurveListener curveListener)
+	{
+		final long deadline = System.nanoTime() + timeBudget * 1000000L;
+		GranulometryListener deadlineListener = new GranulometryListener()
+		{
+			@Override
+			public void stepStarted(GranulometryEvent evt)
+			{
+			}
+
+			@Override
+			public void stepFinished(GranulometryEvent evt)
+			{
+			}
+
+			@Override
+			public boolean isCancelRequested()
+			{
+				return System.nanoTime() > deadline;
+			}
+		};
+
+		TreeMap<Integer, Double> volumes = new TreeMap<Integer, Double>();
+		TreeMap<Integer, Boolean> exact = new TreeMap<Integer, Boolean>();
+		volumes.put(0, GrayscaleGranulometry.imageVolume(image));
+		exact.put(0, true);
+
+		// geometric progression of sizes, always including the largest size
+		ArrayList<Integer> coarseSizes = new ArrayList<Integer>();
+		for (int size = 1; size < sizeMax; size *= 2)
+		{
+			coarseSizes.add(size);
+		}
+		coarseSizes.add(sizeMax);
+		int[] sizes = toArray(coarseSizes);
+
+		// coarse curve on the multiresolution pyramid
+		double[] res = PyramidGranulometry.volumeCurve(image, op, shape,
+				sizeType, sizes, COARSE_SWITCH_SIZE, deadlineListener);
+		boolean finished = merge(volumes, exact, sizes, res, false);
+		Curve curve = publish(sizeType, volumes, exact, false, curveListener);
+		if (!finished)
+			return curve;
+
+		// same sizes on the original image, except the small sizes that the
+		// pyramid already computed on the original image
+		ArrayList<Integer> approxSizes = new ArrayList<Integer>();
+		for (int size : sizes)
+		{
+			if (!exact.get(size))
+				approxSizes.add(size);
+		}
+		if (!approxSizes.isEmpty())
+		{
+			sizes = toArray(approxSizes);
+			res = GrayscaleGranulometry.volumeCurve(image, op, shape, sizeType,
+					sizes, deadlineListener);
+			finished = merge(volumes, exact, sizes, res, true);
+			curve = publish(sizeType, volumes, exact, false, curveListener);
+			if (!finished)
+				return curve;
+		}
+
+		// bisect each interval between two exact sizes, until all sizes are
+		// computed
+		while (true)
+		{
+			ArrayList<Integer> newSizes = new ArrayList<Integer>();
+			int prev = 0;
+			for (int size : volumes.keySet())
+			{
+				if (prev > 0 && size - prev > 1)
+				{
+					newSizes.add((prev + size) / 2);
+				}
+				prev = size;
+			}
+			if (newSizes.isEmpty())
+			{
+				return publish(sizeType, volumes, exact, true, curveListener);
+			}
+
+			sizes = toArray(newSizes);
+			res = GrayscaleGranulometry.volumeCurve(image, op, shape, sizeType,
+					sizes, deadlineListener);
+			finished = merge(volumes, exact, sizes, res, true);
+			curve = publish(sizeType, volumes, exact, false, curveListener);
+			if (!finished)
+				return curve;
+		}
+	}
+
+	/**
+	 * Merges the computed volumes into the curve. Exact volumes replace the
+	 * approximated ones. Returns false if some sizes were not computed.
+	 */
+	private final static boolean merge(TreeMap<Integer, Double> volumes,
+			TreeMap<Integer, Boolean> exact, int[] sizes, double[] res,
+			boolean isExact)
+	{
+		for (int i = 1; i < res.length; i++)
+		{
+			int size = sizes[i - 1];
+			if (isExact || !exact.containsKey(size) || !exact.get(size))
+			{
+				volumes.put(size, res[i]);
+				// with the pyramid, small sizes are computed on original image
+				exact.put(size, isExact || size < COARSE_SWITCH_SIZE);
+			}
+		}
+		return res.length == sizes.length + 1;
+	}
+
+	private final static Curve publish(SizeType sizeType,
+			TreeMap<Integer, Double> volumes, TreeMap<Integer, Boolean> exact,
+			boolean complete, CurveListener listener)
+	{
+		Curve curve = new Curve(sizeType, volumes, exact, complete);
+		if (listener != null)
+		{
+			listener.curveRefined(curve);
+		}
+		return curve;
+	}
+
+	private final static int[] toArray(ArrayList<Integer> list)
+	{
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+		{
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+}
@@ -15,12 +15,20 @@ import ij.gui.GenericDialog;
 import ij.gui.Plot;
 import ij.io.FileInfo;
 import ij.io.SaveDialog;
-import ij.measure.ResultsTable;
 import ij.plugin.ContrastEnhancer;
 import ij.plugin.PlugIn;
 import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
+import ij.process.FloatProcessor;
 import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import ijt.analysis.granulometry.monitor.EnhancementEvent;
+import ijt.analysis.granulometry.monitor.GranulometryMetrics;
+import ijt.analysis.granulometry.monitor.GranulometryMonitor;
+import ijt.analysis.granulometry.monitor.MetricsListener;
+import ijt.analysis.granulometry.monitor.ImageDecodeEvent;
+import ijt.analysis.granulometry.monitor.PerformanceReport;
+import ijt.analysis.granulometry.monitor.ResultWriteEvent;
 import inra.ijpb.morphology.Strel;
 
 
@@ -34,6 +42,10 @@ import inra.ijpb.morphology.Strel;
  */
 public class Batch_Granulometry_By_Diameter implements PlugIn
 {
+	/**
+	 * The delay between two writings of the metrics file, in seconds.
+	 */
+	private static final long METRICS_DUMP_PERIOD = 60;
 
 	public enum Enhancement
 	{
@@ -91,6 +103,9 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 //	@Override
 	public void run(String arg)
 	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
 		// (1) Choose an image into the input directory
 		ImagePlus image0 = IJ.openImage();
 		if (image0 == null) 
@@ -127,8 +142,10 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 		gd.addNumericField("Step (in pixels)", 1, 0);
 		gd.addChoice("Contrast_Adjustment", Enhancement.getAllLabels(), 
 				Enhancement.NONE.toString());
+		gd.addCheckbox("Convert to 8-bit", false);
 		gd.addNumericField("Spatial_Calibration", 1, 2);
 		gd.addStringField("Calibration_Unit", "pixel");
+		gd.addCheckbox("Binary Export (.npy)", false);
 		// Could also add an option for the type of operation
 		
 		// Wait for user response
@@ -142,12 +159,14 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 		int diamMax = (int) gd.getNextNumber();		
 		int step 	= (int) gd.getNextNumber();
 		Enhancement enhancement = Enhancement.fromLabel(gd.getNextChoice());
+		boolean convertToByte = gd.getNextBoolean();
 		double resol = gd.getNextNumber();
 		if (Double.isNaN(resol)) {
 			IJ.error("Parsing Error", "Could not interpret the resolution input");
 			return;
 		}
 		String unitName = gd.getNextString();
+		boolean binaryExport = gd.getNextBoolean();
 		
 		// (3) Open a dialog to choose the result file name
 		String defaultName = createDefaultFileName(baseDir.getPath(), op,
@@ -161,41 +180,88 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 			return;
 		}
 		
-		// (4) Compute the granulometric curves
-		Object[] results = exec(fileList, op, shape, diamMax, step, enhancement, resol, unitName);
+		String outputFilePath = new File(outputDirName, fileName).getAbsolutePath();
+		String basePath = outputFilePath;
+		if (basePath.endsWith(".txt"))
+			basePath = basePath.substring(0, basePath.length() - 4);
+		
+		// (4) Compute the granulometric curves, and periodically save metrics
+		File metricsFile = new File(basePath.concat(".metrics.txt"));
+		GranulometryMetrics metrics = GranulometryMonitor.metrics();
+		metrics.reset();
+		metrics.startPeriodicDump(metricsFile, METRICS_DUMP_PERIOD);
+		Object[] results;
+		try
+		{
+			results = exec(fileList, op, shape, diamMax, step, enhancement, convertToByte, resol, unitName);
+		}
+		finally
+		{
+			metrics.stopPeriodicDump();
+			saveMetrics(metricsFile, metrics);
+		}
 		if (results == null)
 		{
 			return;
 		}
 		
 		// (5) process results
-		ResultsTable volumeTable = (ResultsTable) results[1];
-		volumeTable.show("Image Volumes");
+		GranulometryResult volumes = (GranulometryResult) results[1];
+		volumes.toTable().show("Image Volumes");
 		
-		ResultsTable granuloTable = (ResultsTable) results[3];
-		granuloTable.show("Granulometries");
+		GranulometryResult granulo = (GranulometryResult) results[3];
+		granulo.toTable().show("Granulometries");
 		
-		ResultsTable statsTable = (ResultsTable) results[5];
-		statsTable.show("Granulometry Stats");
+		GranulometryResult stats = (GranulometryResult) results[5];
+		stats.toTable().show("Granulometry Stats");
 
 		
-		plotVolumetryCurves(volumeTable, "Volume variations", unitName);
-		plotGranulometryCurves(granuloTable, "Granulometry", unitName);
+		plotCurves(volumes, "Volume variations", "Sum of gray levels", unitName);
+		plotCurves(granulo, "Granulometry", "Grayscale Variation (%)", unitName);
 		
-		String outputFilePath = new File(outputDirName, fileName).getAbsolutePath();
 		saveSummaryFile(outputFilePath, fileList, op, shape, diamMax, step, enhancement, resol, unitName);
-
-		String basePath = outputFilePath;
-		if (basePath.endsWith(".txt"))
-			basePath = basePath.substring(0, basePath.length() - 4);
-		fileName = basePath.concat(".vols.txt");
-		saveResultsTable(fileName, volumeTable);
+		saveResults(results, basePath, binaryExport);
+	}
+	
+	/**
+	 * Saves the results of the exec() method in files sharing the same base
+	 * path: the volume, granulometry and statistics tables, the binary
+	 * matrices if requested, and the performance report.
+	 * 
+	 * @param results
+	 *            the array returned by the exec() method
+	 * @param basePath
+	 *            the path of the result files, without extension
+	 * @param binaryExport
+	 *            if true, the volume and granulometry tables are also saved
+	 *            in .npy format
+	 */
+	public void saveResults(Object[] results, String basePath, boolean binaryExport)
+	{
+		GranulometryResult volumes = (GranulometryResult) results[1];
+		GranulometryResult granulo = (GranulometryResult) results[3];
+		GranulometryResult stats = (GranulometryResult) results[5];
+		
+		saveResult(basePath.concat(".vols.txt"), volumes);
+		saveResult(basePath.concat(".gr.txt"), granulo);
+		saveResult(basePath.concat(".stats.txt"), stats);
 		
-		fileName = basePath.concat(".gr.txt");
-		saveResultsTable(fileName, granuloTable);
+		if (binaryExport)
+		{
+			saveBinaryResult(basePath.concat(".vols.npy"), volumes);
+			saveBinaryResult(basePath.concat(".gr.npy"), granulo);
+		}
 		
-		fileName = basePath.concat(".stats.txt");
-		saveResultsTable(fileName, statsTable);
+		String fileName = basePath.concat(".perf.txt");
+		PerformanceReport perfReport = (PerformanceReport) results[7];
+		try
+		{
+			perfReport.write(new File(fileName));
+		}
+		catch (IOException ex)
+		{
+			IJ.log("Could not write performance report: " + fileName);
+		}
 	}
 
 	private final static String createDefaultFileName(String baseDir,
@@ -241,14 +307,23 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 	public Object[] exec(File[] fileList, Operation op, Strel.Shape shape,
 			int diamMax, int step, Enhancement enhanceType, double resol,
 			String unitName)
+	{
+		return exec(fileList, op, shape, diamMax, step, enhanceType, false, resol, unitName);
+	}
+	
+	/**
+	 * Computes the granulometric curves of a list of image files. Images are
+	 * processed with their native type, unless conversion to 8-bit is
+	 * requested.
+	 */
+	public Object[] exec(File[] fileList, Operation op, Strel.Shape shape,
+			int diamMax, int step, Enhancement enhanceType, boolean convertToByte,
+			double resol, String unitName)
 	{
 		// Number of times the morphological operation should be applied
 		// Diameter = 1 corresponds to original image
 		int nSteps = (diamMax - 1) / step;
 		
-		// Initialize array of image volumes
-		double[] volumes = new double[nSteps + 1];
-		
 		// Read the first image of the list to visually track algo changes
 		ImagePlus demoImage = IJ.openImage(fileList[0].getAbsolutePath());
 		if (demoImage == null)
@@ -258,45 +333,66 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 		}
 		demoImage.show();
 		
-		// Initialize two tables: one for volumes, one for granulos
-		// Each table has image names as labels, and strel sizes as columns names.
-		// granulo table has one column less than volume table
-		ResultsTable volumeTable = new ResultsTable();
-		ResultsTable granuloTable = new ResultsTable();
+		// Initialize the result for volumes, with image names as labels, and
+		// strel sizes as columns
+		double[] sizes = new double[nSteps + 1];
+		for (int i = 0; i <= nSteps; i++)
+		{
+			sizes[i] = (i * step + 1) * resol;
+		}
+		String[] varNames = createColumnNames(nSteps, step, resol, unitName);
+		GranulometryResult volumeResult = new GranulometryResult(varNames, sizes);
 		
-		String[] varNames = createColumnNames(diamMax, step, resol, unitName);
+		// keep timings of each stage
+		PerformanceReport perfReport = new PerformanceReport();
 		
-		ContrastEnhancer enhancer = new ContrastEnhancer();
+		// display the progression and the result of each step
+		final ImagePlus preview = demoImage;
+		GranulometryListener statusListener = new StatusBarListener("Diameter")
+		{
+			@Override
+			public void stepFinished(GranulometryEvent evt)
+			{
+				super.stepFinished(evt);
+				preview.setProcessor(evt.getResultImage());
+				preview.updateImage();
+			}
+		};
+		
+		// record the latency of each step within the metrics of the batch
+		GranulometryListener metricsListener = new MetricsListener(GranulometryMonitor.metrics());
 		
 		// Iterate on image list
 		for (int iImg = 0; iImg < fileList.length; iImg++)
 		{
 			// Read and extract current image processor
+			String fileName = fileList[iImg].getName();
+			GranulometryMonitor.setCurrentFile(fileName);
+			long t0 = System.nanoTime();
+			ImageDecodeEvent decodeEvent = new ImageDecodeEvent();
+			decodeEvent.begin();
 			ImagePlus imp = IJ.openImage(fileList[iImg].getAbsolutePath());
+			decodeEvent.fileName = fileName;
+			decodeEvent.fileSize = fileList[iImg].length();
+			decodeEvent.commit();
 			if (imp == null)
 				break;
-
-			ImageProcessor image = imp.getProcessor();
+			GranulometryMonitor.metrics().addBytesRead(fileList[iImg].length());
 			
-			// Ensure input image is Gray 8
-			if (image instanceof ShortProcessor) 
-			{
-				image = image.convertToByte(true);
-			}
-			
-			// Eventually add normalisation process
-			switch (enhanceType) 
-			{
-			case NORMALIZE:
-				enhancer.stretchHistogram(image, .05);
-				break;
-			case EQUALIZE:
-				enhancer.equalize(image);
-				break;
-			case NONE:
-				// nothing to do
-				break;
-			}
+			// only successfully decoded files are reported
+			PerformanceReport.Entry perfEntry = perfReport.addEntry(fileName);
+
+			long t1 = System.nanoTime();
+			EnhancementEvent enhanceEvent = new EnhancementEvent();
+			enhanceEvent.begin();
+			ImageProcessor image = prepareImage(imp.getProcessor(), enhanceType, convertToByte);
+			enhanceEvent.fileName = fileName;
+			enhanceEvent.enhancement = enhanceType.toString();
+			enhanceEvent.commit();
+			long t2 = System.nanoTime();
+			perfEntry.setDecodeTime(t1 - t0);
+			perfEntry.setEnhanceTime(t2 - t1);
+			perfEntry.setWorkingSet(estimateWorkingSet(imp.getProcessor(), image, op));
 			
 			// Update the display figure
 			demoImage.setImage(imp);
@@ -304,54 +400,27 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 			demoImage.setProcessor(image);
 			demoImage.repaintWindow();
 			
-			// Compute initial volume of image
-			double vol = GrayscaleGranulometry.imageVolume(image);
-			volumes[0] = vol;
-
-			// Store initial volume
-			volumeTable.incrementCounter();
-			volumeTable.addLabel(fileList[iImg].getName());
-			volumeTable.addValue(varNames[0], vol);
-
-			// Iterate on the different strel diameters
-			int diam = 1;
-			for (int i = 0; i < nSteps; i++) 
+			// Compute the volume of the image for each strel diameter
+			GranulometryListener listener = new CompositeListener(statusListener, perfEntry, metricsListener);
+			double[] volumes = computeVolumeCurve(image, op, shape, diamMax, step, listener);
+			if (listener.isCancelRequested())
 			{
-				// Compute and display current size 
-				diam += step;
-				IJ.showStatus("Diameter " + diam + "(" + (i+1) + "/" + nSteps + ")");
-
-				// create structuring element for current size
-				Strel strel = shape.fromDiameter(diam);
-				strel.showProgress(false);
-
-				// Apply morphological operation, and display result
-				ImageProcessor image2 = op.getOperation().apply(image, strel);
-				demoImage.setProcessor(image2);
-				demoImage.updateImage();
-
-				// Compute volume of result
-				vol = GrayscaleGranulometry.imageVolume(image2);
-				volumes[i+1] = vol;
-
-				// Update result table
-				volumeTable.addValue(varNames[i+1], vol);
+				perfReport.removeEntry(perfEntry);
+				IJ.log("Batch granulometry interrupted by user, after " + iImg + " images");
+				break;
 			}
+			GranulometryMonitor.metrics().addImage();
 
-			// Computes the granulometric curve
-			double[] granulo = GrayscaleGranulometry.derivate(volumes);
-			
-			// stores the granulometric curve
-			granuloTable.incrementCounter();
-			granuloTable.addLabel(fileList[iImg].getName());
-			for (int i = 0; i < nSteps; i++) 
-			{
-				granuloTable.addValue(varNames[i+1], granulo[i]);
-			}
+			// Store the volume curve
+			volumeResult.addRow(fileName, volumes);
 		}
 
-		// Compute basic stats
-		ResultsTable statsTable = GrayscaleGranulometry.granuloStats(granuloTable);
+		GranulometryMonitor.setCurrentFile(null);
+		perfReport.finish();
+		
+		// Computes the granulometric curves, and basic stats
+		GranulometryResult granuloResult = GrayscaleGranulometry.derivate(volumeResult);
+		GranulometryResult statsResult = GrayscaleGranulometry.granuloStats(granuloResult);
 		
 		// Close preview image
 		demoImage.changes = false;
@@ -359,21 +428,135 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 
 		// return the created array
 		return new Object[]{
-				"Volumes", volumeTable, 
-				"Granulo", granuloTable, 
-				"Stats", statsTable};
+				"Volumes", volumeResult, 
+				"Granulo", granuloResult, 
+				"Stats", statsResult,
+				"Performance", perfReport};
+	}
+	
+	/**
+	 * Estimates the memory used for processing an image: the decoded image,
+	 * the converted image if conversion was necessary, and the images
+	 * allocated by the morphological operation (two for opening and closing,
+	 * one for erosion and dilation).
+	 */
+	private static final long estimateWorkingSet(ImageProcessor decoded,
+			ImageProcessor prepared, Operation op)
+	{
+		long bytes = imageBytes(decoded);
+		long preparedBytes = imageBytes(prepared);
+		if (prepared != decoded)
+			bytes += preparedBytes;
+		
+		int nResults = (op == Operation.OPENING || op == Operation.CLOSING) ? 2 : 1;
+		return bytes + nResults * preparedBytes;
+	}
+	
+	private static final long imageBytes(ImageProcessor image)
+	{
+		int bitDepth = image.getBitDepth();
+		int bytesPerPixel = bitDepth == 24 ? 4 : bitDepth / 8;
+		return ((long) image.getPixelCount()) * bytesPerPixel;
+	}
+	
+	/**
+	 * Prepares an image for the computation of granulometric curve, by
+	 * applying the contrast enhancement. The image keeps its native type.
+	 * 
+	 * @param image
+	 *            the image to prepare
+	 * @param enhanceType
+	 *            the type of contrast enhancement
+	 * @return the image to use for computing the granulometric curve
+	 */
+	public static final ImageProcessor prepareImage(ImageProcessor image, Enhancement enhanceType)
+	{
+		return prepareImage(image, enhanceType, false);
+	}
+	
+	/**
+	 * Prepares an image for the computation of granulometric curve, by
+	 * converting it to 8-bit if requested, and by applying the contrast
+	 * enhancement. Color images are always converted to 8-bit.
+	 * 
+	 * @param image
+	 *            the image to prepare
+	 * @param enhanceType
+	 *            the type of contrast enhancement
+	 * @param convertToByte
+	 *            if true, 16-bit and 32-bit images are converted to 8-bit
+	 * @return the image to use for computing the granulometric curve
+	 * @throws IllegalArgumentException
+	 *             if equalization is requested for a 32-bit image
+	 */
+	public static final ImageProcessor prepareImage(ImageProcessor image,
+			Enhancement enhanceType, boolean convertToByte)
+	{
+		image = GrayscaleGranulometry.toGrayscale(image, convertToByte);
+		
+		// Eventually add normalisation process
+		ContrastEnhancer enhancer = new ContrastEnhancer();
+		switch (enhanceType) 
+		{
+		case NORMALIZE:
+			enhancer.stretchHistogram(image, .05);
+			break;
+		case EQUALIZE:
+			if (image instanceof FloatProcessor)
+			{
+				throw new IllegalArgumentException("Histogram equalization requires 8-bit or 16-bit images");
+			}
+			enhancer.equalize(image);
+			break;
+		case NONE:
+			// nothing to do
+			break;
+		}
+		
+		return image;
+	}
+	
+	/**
+	 * Computes the volume of the image transformed by the morphological
+	 * operation, for each diameter of structuring element.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param diamMax
+	 *            the maximal diameter of the structuring element
+	 * @param step
+	 *            the increment between two consecutive diameters
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return an array of (diamMax - 1) / step + 1 volumes, the first one
+	 *         corresponding to the original image. If the computation was
+	 *         cancelled, only the computed volumes are returned.
+	 */
+	public static final double[] computeVolumeCurve(ImageProcessor image,
+			Operation op, Strel.Shape shape, int diamMax, int step,
+			GranulometryListener listener)
+	{
+		// Diameter = 1 corresponds to original image
+		int nSteps = (diamMax - 1) / step;
+		int[] diams = GrayscaleGranulometry.createSizes(1, step, nSteps);
+		return GrayscaleGranulometry.volumeCurve(image, op.getOperation(),
+				shape, SizeType.DIAMETER, diams, listener);
 	}
 	
 	/**
 	 *  Initialize the array of column names.
 	 */
-	private String[] createColumnNames(int maxDiameter, int step, double resol,
+	static final String[] createColumnNames(int nSteps, int step, double resol,
 			String unitName) 
 	{
-		String[] varNames = new String[maxDiameter+1];
+		String[] varNames = new String[nSteps + 1];
 		if (resol != 1 || unitName.compareTo("pixel") != 0)
 		{
-			for (int i = 0; i < maxDiameter + 1; i++) 
+			for (int i = 0; i < nSteps + 1; i++) 
 			{
 				double diam = (i * step + 1) * resol;
 				varNames[i] = String.format(Locale.US, "%5.2f", diam);
@@ -381,7 +564,7 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 		} 
 		else
 		{
-			for (int i = 0; i < maxDiameter + 1; i++) 
+			for (int i = 0; i < nSteps + 1; i++) 
 			{
 				varNames[i] = Integer.toString(i * step + 1);
 			}
@@ -390,98 +573,24 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 		return varNames;
 	}
 	
-	private void plotVolumetryCurves(ResultsTable volumeTable, String title,
-			String unitName)
+	private void plotCurves(GranulometryResult result, String title,
+			String yLabel, String unitName)
 	{
-		// Size of the table
-		int nCols = volumeTable.getLastColumn() + 1;
-		int nRows = volumeTable.getCounter();
-
-		// Get var names and deduces strel sizes
-		double[] x = new double[nCols];
-		for (int i = 0; i < nCols; i++)
-		{
-			x[i] = Double.valueOf(volumeTable.getColumnHeading(i));
-		}
-		double xMax = x[nCols - 1];
-
-		// Determines the max value for y
-		double yMax = 0;
-		for (int i = 0; i < nRows; i++)
-		{
-			for (int j = 0; j < nCols; j++)
-			{
-				yMax = Math.max(yMax, volumeTable.getValueAsDouble(j, i));
-			}
-		}
+		double[] x = result.getSizes();
+		double xMax = x[x.length - 1];
+		double yMax = Math.max(result.getMaxValue(), 0);
 	
 		// create new empty plot
 		Plot plot = new Plot(title, "Strel Diameter (" + unitName + ")",
-				"Sum of gray levels", x, new double[nCols]);
+				yLabel, x, new double[x.length]);
 
 		// set up plot
 		plot.setLimits(0, xMax, 0, yMax);
 
 		// Add each data row
-		double[] row = new double[nCols];
-		for (int r = 0; r < nRows; r++)
+		for (int r = 0; r < result.getRowCount(); r++)
 		{
-			// Extract current row
-			for (int c = 0; c < nCols; c++)
-			{
-				row[c] = volumeTable.getValueAsDouble(c, r);
-			}
-			
-			plot.addPoints(x, row, Plot.LINE);
-		}
-		
-		// Display in new window
-		plot.show();
-	}
-
-	private void plotGranulometryCurves(ResultsTable granuloTable, String title,
-			String unitName)
-	{
-		// Size of the table
-		int nCols = granuloTable.getLastColumn() + 1;
-		int nRows = granuloTable.getCounter();
-
-		// Get var names and deduces strel sizes
-		double[] x = new double[nCols];
-		for (int i = 0; i < nCols; i++)
-		{
-			x[i] = Double.valueOf(granuloTable.getColumnHeading(i));
-		}
-		double xMax = x[nCols-1];
-		
-		// Determines the max value for y
-		double yMax = 0;
-		for (int i = 0; i < nRows; i++)
-		{
-			for (int j = 0; j < nCols; j++)
-			{
-				yMax = Math.max(yMax, granuloTable.getValueAsDouble(j, i));
-			}
-		}
-		
-		// create new empty plot
-		Plot plot = new Plot(title, "Strel Diameter (" + unitName + ")",
-				"Grayscale Variation (%)", x, new double[nCols]);
-
-		// set up plot
-		plot.setLimits(0, xMax, 0, yMax);
-		
-		// Add each data row
-		double[] row = new double[nCols];
-		for (int r = 0; r < nRows; r++)
-		{
-			// Extract current row
-			for (int c = 0; c < nCols; c++)
-			{
-				row[c] = granuloTable.getValueAsDouble(c, r);
-			}
-			
-			plot.addPoints(x, row, Plot.LINE);
+			plot.addPoints(x, result.getRow(r), Plot.LINE);
 		}
 		
 		// Display in new window
@@ -528,8 +637,23 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 		writer.close();
 	}
 
-	private void saveResultsTable(String fileName, ResultsTable table)
+	private void saveMetrics(File file, GranulometryMetrics metrics)
 	{
+		try
+		{
+			metrics.writeTo(file);
+		}
+		catch (IOException ex)
+		{
+			IJ.log("Could not write metrics file: " + file.getAbsolutePath());
+		}
+	}
+	
+	private void saveResult(String fileName, GranulometryResult result)
+	{
+		ResultWriteEvent writeEvent = new ResultWriteEvent();
+		writeEvent.begin();
+		
 		PrintWriter writer;
 		try
 		{
@@ -540,34 +664,36 @@ public class Batch_Granulometry_By_Diameter implements PlugIn
 			throw new RuntimeException("Could not open file: " + fileName, ex);
 		}
 
-		// Size of the table
-		int nCols = table.getLastColumn() + 1;
-		int nRows = table.getCounter();
+		result.write(writer);
+		
+		// Closes the file 
+		writer.close();
 		
-		// Write header name of each column
-		writer.print("name");
-		for (int i = 0; i < nCols; i++)
+		writeEvent.fileName = fileName;
+		writeEvent.rowCount = result.getRowCount();
+		writeEvent.commit();
+	}
+	
+	/**
+	 * Saves a result in .npy format, together with the index file containing
+	 * labels and sizes.
+	 */
+	private void saveBinaryResult(String fileName, GranulometryResult result)
+	{
+		ResultWriteEvent writeEvent = new ResultWriteEvent();
+		writeEvent.begin();
+		
+		try
 		{
-			writer.print("\t" + table.getColumnHeading(i));
+			NpyResultFile.write(result, new File(fileName));
 		}
-		writer.println();
-
-		// Write header name of each column
-		for (int r = 0; r < nRows; r++)
+		catch (IOException ex)
 		{
-
-			writer.print(table.getLabel(r));
-			for (int c = 0; c < nCols; c++)
-			{
-				double val = table.getValueAsDouble(c, r);
-				String str = String.format(Locale.US, "%7.4f", val);
-				writer.print("\t" + str);
-			}
-			
-			writer.println();
+			throw new RuntimeException("Could not write file: " + fileName, ex);
 		}
 		
-		// Closes the file 
-		writer.close();
+		writeEvent.fileName = fileName;
+		writeEvent.rowCount = result.getRowCount();
+		writeEvent.commit();
 	}
 }
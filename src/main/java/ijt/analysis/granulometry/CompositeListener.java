@@ -0,0 +1,74 @@
+package ijt.analysis.granulometry;
+
+import java.util.ArrayList;
+
+/**
+ * Forwards the events of granulometry computation to a list of listeners.
+ * The computation is cancelled as soon as one of the listeners requests it.
+ * 
+ * @author David Legland
+ *
+ */
+public class CompositeListener implements GranulometryListener
+{
+	ArrayList<GranulometryListener> listeners = new ArrayList<GranulometryListener>(3);
+	
+	/**
+	 * Creates a new composite listener from a set of listeners.
+	 * 
+	 * @param listeners
+	 *            the listeners to notify
+	 */
+	public CompositeListener(GranulometryListener... listeners)
+	{
+		for (GranulometryListener listener : listeners)
+			add(listener);
+	}
+	
+	/**
+	 * Adds a listener to the list of notified listeners.
+	 * 
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void add(GranulometryListener listener)
+	{
+		this.listeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener from the list of notified listeners.
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void remove(GranulometryListener listener)
+	{
+		this.listeners.remove(listener);
+	}
+
+	@Override
+	public void stepStarted(GranulometryEvent evt)
+	{
+		for (GranulometryListener listener : listeners)
+			listener.stepStarted(evt);
+	}
+
+	@Override
+	public void stepFinished(GranulometryEvent evt)
+	{
+		for (GranulometryListener listener : listeners)
+			listener.stepFinished(evt);
+	}
+
+	@Override
+	public boolean isCancelRequested()
+	{
+		for (GranulometryListener listener : listeners)
+		{
+			if (listener.isCancelRequested())
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,126 @@
+package ijt.analysis.granulometry;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Computes the dominant size map of an image during the computation of a
+ * granulometric curve. For each pixel, the dominant size is the size of the
+ * structuring element for which the pixel value changed the most between
+ * the previous size and the current one. The magnitude of this change is
+ * kept as the residue map.
+ * 
+ * Only the result of the previous step and the running maximum are kept, so
+ * that memory does not depend on the number of sizes, and no additional
+ * morphological operation is required. The listener requires full-frame
+ * results, and can not be used with computations restricted to a mask.
+ * 
+ * <pre><code>
+ * DominantSizeListener sizeMap = new DominantSizeListener(image);
+ * GrayscaleGranulometry.radiusGranulometry(image, Operation.CLOSING, 
+ * 		Strel.Shape.SQUARE, 20, 1, sizeMap);
+ * ImageProcessor sizes = sizeMap.getSizeMap();
+ * </code></pre>
+ * 
+ * @author David Legland
+ *
+ */
+public class DominantSizeListener implements GranulometryListener
+{
+	int width;
+	int height;
+	
+	/**
+	 * The pixel values obtained for the previous size.
+	 */
+	float[] previous;
+	
+	/**
+	 * The size with the largest change for each pixel, or 0 if the pixel did
+	 * not change.
+	 */
+	float[] sizes;
+	
+	/**
+	 * The largest change of each pixel.
+	 */
+	float[] residues;
+	
+	/**
+	 * Creates a new listener for computing the dominant size map of an image.
+	 * 
+	 * @param image
+	 *            the image used for computing the granulometric curve
+	 */
+	public DominantSizeListener(ImageProcessor image)
+	{
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		
+		this.previous = new float[width * height];
+		for (int y = 0, i = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++, i++)
+			{
+				previous[i] = image.getf(x, y);
+			}
+		}
+		
+		this.sizes = new float[width * height];
+		this.residues = new float[width * height];
+	}
+	
+	@Override
+	public void stepStarted(GranulometryEvent evt)
+	{
+	}
+
+	@Override
+	public void stepFinished(GranulometryEvent evt)
+	{
+		ImageProcessor result = evt.getResultImage();
+		if (result.getWidth() != width || result.getHeight() != height)
+		{
+			throw new IllegalArgumentException("Result image must have the same size as input image");
+		}
+		
+		float size = evt.getSize();
+		for (int y = 0, i = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++, i++)
+			{
+				float value = result.getf(x, y);
+				float residue = Math.abs(value - previous[i]);
+				if (residue > residues[i])
+				{
+					residues[i] = residue;
+					sizes[i] = size;
+				}
+				previous[i] = value;
+			}
+		}
+	}
+
+	@Override
+	public boolean isCancelRequested()
+	{
+		return false;
+	}
+	
+	/**
+	 * @return the size of the structuring element with the largest change of
+	 *         each pixel, in pixels
+	 */
+	public ImageProcessor getSizeMap()
+	{
+		return new FloatProcessor(width, height, sizes);
+	}
+	
+	/**
+	 * @return the magnitude of the largest change of each pixel
+	 */
+	public ImageProcessor getResidueMap()
+	{
+		return new FloatProcessor(width, height, residues);
+	}
+}
@@ -0,0 +1,161 @@
+package ijt.analysis.granulometry;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Event sent to granulometry listeners at the beginning and at the end of
+ * each step of the computation of a granulometric curve.
+ * 
+ * Timing information is only available for events sent at the end of a step,
+ * and is set to zero for events sent at the beginning of a step. All times are
+ * given in nanoseconds. When the operation is applied by a granulometry
+ * engine, the structuring element is created within the operation, and the
+ * strel time only contains the preparation of the input image (restriction
+ * to a region of interest, or downsampling). The selection of the engine is
+ * not included in the times of the steps.
+ * 
+ * @see GranulometryListener
+ * 
+ * @author David Legland
+ *
+ */
+public class GranulometryEvent
+{
+	int stepIndex;
+	int stepCount;
+	int size;
+	
+	long strelTime = 0;
+	long operationTime = 0;
+	long volumeTime = 0;
+	long elapsedTime = 0;
+	
+	ImageProcessor resultImage = null;
+	ImageStack resultStack = null;
+	
+	/**
+	 * Creates a new event for the beginning of a step.
+	 * 
+	 * @param stepIndex
+	 *            the index of the step, starting from 0
+	 * @param stepCount
+	 *            the total number of steps
+	 * @param size
+	 *            the size of the structuring element, in pixels
+	 */
+	public GranulometryEvent(int stepIndex, int stepCount, int size)
+	{
+		this.stepIndex = stepIndex;
+		this.stepCount = stepCount;
+		this.size = size;
+	}
+	
+	/**
+	 * Creates a new event for the end of a step.
+	 * 
+	 * @param stepIndex
+	 *            the index of the step, starting from 0
+	 * @param stepCount
+	 *            the total number of steps
+	 * @param size
+	 *            the size of the structuring element, in pixels
+	 * @param strelTime
+	 *            the time needed for creating the structuring element and
+	 *            preparing the input image
+	 * @param operationTime
+	 *            the time needed for applying the morphological operation
+	 * @param volumeTime
+	 *            the time needed for computing the volume of the result
+	 * @param elapsedTime
+	 *            the time elapsed since the beginning of the computation
+	 */
+	public GranulometryEvent(int stepIndex, int stepCount, int size,
+			long strelTime, long operationTime, long volumeTime, long elapsedTime)
+	{
+		this(stepIndex, stepCount, size);
+		this.strelTime = strelTime;
+		this.operationTime = operationTime;
+		this.volumeTime = volumeTime;
+		this.elapsedTime = elapsedTime;
+	}
+
+	/**
+	 * @return the index of the step, starting from 0
+	 */
+	public int getStepIndex()
+	{
+		return stepIndex;
+	}
+
+	/**
+	 * @return the total number of steps of the computation
+	 */
+	public int getStepCount()
+	{
+		return stepCount;
+	}
+
+	/**
+	 * @return the size (radius or diameter) of the structuring element, in
+	 *         pixels
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the time needed for creating the structuring element and
+	 *         preparing the input image, in nanoseconds
+	 */
+	public long getStrelTime()
+	{
+		return strelTime;
+	}
+
+	/**
+	 * @return the time needed for applying the morphological operation, in
+	 *         nanoseconds
+	 */
+	public long getOperationTime()
+	{
+		return operationTime;
+	}
+
+	/**
+	 * @return the time needed for computing the volume of the transformed
+	 *         image, in nanoseconds
+	 */
+	public long getVolumeTime()
+	{
+		return volumeTime;
+	}
+
+	/**
+	 * @return the time elapsed since the beginning of the computation of the
+	 *         curve, in nanoseconds
+	 */
+	public long getElapsedTime()
+	{
+		return elapsedTime;
+	}
+
+	/**
+	 * @return the result of the morphological operation for a planar image,
+	 *         or null
+	 */
+	public ImageProcessor getResultImage()
+	{
+		return resultImage;
+	}
+
+	/**
+	 * @return the result of the morphological operation for a 3D image, or
+	 *         null
+	 */
+	public ImageStack getResultStack()
+	{
+		return resultStack;
+	}
+}
@@ -0,0 +1,42 @@
+package ijt.analysis.granulometry;
+
+/**
+ * Listener of the computation of granulometric curves.
+ * 
+ * The listener is notified at the beginning and at the end of each step of
+ * the computation, that corresponds to a given size of structuring element.
+ * The listener is also asked between two steps whether the computation
+ * should be interrupted.
+ * 
+ * @see GranulometryEvent
+ * @see StatusBarListener
+ * 
+ * @author David Legland
+ *
+ */
+public interface GranulometryListener
+{
+	/**
+	 * Called before the structuring element of the current size is created.
+	 * 
+	 * @param evt
+	 *            the event containing the index and the size of the step
+	 */
+	public void stepStarted(GranulometryEvent evt);
+
+	/**
+	 * Called after the volume of the transformed image has been computed.
+	 * 
+	 * @param evt
+	 *            the event containing the index and the size of the step,
+	 *            together with the timings of the step
+	 */
+	public void stepFinished(GranulometryEvent evt);
+
+	/**
+	 * Checked by the computation loop before each step.
+	 * 
+	 * @return true if the computation should be interrupted.
+	 */
+	public boolean isCancelRequested();
+}
@@ -0,0 +1,449 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+import ij.measure.ResultsTable;
+
+/**
+ * A compact table of granulometric results, with one row per image (or
+ * region), and one column per strel size. Values are stored as primitive
+ * arrays, and the sizes associated to columns are kept as numbers, avoiding
+ * the parsing of column headings.
+ *
+ * The same class is used for tables whose columns do not correspond to strel
+ * sizes, like summary statistics. In that case, the array of sizes is null.
+ *
+ * Conversion to ResultsTable is only required for displaying the results.
+ *
+ * @author David Legland
+ *
+ */
+public class GranulometryResult
+{
+	/**
+	 * The name of each column.
+	 */
+	String[] columnNames;
+
+	/**
+	 * The strel size associated to each column, or null if columns do not
+	 * correspond to sizes.
+	 */
+	double[] sizes;
+
+	/**
+	 * The label of each row, that may be null.
+	 */
+	String[] labels;
+
+	/**
+	 * The values of each row, as an array with one value per column.
+	 */
+	double[][] values;
+
+	/**
+	 * The number of rows.
+	 */
+	int rowCount = 0;
+
+	/**
+	 * Creates an empty result for a list of strel sizes. The name of each
+	 * column is obtained by formatting the corresponding size.
+	 *
+	 * @param sizes
+	 *            the strel size associated to each column
+	 */
+	public GranulometryResult(double[] sizes)
+	{
+		this(createColumnNames(sizes), sizes);
+	}
+
+	/**
+	 * Creates an empty result with the specified column names, and the strel
+	 * size associated to each column.
+	 *
+	 * @param columnNames
+	 *            the name of each column
+	 * @param sizes
+	 *            the strel size associated to each column, or null if columns
+	 *            do not correspond to sizes
+	 */
+	public GranulometryResult(String[] columnNames, double[] sizes)
+	{
+		if (sizes != null && sizes.length != columnNames.length)
+		{
+			throw new IllegalArgumentException("Number of sizes must match the number of columns");
+		}
+		this.columnNames = columnNames;
+		this.sizes = sizes;
+		this.labels = new String[10];
+		this.values = new double[10][];
+	}
+
+	/**
+	 * Creates a default name for each size, by using integer format for
+	 * integer sizes.
+	 */
+	private static final String[] createColumnNames(double[] sizes)
+	{
+		String[] names = new String[sizes.length];
+		for (int i = 0; i < sizes.length; i++)
+		{
+			double size = sizes[i];
+			if (size == Math.rint(size))
+				names[i] = Integer.toString((int) size);
+			else
+				names[i] = String.format(Locale.US, "%5.2f", size);
+		}
+		return names;
+	}
+
+	/**
+	 * Converts a table whose column headings correspond to strel sizes. If
+	 * some headings can not be parsed as numbers, the array of sizes is set to
+	 * null.
+	 *
+	 * @param table
+	 *            the table to convert
+	 * @return the corresponding result
+	 */
+	public static final GranulometryResult fromTable(ResultsTable table)
+	{
+		int nCols = table.getLastColumn() + 1;
+		int nRows = table.getCounter();
+
+		String[] names = new String[nCols];
+		for (int c = 0; c < nCols; c++)
+		{
+			names[c] = table.getColumnHeading(c);
+		}
+
+		double[] sizes = new double[nCols];
+		for (int c = 0; c < nCols; c++)
+		{
+			try
+			{
+				sizes[c] = Double.parseDouble(names[c].trim());
+			}
+			catch (NumberFormatException ex)
+			{
+				sizes = null;
+				break;
+			}
+		}
+
+		GranulometryResult result = new GranulometryResult(names, sizes);
+		for (int r = 0; r < nRows; r++)
+		{
+			double[] row = new double[nCols];
+			for (int c = 0; c < nCols; c++)
+			{
+				row[c] = table.getValueAsDouble(c, r);
+			}
+			result.addRow(table.getLabel(r), row);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads a result written in tab-separated text format by the write()
+	 * method. The sizes are obtained by parsing the column names; if some
+	 * names can not be parsed as numbers, the array of sizes is set to null.
+	 *
+	 * @param file
+	 *            the text file to read
+	 * @return the result contained in the file
+	 * @throws IOException
+	 *             if the file could not be read or parsed
+	 */
+	public static final GranulometryResult readText(File file) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line = reader.readLine();
+			if (line == null)
+			{
+				throw new IOException("Empty result file: " + file.getName());
+			}
+			String[] tokens = line.split("\t");
+			int nCols = tokens.length - 1;
+			String[] names = Arrays.copyOfRange(tokens, 1, tokens.length);
+			double[] sizes = new double[nCols];
+			for (int c = 0; c < nCols; c++)
+			{
+				try
+				{
+					sizes[c] = Double.parseDouble(names[c].trim());
+				}
+				catch (NumberFormatException ex)
+				{
+					sizes = null;
+					break;
+				}
+			}
+
+			GranulometryResult result = new GranulometryResult(names, sizes);
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.isEmpty())
+					continue;
+				tokens = line.split("\t");
+				if (tokens.length != nCols + 1)
+				{
+					throw new IOException("Wrong number of values in file " + file.getName() + ": " + line);
+				}
+				double[] row = new double[nCols];
+				for (int c = 0; c < nCols; c++)
+				{
+					row[c] = Double.parseDouble(tokens[c + 1].trim());
+				}
+				result.addRow(tokens[0], row);
+			}
+			return result;
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IOException("Could not parse file " + file.getName(), ex);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Checks that the header line of a file written in tab-separated text
+	 * format contains the column names of this result. This makes it possible
+	 * to detect that rows computed with different parameters are about to be
+	 * appended to an existing file. Missing or empty files are accepted.
+	 *
+	 * @param file
+	 *            the text file to check
+	 * @throws IOException
+	 *             if the file could not be read, or if its column names differ
+	 *             from those of this result
+	 */
+	public void checkHeader(File file) throws IOException
+	{
+		if (!file.exists() || file.length() == 0)
+			return;
+
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line = reader.readLine();
+			String[] tokens = line == null ? new String[0] : line.split("\t");
+			boolean valid = tokens.length == columnNames.length + 1;
+			for (int c = 0; valid && c < columnNames.length; c++)
+			{
+				valid = tokens[c + 1].trim().equals(columnNames[c].trim());
+			}
+			if (!valid)
+			{
+				throw new IOException("The columns of file " + file.getName()
+						+ " do not match the current parameters");
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Adds a new row to this result. The array is stored without copy.
+	 *
+	 * @param label
+	 *            the label of the row, or null
+	 * @param rowValues
+	 *            the value of each column
+	 */
+	public void addRow(String label, double[] rowValues)
+	{
+		if (rowValues.length != columnNames.length)
+		{
+			throw new IllegalArgumentException("Row must contain " + columnNames.length + " values");
+		}
+
+		if (rowCount == values.length)
+		{
+			int newCapacity = rowCount * 2;
+			labels = Arrays.copyOf(labels, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+		}
+		labels[rowCount] = label;
+		values[rowCount] = rowValues;
+		rowCount++;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getRowCount()
+	{
+		return rowCount;
+	}
+
+	/**
+	 * @return the number of columns
+	 */
+	public int getColumnCount()
+	{
+		return columnNames.length;
+	}
+
+	/**
+	 * @return the name of each column
+	 */
+	public String[] getColumnNames()
+	{
+		return columnNames;
+	}
+
+	/**
+	 * @return the strel size associated to each column, or null if columns do
+	 *         not correspond to sizes
+	 */
+	public double[] getSizes()
+	{
+		return sizes;
+	}
+
+	/**
+	 * @param row
+	 *            the index of the row
+	 * @return the label of the row, or null
+	 */
+	public String getLabel(int row)
+	{
+		return labels[row];
+	}
+
+	/**
+	 * @param row
+	 *            the index of the row
+	 * @return the array of values of the row (not a copy)
+	 */
+	public double[] getRow(int row)
+	{
+		return values[row];
+	}
+
+	/**
+	 * @param row
+	 *            the index of the row
+	 * @param col
+	 *            the index of the column
+	 * @return the value at the specified position
+	 */
+	public double getValue(int row, int col)
+	{
+		return values[row][col];
+	}
+
+	/**
+	 * @return the largest value within the result
+	 */
+	public double getMaxValue()
+	{
+		double maxVal = Double.NEGATIVE_INFINITY;
+		for (int r = 0; r < rowCount; r++)
+		{
+			for (double v : values[r])
+			{
+				maxVal = Math.max(maxVal, v);
+			}
+		}
+		return maxVal;
+	}
+
+	/**
+	 * Converts this result into a ResultsTable, for display purpose.
+	 *
+	 * @return a new ResultsTable containing the same values
+	 */
+	public ResultsTable toTable()
+	{
+		ResultsTable table = new ResultsTable(rowCount);
+		for (int r = 0; r < rowCount; r++)
+		{
+			if (labels[r] != null)
+				table.setLabel(labels[r], r);
+		}
+		for (int c = 0; c < columnNames.length; c++)
+		{
+			String name = columnNames[c];
+			for (int r = 0; r < rowCount; r++)
+			{
+				table.setValue(name, r, values[r][c]);
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Writes this result as tab-separated text, with a header line containing
+	 * the column names, and one line per row starting with the row label.
+	 *
+	 * @param writer
+	 *            the writer to use
+	 */
+	public void write(PrintWriter writer)
+	{
+		writeHeader(writer);
+		for (int r = 0; r < rowCount; r++)
+		{
+			writeRow(writer, labels[r], values[r]);
+		}
+	}
+
+	/**
+	 * Writes the header line of the tab-separated text format, containing the
+	 * column names.
+	 *
+	 * @param writer
+	 *            the writer to use
+	 */
+	public void writeHeader(PrintWriter writer)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("name");
+		for (String name : columnNames)
+		{
+			sb.append('\t').append(name);
+		}
+		writer.println(sb.toString());
+	}
+
+	/**
+	 * Writes a single row in tab-separated text format. This makes it
+	 * possible to append rows to a file without keeping them in memory.
+	 *
+	 * @param writer
+	 *            the writer to use
+	 * @param label
+	 *            the label of the row
+	 * @param rowValues
+	 *            the values of the row
+	 */
+	public static final void writeRow(PrintWriter writer, String label, double[] rowValues)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(label);
+		for (double v : rowValues)
+		{
+			sb.append('\t').append(String.format(Locale.US, "%7.4f", v));
+		}
+		writer.println(sb.toString());
+	}
+}
@@ -0,0 +1,667 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter.Enhancement;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.monitor.GranulometryMonitor;
+import ijt.analysis.granulometry.monitor.MetricsListener;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * A long-running granulometry service, that accepts jobs from local clients
+ * through a loopback socket. Keeping the JVM alive avoids the startup of
+ * ImageJ for each scripted run, and keeps the code warm.
+ *
+ * The protocol is line-based, with tab-separated fields and UTF-8 encoding.
+ * A job is submitted as follows:
+ *
+ * <pre>
+ * JOB &lt;id&gt; [operation=Closing] [element=Square] [diameter=51] [step=1]
+ *     [contrast=None] [convert=false] [calibration=1] [unit=pixel]
+ * &lt;image path&gt;
+ * ...
+ * END
+ * </pre>
+ *
+ * The service answers with a line "ACCEPTED &lt;id&gt; &lt;nImages&gt;",
+ * followed by a line "COLUMNS &lt;id&gt; &lt;names...&gt;". Then a line
+ * "ROW &lt;id&gt; &lt;image name&gt; &lt;volumes...&gt;" is sent as soon as
+ * the volume curve of an image is computed, or a line "ERROR &lt;id&gt;
+ * &lt;image name&gt; &lt;message&gt;" if the image could not be processed.
+ * Rows are sent in the order of completion. The line "DONE &lt;id&gt;
+ * &lt;nRows&gt; &lt;nErrors&gt;" ends the job. Several jobs may be submitted
+ * without waiting for the previous ones.
+ *
+ * Other commands are "PING" (answered by "PONG"), "QUIT" for closing the
+ * connection once the pending jobs are finished, and "SHUTDOWN" for stopping
+ * the service. If the client closes the connection without "QUIT", the
+ * pending images are cancelled.
+ *
+ * The images of all jobs are processed by a shared pool of worker threads.
+ * The volume curves of the most recent images are cached, and reused when
+ * the same unmodified file is submitted again with the same parameters.
+ *
+ * @author David Legland
+ *
+ */
+public class GranulometryService
+{
+	/**
+	 * The default port of the service.
+	 */
+	public static final int DEFAULT_PORT = 7040;
+
+	/**
+	 * The port the service listens to, or 0 for choosing a free port.
+	 */
+	int port;
+
+	/**
+	 * The number of worker threads.
+	 */
+	int nThreads;
+
+	/**
+	 * The maximal number of volume curves kept in cache.
+	 */
+	int cacheSize = 4096;
+
+	/**
+	 * The cache of volume curves, indexed by file and parameters.
+	 */
+	Map<String, double[]> cache;
+
+	ServerSocket serverSocket;
+	ExecutorService workers;
+	Thread acceptThread;
+	Set<Socket> clients = ConcurrentHashMap.newKeySet();
+	CountDownLatch stopped;
+
+	volatile boolean running = false;
+
+	/**
+	 * The number of images processed since the start.
+	 */
+	AtomicInteger processedCount = new AtomicInteger(0);
+
+	/**
+	 * Creates a new service.
+	 *
+	 * @param port
+	 *            the port to listen to, or 0 for choosing a free port
+	 * @param nThreads
+	 *            the number of worker threads
+	 */
+	public GranulometryService(int port, int nThreads)
+	{
+		if (nThreads < 1)
+		{
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.port = port;
+		this.nThreads = nThreads;
+	}
+
+	/**
+	 * @param cacheSize
+	 *            the maximal number of volume curves kept in cache, or 0 for
+	 *            disabling the cache
+	 */
+	public void setCacheSize(int cacheSize)
+	{
+		this.cacheSize = Math.max(cacheSize, 0);
+	}
+
+	/**
+	 * @return the port the service listens to
+	 */
+	public int getPort()
+	{
+		return serverSocket != null ? serverSocket.getLocalPort() : port;
+	}
+
+	/**
+	 * @return the number of images processed since the start
+	 */
+	public int getProcessedCount()
+	{
+		return processedCount.get();
+	}
+
+	/**
+	 * @return true if the service accepts connections
+	 */
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	/**
+	 * Starts listening to the loopback interface.
+	 *
+	 * @throws IOException
+	 *             if the socket could not be opened
+	 */
+	public synchronized void start() throws IOException
+	{
+		if (running)
+		{
+			throw new IllegalStateException("Granulometry service is already running");
+		}
+
+		final int capacity = cacheSize;
+		cache = new LinkedHashMap<String, double[]>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest)
+			{
+				return size() > capacity;
+			}
+		};
+
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		workers = Executors.newFixedThreadPool(nThreads, new ThreadFactory()
+		{
+			AtomicInteger count = new AtomicInteger(0);
+
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "granulometry-worker-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		stopped = new CountDownLatch(1);
+		running = true;
+
+		acceptThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				acceptConnections();
+			}
+		}, "granulometry-service");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/**
+	 * Stops the service. Pending images are discarded, and client
+	 * connections are closed.
+	 */
+	public synchronized void stop()
+	{
+		if (!running)
+			return;
+		running = false;
+
+		try
+		{
+			serverSocket.close();
+		}
+		catch (IOException ex)
+		{
+			// nothing to do
+		}
+		for (Socket socket : clients)
+		{
+			closeQuietly(socket);
+		}
+		workers.shutdownNow();
+		stopped.countDown();
+	}
+
+	/**
+	 * Blocks until the service is stopped, either by calling the stop()
+	 * method, or by a client sending the "SHUTDOWN" command.
+	 *
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting
+	 */
+	public void awaitStop() throws InterruptedException
+	{
+		if (stopped != null)
+			stopped.await();
+	}
+
+	private void acceptConnections()
+	{
+		while (running)
+		{
+			final Socket socket;
+			try
+			{
+				socket = serverSocket.accept();
+			}
+			catch (IOException ex)
+			{
+				// socket closed by stop()
+				break;
+			}
+
+			clients.add(socket);
+			Thread thread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						handleConnection(socket);
+					}
+					catch (IOException ex)
+					{
+						// connection closed by the client
+					}
+					finally
+					{
+						clients.remove(socket);
+						closeQuietly(socket);
+					}
+				}
+			}, "granulometry-client");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Reads the commands of a client until the connection is closed.
+	 */
+	private void handleConnection(Socket socket) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), StandardCharsets.UTF_8));
+		final Connection connection = new Connection(new PrintWriter(new BufferedWriter(
+				new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))));
+
+		boolean quit = false;
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+
+				// fields are separated by tabs, as labels may contain spaces
+				String[] tokens = line.split("\\s*\t\\s*");
+				String command = tokens[0].toUpperCase(Locale.ENGLISH);
+				if (command.equals("PING"))
+				{
+					connection.send("PONG");
+				}
+				else if (command.equals("QUIT"))
+				{
+					quit = true;
+					break;
+				}
+				else if (command.equals("SHUTDOWN"))
+				{
+					stop();
+					break;
+				}
+				else if (command.equals("JOB") && tokens.length >= 2)
+				{
+					ArrayList<File> files = new ArrayList<File>();
+					while ((line = reader.readLine()) != null && !line.trim().equals("END"))
+					{
+						if (!line.trim().isEmpty())
+							files.add(new File(line.trim()));
+					}
+					if (line == null)
+						break;
+					submitJob(connection, tokens, files);
+				}
+				else
+				{
+					connection.send("ERROR", "", "", "Unknown command: " + line);
+				}
+			}
+		}
+		finally
+		{
+			if (!quit)
+			{
+				// the client is gone, so the pending images are cancelled
+				connection.closed = true;
+			}
+
+			// send the rows of the pending jobs before closing
+			connection.awaitJobs();
+			connection.closed = true;
+		}
+	}
+
+	/**
+	 * Parses the parameters of a job, and submits its images to the workers.
+	 */
+	private void submitJob(final Connection connection, String[] tokens, ArrayList<File> files)
+	{
+		final String jobId = tokens[1];
+		final JobParameters params;
+		try
+		{
+			params = JobParameters.parse(tokens, 2);
+		}
+		catch (RuntimeException ex)
+		{
+			connection.send("ERROR", jobId, "", ex.getMessage());
+			connection.send("DONE", jobId, "0", Integer.toString(files.size()));
+			return;
+		}
+
+		connection.send("ACCEPTED", jobId, Integer.toString(files.size()));
+		String[] names = Batch_Granulometry_By_Diameter.createColumnNames(params.nSteps(),
+				params.step, params.resol, params.unitName);
+		String[] fields = new String[names.length + 2];
+		fields[0] = "COLUMNS";
+		fields[1] = jobId;
+		System.arraycopy(names, 0, fields, 2, names.length);
+		connection.send(fields);
+
+		if (files.isEmpty())
+		{
+			connection.send("DONE", jobId, "0", "0");
+			return;
+		}
+
+		connection.jobStarted();
+		final AtomicInteger remaining = new AtomicInteger(files.size());
+		final AtomicInteger nErrors = new AtomicInteger(0);
+		for (final File file : files)
+		{
+			workers.execute(new Runnable()
+			{
+				public void run()
+				{
+					String fileName = file.getName();
+					try
+					{
+						double[] volumes = processImage(file, params, connection);
+						if (volumes != null)
+						{
+							String[] fields = new String[volumes.length + 3];
+							fields[0] = "ROW";
+							fields[1] = jobId;
+							fields[2] = fileName;
+							for (int i = 0; i < volumes.length; i++)
+							{
+								fields[i + 3] = Double.toString(volumes[i]);
+							}
+							connection.send(fields);
+						}
+						else
+						{
+							nErrors.incrementAndGet();
+							connection.send("ERROR", jobId, fileName, "Cancelled");
+						}
+					}
+					catch (Exception ex)
+					{
+						nErrors.incrementAndGet();
+						connection.send("ERROR", jobId, fileName, String.valueOf(ex.getMessage()));
+					}
+
+					if (remaining.decrementAndGet() == 0)
+					{
+						int nRows = files.size() - nErrors.get();
+						connection.send("DONE", jobId, Integer.toString(nRows),
+								Integer.toString(nErrors.get()));
+						connection.jobFinished();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Computes the volume curve of an image, or retrieves it from the cache.
+	 *
+	 * @return the volume curve, or null if the computation was cancelled
+	 */
+	private double[] processImage(File file, JobParameters params,
+			final Connection connection) throws IOException
+	{
+		if (connection.closed || !running)
+			return null;
+
+		String key = file.getAbsolutePath() + "\t" + file.lastModified() + "\t"
+				+ file.length() + "\t" + params;
+		synchronized (cache)
+		{
+			double[] volumes = cache.get(key);
+			if (volumes != null)
+				return volumes;
+		}
+
+		String fileName = file.getName();
+		GranulometryMonitor.setCurrentFile(fileName);
+		try
+		{
+			ImagePlus imp = IJ.openImage(file.getAbsolutePath());
+			if (imp == null)
+			{
+				throw new IOException("Could not open image file: " + file.getAbsolutePath());
+			}
+			GranulometryMonitor.metrics().addBytesRead(file.length());
+
+			GranulometryListener listener = new MetricsListener(GranulometryMonitor.metrics())
+			{
+				@Override
+				public boolean isCancelRequested()
+				{
+					return connection.closed || !running;
+				}
+			};
+			ImageProcessor image = Batch_Granulometry_By_Diameter.prepareImage(
+					imp.getProcessor(), params.enhancement, params.convertToByte);
+			double[] volumes = Batch_Granulometry_By_Diameter.computeVolumeCurve(image,
+					params.op, params.shape, params.diamMax, params.step, listener);
+			if (volumes.length < params.nSteps() + 1)
+				return null;
+
+			GranulometryMonitor.metrics().addImage();
+			processedCount.incrementAndGet();
+			synchronized (cache)
+			{
+				cache.put(key, volumes);
+			}
+			return volumes;
+		}
+		finally
+		{
+			GranulometryMonitor.setCurrentFile(null);
+		}
+	}
+
+	private static final void closeQuietly(Socket socket)
+	{
+		try
+		{
+			socket.close();
+		}
+		catch (IOException ex)
+		{
+			// nothing to do
+		}
+	}
+
+	/**
+	 * The output side of a client connection, shared by the workers
+	 * processing its jobs.
+	 */
+	class Connection
+	{
+		PrintWriter writer;
+		volatile boolean closed = false;
+
+		/**
+		 * The number of jobs whose images are not all processed.
+		 */
+		int activeJobs = 0;
+
+		Connection(PrintWriter writer)
+		{
+			this.writer = writer;
+		}
+
+		synchronized void jobStarted()
+		{
+			activeJobs++;
+		}
+
+		synchronized void jobFinished()
+		{
+			activeJobs--;
+			notifyAll();
+		}
+
+		/**
+		 * Waits until all the jobs are finished, the connection is closed, or
+		 * the service is stopped.
+		 */
+		synchronized void awaitJobs()
+		{
+			while (activeJobs > 0 && !closed && running)
+			{
+				try
+				{
+					wait(500);
+				}
+				catch (InterruptedException ex)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Sends a line made of tab-separated fields.
+		 */
+		void send(String... fields)
+		{
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < fields.length; i++)
+			{
+				if (i > 0)
+					sb.append('\t');
+				sb.append(fields[i].replace('\t', ' ').replace('\n', ' '));
+			}
+
+			synchronized (this)
+			{
+				if (closed)
+					return;
+				writer.println(sb.toString());
+				writer.flush();
+				if (writer.checkError())
+					closed = true;
+			}
+		}
+	}
+
+	/**
+	 * The parameters of a job, with the same default values as the batch
+	 * plugin.
+	 */
+	static class JobParameters
+	{
+		Operation op = Operation.CLOSING;
+		Strel.Shape shape = Strel.Shape.SQUARE;
+		int diamMax = 51;
+		int step = 1;
+		Enhancement enhancement = Enhancement.NONE;
+		boolean convertToByte = false;
+		double resol = 1;
+		String unitName = "pixel";
+
+		/**
+		 * Parses the "key=value" tokens of a job, starting from the given
+		 * index.
+		 */
+		static JobParameters parse(String[] tokens, int start)
+		{
+			JobParameters params = new JobParameters();
+			for (int i = start; i < tokens.length; i++)
+			{
+				int pos = tokens[i].indexOf('=');
+				if (pos < 0)
+				{
+					throw new IllegalArgumentException("Parameters must be given as key=value: " + tokens[i]);
+				}
+				String key = tokens[i].substring(0, pos).toLowerCase(Locale.ENGLISH);
+				String value = tokens[i].substring(pos + 1);
+				if (key.equals("operation"))
+					params.op = Operation.fromLabel(value);
+				else if (key.equals("element"))
+					params.shape = Strel.Shape.fromLabel(value);
+				else if (key.equals("diameter"))
+					params.diamMax = Integer.parseInt(value);
+				else if (key.equals("step"))
+					params.step = Integer.parseInt(value);
+				else if (key.equals("contrast"))
+					params.enhancement = Enhancement.fromLabel(value);
+				else if (key.equals("convert"))
+					params.convertToByte = Boolean.parseBoolean(value);
+				else if (key.equals("calibration"))
+					params.resol = Double.parseDouble(value);
+				else if (key.equals("unit"))
+					params.unitName = value;
+				else
+					throw new IllegalArgumentException("Unknown parameter: " + key);
+			}
+			if (params.diamMax < 1 || params.step < 1)
+			{
+				throw new IllegalArgumentException("Diameter and step must be positive");
+			}
+			return params;
+		}
+
+		int nSteps()
+		{
+			return (diamMax - 1) / step;
+		}
+
+		/**
+		 * Returns a representation of the parameters that modify the volume
+		 * curve, used as part of the cache key.
+		 */
+		@Override
+		public String toString()
+		{
+			return op + "/" + shape + "/" + diamMax + "/" + step + "/" + enhancement + "/" + convertToByte;
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes summary statistics of granulometric curves, considered as
+ * distributions of sizes.
+ *
+ * All the statistics of a curve are computed within a single pass over the
+ * values: the moments are accumulated relative to the first size to limit
+ * numerical cancellation, and the percentiles are obtained by linear
+ * interpolation of the cumulative distribution. The value of each size
+ * corresponds to the interval ending at this size, as computed by
+ * GrayscaleGranulometry.derivate(); the interval of the first size is assumed
+ * to have the same length as the second one. The median size is given by the
+ * "D50" percentile. Large results are split into blocks of rows processed in
+ * parallel.
+ *
+ * @author David Legland
+ *
+ */
+public class GranulometryStats
+{
+	/**
+	 * The names of the computed statistics. "D50" corresponds to the median
+	 * size.
+	 */
+	public static final String[] STAT_NAMES = new String[] {
+		"mean", "std", "geommean", "skewness", "mode", "D10", "D50", "D90"};
+
+	/**
+	 * The minimal number of rows processed by each thread.
+	 */
+	static final int MIN_BLOCK_SIZE = 4096;
+
+	/**
+	 * Computes the statistics of each granulometric curve, using all the
+	 * available processors.
+	 *
+	 * @param granulo
+	 *            a result with one granulometric curve per row, whose columns
+	 *            correspond to strel sizes
+	 * @return a result with the same labels, and one column per statistic
+	 */
+	public static final GranulometryResult compute(GranulometryResult granulo)
+	{
+		return compute(granulo, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Computes the statistics of each granulometric curve.
+	 *
+	 * @param granulo
+	 *            a result with one granulometric curve per row, whose columns
+	 *            correspond to strel sizes
+	 * @param nThreads
+	 *            the maximal number of threads to use
+	 * @return a result with the same labels, and one column per statistic
+	 */
+	public static final GranulometryResult compute(final GranulometryResult granulo, int nThreads)
+	{
+		final double[] sizes = granulo.getSizes();
+		if (sizes == null)
+		{
+			throw new IllegalArgumentException("Granulometry columns must correspond to strel sizes");
+		}
+		int nRows = granulo.getRowCount();
+
+		// precompute the logarithm of sizes
+		final double[] logSizes = new double[sizes.length];
+		for (int c = 0; c < sizes.length; c++)
+		{
+			logSizes[c] = Math.log(sizes[c]);
+		}
+
+		final double[][] stats = new double[nRows][];
+		int nBlocks = Math.min(Math.max(nThreads, 1), (nRows + MIN_BLOCK_SIZE - 1) / MIN_BLOCK_SIZE);
+		if (nBlocks <= 1)
+		{
+			computeRows(granulo, sizes, logSizes, stats, 0, nRows);
+		}
+		else
+		{
+			ExecutorService executor = Executors.newFixedThreadPool(nBlocks);
+			try
+			{
+				ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nBlocks);
+				int blockSize = (nRows + nBlocks - 1) / nBlocks;
+				for (int b = 0; b < nBlocks; b++)
+				{
+					final int row0 = b * blockSize;
+					final int row1 = Math.min(row0 + blockSize, nRows);
+					futures.add(executor.submit(new Callable<Object>()
+					{
+						@Override
+						public Object call()
+						{
+							computeRows(granulo, sizes, logSizes, stats, row0, row1);
+							return null;
+						}
+					}));
+				}
+				for (Future<?> future : futures)
+				{
+					future.get();
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Computation of statistics was interrupted", ex);
+			}
+			catch (ExecutionException ex)
+			{
+				throw new RuntimeException("Could not compute statistics", ex.getCause());
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+		}
+
+		GranulometryResult result = new GranulometryResult(STAT_NAMES, null);
+		for (int r = 0; r < nRows; r++)
+		{
+			result.addRow(granulo.getLabel(r), stats[r]);
+		}
+		return result;
+	}
+
+	private static final void computeRows(GranulometryResult granulo, double[] sizes,
+			double[] logSizes, double[][] stats, int row0, int row1)
+	{
+		for (int r = row0; r < row1; r++)
+		{
+			stats[r] = computeRow(granulo.getRow(r), sizes, logSizes);
+		}
+	}
+
+	/**
+	 * Computes the statistics of a single granulometric curve.
+	 *
+	 * @param freqs
+	 *            the frequency of each size, usually as percentages
+	 * @param sizes
+	 *            the strel sizes, in increasing order
+	 * @return the statistics, in the order of STAT_NAMES, the median
+	 *         corresponding to "D50"
+	 */
+	public static final double[] computeRow(double[] freqs, double[] sizes)
+	{
+		double[] logSizes = new double[sizes.length];
+		for (int c = 0; c < sizes.length; c++)
+		{
+			logSizes[c] = Math.log(sizes[c]);
+		}
+		return computeRow(freqs, sizes, logSizes);
+	}
+
+	private static final double[] computeRow(double[] freqs, double[] sizes, double[] logSizes)
+	{
+		int n = freqs.length;
+		double x0 = sizes[0];
+
+		// total frequency
+		double total = 0;
+		for (int c = 0; c < n; c++)
+		{
+			total += freqs[c];
+		}
+
+		// moments relative to the first size, mode, and percentiles
+		double s1 = 0, s2 = 0, s3 = 0, sLog = 0;
+		double maxFreq = Double.NEGATIVE_INFINITY;
+		double mode = Double.NaN;
+		double d10 = Double.NaN, d50 = Double.NaN, d90 = Double.NaN;
+		double cum = 0;
+		// lower edge of the interval of the first size, that is not known
+		// from the sizes: use the length of the second interval
+		double prevSize = n > 1 ? Math.max(2 * x0 - sizes[1], 0) : 0;
+		for (int c = 0; c < n; c++)
+		{
+			double f = freqs[c];
+			double x = sizes[c];
+			double d = x - x0;
+			double fd = f * d;
+			s1 += fd;
+			s2 += fd * d;
+			s3 += fd * d * d;
+			sLog += f * logSizes[c];
+
+			if (f > maxFreq)
+			{
+				maxFreq = f;
+				mode = x;
+			}
+
+			// interpolate the size where the cumulative frequency crosses
+			// each percentile
+			double cum2 = cum + f;
+			if (f > 0)
+			{
+				double t10 = 0.1 * total, t50 = 0.5 * total, t90 = 0.9 * total;
+				if (Double.isNaN(d10) && cum2 >= t10)
+					d10 = prevSize + (x - prevSize) * (t10 - cum) / f;
+				if (Double.isNaN(d50) && cum2 >= t50)
+					d50 = prevSize + (x - prevSize) * (t50 - cum) / f;
+				if (Double.isNaN(d90) && cum2 >= t90)
+					d90 = prevSize + (x - prevSize) * (t90 - cum) / f;
+			}
+			cum = cum2;
+			prevSize = x;
+		}
+
+		// convert raw moments into central moments
+		double m1 = s1 / total;
+		double m2 = s2 / total;
+		double m3 = s3 / total;
+		double var = Math.max(m2 - m1 * m1, 0);
+		double mu3 = m3 - 3 * m1 * m2 + 2 * m1 * m1 * m1;
+		double std = Math.sqrt(var);
+		double skewness = var > 0 ? mu3 / (var * std) : Double.NaN;
+
+		return new double[] {x0 + m1, std, Math.exp(sLog / total), skewness,
+				mode, d10, d50, d90};
+	}
+}
@@ -0,0 +1,78 @@
+package ijt.analysis.granulometry;
+
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+
+import ij.IJ;
+import ij.gui.GenericDialog;
+import ij.gui.WaitForUserDialog;
+import ij.plugin.PlugIn;
+import ijt.analysis.granulometry.engine.EngineSelector;
+
+/**
+ * Plugin for running a local granulometry service, that processes the jobs
+ * submitted by scripts through a loopback socket. In headless mode, the
+ * plugin returns when a client sends the "SHUTDOWN" command.
+ *
+ * @see GranulometryService
+ *
+ * @author David Legland
+ *
+ */
+public class Granulometry_Service implements PlugIn
+{
+	/* (non-Javadoc)
+	 * @see ij.plugin.PlugIn#run(java.lang.String)
+	 */
+	public void run(String arg)
+	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
+		GenericDialog gd = new GenericDialog("Granulometry Service");
+		gd.addNumericField("Port", GranulometryService.DEFAULT_PORT, 0);
+		gd.addNumericField("Number_of_Threads", Runtime.getRuntime().availableProcessors(), 0);
+		gd.addNumericField("Cache_Size (curves)", 4096, 0);
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+
+		int port = (int) gd.getNextNumber();
+		int nThreads = (int) gd.getNextNumber();
+		int cacheSize = (int) gd.getNextNumber();
+
+		GranulometryService service = new GranulometryService(port, Math.max(nThreads, 1));
+		service.setCacheSize(cacheSize);
+		try
+		{
+			service.start();
+		}
+		catch (IOException ex)
+		{
+			IJ.error("Granulometry Service", "Could not start the service:\n" + ex.getMessage());
+			return;
+		}
+		IJ.log("Granulometry service listening on port " + service.getPort());
+
+		if (GraphicsEnvironment.isHeadless())
+		{
+			try
+			{
+				service.awaitStop();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		else
+		{
+			new WaitForUserDialog("Granulometry Service",
+					"Granulometry service listening on port " + service.getPort() + ".\n \n"
+					+ "Click OK to stop.").show();
+		}
+		service.stop();
+
+		IJ.log("Granulometry service stopped: " + service.getProcessedCount() + " images processed");
+	}
+}
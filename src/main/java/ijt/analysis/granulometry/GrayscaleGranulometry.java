@@ -6,13 +6,29 @@ package ijt.analysis.granulometry;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.gui.Roi;
 import ij.measure.ResultsTable;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import ijt.analysis.granulometry.engine.GranulometryEngine;
+import ijt.analysis.granulometry.monitor.OperationEvent;
+import ijt.analysis.granulometry.monitor.VolumeEvent;
 
 import inra.ijpb.morphology.Morphology;
 import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
 
+import java.awt.Rectangle;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author David Legland
@@ -141,6 +157,78 @@ public class GrayscaleGranulometry
 		}
 	};
 
+
+	/**
+	 * The way the size of a structuring element is specified.
+	 */
+	public enum SizeType
+	{
+		/** Structuring elements are created from their radius */
+		RADIUS("Radius"),
+		/** Structuring elements are created from their diameter */
+		DIAMETER("Diameter");
+		
+		private String label;
+		
+		private SizeType(String label)
+		{
+			this.label = label;
+		}
+		
+		public String toString()
+		{
+			return this.label;
+		}
+		
+		/**
+		 * Creates a structuring element with the specified shape and size.
+		 * 
+		 * @param shape
+		 *            the shape of the structuring element
+		 * @param size
+		 *            the radius or the diameter of the structuring element
+		 * @return a new structuring element
+		 */
+		public Strel createStrel(Strel.Shape shape, int size)
+		{
+			if (this == DIAMETER)
+				return shape.fromDiameter(size);
+			return shape.fromRadius(size);
+		}
+		
+		/**
+		 * Returns an upper bound of the extent of the structuring elements
+		 * with the specified size, whatever their shape.
+		 * 
+		 * @param size
+		 *            the radius or the diameter of the structuring element
+		 * @return the maximal width or height of the structuring element, in
+		 *         pixels
+		 */
+		public int extent(int size)
+		{
+			if (this == DIAMETER)
+				return size + 1;
+			return 2 * size + 1;
+		}
+		
+		/**
+		 * Determines the size type from its label.
+		 * @throws IllegalArgumentException if label is not recognized.
+		 */
+		public static SizeType fromLabel(String label)
+		{
+			if (label != null)
+				label = label.toLowerCase();
+			for (SizeType val : SizeType.values()) 
+			{
+				String cmp = val.toString().toLowerCase();
+				if (cmp.equals(label))
+					return val;
+			}
+			throw new IllegalArgumentException("Unable to parse SizeType with label: " + label);
+		}
+	};
 	
 	// =======================================================================
 	// methods for computing granulometries
@@ -177,93 +265,755 @@ public class GrayscaleGranulometry
 	}
 
 
+	/**
+	 * Computes the granulometric volume curve of an image, using structuring
+	 * elements defined by their diameter, without notifying progress.
+	 * 
+	 * @see #diameterGranulometry(ImageProcessor, Operation, Strel.Shape, int, int,
+	 *      GranulometryListener)
+	 */
 	public final static ResultsTable diameterGranulometry(ImageProcessor image,
 			Operation op, Strel.Shape shape, int diamMax, int step) 
 	{
-		Morphology.Operation op2 = op.getOperation();
+		return diameterGranulometry(image, op, shape, diamMax, step, null);
+	}
+
+	/**
+	 * Computes the granulometric volume curve of an image, using structuring
+	 * elements defined by their diameter.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param diamMax
+	 *            the maximal diameter of the structuring element
+	 * @param step
+	 *            the increment between two consecutive diameters
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return a table containing the diameter and the volume for each step.
+	 *         If the computation was cancelled, only the computed steps are
+	 *         returned.
+	 */
+	public final static ResultsTable diameterGranulometry(ImageProcessor image,
+			Operation op, Strel.Shape shape, int diamMax, int step,
+			GranulometryListener listener) 
+	{
+		int[] diams = createSizes(1, step, diamMax / step);
+		double[] volumes = volumeCurve(image, op.getOperation(), shape,
+				SizeType.DIAMETER, diams, listener);
 		
-		int nSteps = diamMax / step;
+		ResultsTable table = new ResultsTable();
+		for (int i = 0; i < volumes.length; i++) 
+		{
+			table.incrementCounter();
+			table.addValue("Diameter", i == 0 ? 1 : diams[i - 1]);
+			table.addValue("Volume", volumes[i]);
+		}
 		
-		double vol = imageVolume(image);
+		return table;
+	}
+
+	/**
+	 * Computes the granulometric volume curve of an image, using structuring
+	 * elements defined by their radius, without notifying progress.
+	 * 
+	 * @see #radiusGranulometry(ImageProcessor, Operation, Strel.Shape, int, int,
+	 *      GranulometryListener)
+	 */
+	public final static ResultsTable radiusGranulometry(ImageProcessor image,
+			Operation op, Strel.Shape shape, int radiusMax, int step) 
+	{
+		return radiusGranulometry(image, op, shape, radiusMax, step, null);
+	}
 
+	/**
+	 * Computes the granulometric volume curve of an image, using structuring
+	 * elements defined by their radius.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param radiusMax
+	 *            the maximal radius of the structuring element
+	 * @param step
+	 *            the increment between two consecutive radius values
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return a table containing the radius and the volume for each step. If
+	 *         the computation was cancelled, only the computed steps are
+	 *         returned.
+	 */
+	public final static ResultsTable radiusGranulometry(ImageProcessor image,
+			Operation op, Strel.Shape shape, int radiusMax, int step,
+			GranulometryListener listener) 
+	{
+		int[] radiusList = createSizes(1, step, radiusMax / step);
+		double[] volumes = volumeCurve(image, op.getOperation(), shape,
+				SizeType.RADIUS, radiusList, listener);
+		
 		ResultsTable table = new ResultsTable();
+		for (int i = 0; i < volumes.length; i++) 
+		{
+			table.incrementCounter();
+			table.addValue("Radius", i == 0 ? 1 : radiusList[i - 1]);
+			table.addValue("Volume", volumes[i]);
+		}
 		
-		int diam = 1;
-		table.incrementCounter();
-		table.addValue("Diameter", diam);
-		table.addValue("Volume", vol);
+		return table;
+	}
+
+	/**
+	 * Computes the volume of the image transformed by a morphological
+	 * operation, for each size of structuring element given in a list.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the list of structuring element sizes, in pixels
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return an array of volumes, the first one corresponding to the
+	 *         original image, the following ones to each size. If the
+	 *         computation was cancelled, the array contains only the volumes
+	 *         computed so far.
+	 */
+	public final static double[] volumeCurve(ImageProcessor image,
+			Morphology.Operation op, Strel.Shape shape, SizeType sizeType,
+			int[] sizes, GranulometryListener listener)
+	{
+		return volumeCurve(image, null, op, shape, sizeType, sizes, listener);
+	}
+
+	/**
+	 * Computes the volume curve of an image restricted to a region of
+	 * interest.
+	 * 
+	 * The volume is computed only over the pixels within the mask. For each
+	 * size, the morphological operation is applied on the bounding box of
+	 * the mask, padded by the size of the structuring element, resulting in
+	 * the same values within the mask as when the whole image is processed.
+	 * In that case, the result image sent to the listener corresponds to the
+	 * padded bounding box.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @param mask
+	 *            a binary image with the same size as the input image, or
+	 *            null to process the whole image
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the list of structuring element sizes, in pixels
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return an array of volumes, the first one corresponding to the
+	 *         original image, the following ones to each size. If the
+	 *         computation was cancelled, the array contains only the volumes
+	 *         computed so far.
+	 * @see #createMask(Roi, int, int)
+	 */
+	public final static double[] volumeCurve(ImageProcessor image,
+			ImageProcessor mask, Morphology.Operation op, Strel.Shape shape,
+			SizeType sizeType, int[] sizes, GranulometryListener listener)
+	{
+		return volumeCurve(image, mask, op, shape, sizeType, sizes, null, listener);
+	}
+
+	/**
+	 * Computes the volume curve of an image restricted to a region of
+	 * interest, using a reducer for scanning the image of each step. The
+	 * reducer can gather additional statistics within the same pass as the
+	 * volume computation.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @param mask
+	 *            a binary image with the same size as the input image, or
+	 *            null to process the whole image
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the list of structuring element sizes, in pixels
+	 * @param reducer
+	 *            the reducer used for computing the volume of each step, or
+	 *            null to compute only the volume
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return an array of volumes, the first one corresponding to the
+	 *         original image, the following ones to each size. If the
+	 *         computation was cancelled, the array contains only the volumes
+	 *         computed so far.
+	 * @see IntensityReducer
+	 */
+	public final static double[] volumeCurve(ImageProcessor image,
+			ImageProcessor mask, Morphology.Operation op, Strel.Shape shape,
+			SizeType sizeType, int[] sizes, StepReducer reducer,
+			GranulometryListener listener)
+	{
+		return volumeCurve(image, mask, op, shape, sizeType, sizes, null, reducer, listener);
+	}
+
+	/**
+	 * Computes the volume curve of an image restricted to a region of
+	 * interest, using a specific engine for applying the morphological
+	 * operation.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @param mask
+	 *            a binary image with the same size as the input image, or
+	 *            null to process the whole image
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the list of structuring element sizes, in pixels
+	 * @param engine
+	 *            the engine used for applying the operation, or null to use
+	 *            the fastest engine for each size
+	 * @param reducer
+	 *            the reducer used for computing the volume of each step, or
+	 *            null to compute only the volume
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return an array of volumes, the first one corresponding to the
+	 *         original image, the following ones to each size. If the
+	 *         computation was cancelled, the array contains only the volumes
+	 *         computed so far.
+	 * @see EngineSelector
+	 */
+	public final static double[] volumeCurve(ImageProcessor image,
+			ImageProcessor mask, Morphology.Operation op, Strel.Shape shape,
+			SizeType sizeType, int[] sizes, GranulometryEngine engine,
+			StepReducer reducer, GranulometryListener listener)
+	{
+		int nSteps = sizes.length;
+		double[] volumes = new double[nSteps + 1];
+
+		// in case of empty mask, all volumes are zero
+		Rectangle bounds = null;
+		if (mask != null)
+		{
+			bounds = maskBounds(mask);
+			if (bounds == null)
+				return volumes;
+		}
+		
+		long t0 = System.nanoTime();
+		volumes[0] = reduce(0, image, mask, reducer);
+		
+		// select the engines before the steps, as selection may require
+		// calibration
+		GranulometryEngine[] engines;
+		if (engine != null)
+		{
+			engines = new GranulometryEngine[nSteps];
+			Arrays.fill(engines, engine);
+		}
+		else
+		{
+			engines = EngineSelector.getDefault().select(image.getBitDepth(),
+					op, shape, sizeType, sizes);
+		}
 		
-		for (int i = 0; i < nSteps; i++) 
+		for (int i = 0; i < nSteps; i++)
 		{
-			diam += step;
+			if (listener != null)
+			{
+				if (listener.isCancelRequested())
+				{
+					return Arrays.copyOf(volumes, i + 1);
+				}
+				listener.stepStarted(new GranulometryEvent(i, nSteps, sizes[i]));
+			}
 			
-			IJ.showStatus("Diameter " + diam + "(" + i + "/" + nSteps + ")");
+			long t1 = System.nanoTime();
 			
-			Strel strel = shape.fromDiameter(diam);
-			strel.showProgress(false);
-			
-			ImageProcessor image2 = op2.apply(image, strel);
+			// restrict computation to the bounding box of the mask, padded by
+			// the extent of the structuring element
+			ImageProcessor input = image;
+			ImageProcessor mask2 = null;
+			if (mask != null)
+			{
+				Rectangle box = padBounds(bounds, sizeType.extent(sizes[i]),
+						image.getWidth(), image.getHeight());
+				input = crop(image, box);
+				mask2 = crop(mask, box);
+			}
 			
-			vol = imageVolume(image2);
+			long t2 = System.nanoTime();
+			OperationEvent opEvent = OperationEvent.start(op.toString(), shape.toString(), sizes[i]);
+			ImageProcessor image2 = engines[i].apply(input, op, shape, sizeType, sizes[i]);
+			opEvent.commit();
+
+			long t3 = System.nanoTime();
+			VolumeEvent volEvent = VolumeEvent.start(sizes[i]);
+			volumes[i + 1] = reduce(sizes[i], image2, mask2, reducer);
+			volEvent.commit();
 			
-			table.incrementCounter();
-			table.addValue("Diameter", diam);
-			table.addValue("Volume", vol);
+			long t4 = System.nanoTime();
+			if (listener != null)
+			{
+				GranulometryEvent evt = new GranulometryEvent(i, nSteps,
+						sizes[i], t2 - t1, t3 - t2, t4 - t3, t4 - t0);
+				evt.resultImage = image2;
+				listener.stepFinished(evt);
+			}
 		}
 		
-		return table;
+		return volumes;
 	}
 
-	public final static ResultsTable radiusGranulometry(ImageProcessor image,
-			Operation op, Strel.Shape shape, int radiusMax, int step) 
+	/**
+	 * Computes the volume of an image within an optional mask, using the
+	 * reducer if it is not null.
+	 */
+	private final static double reduce(int size, ImageProcessor image,
+			ImageProcessor mask, StepReducer reducer)
+	{
+		if (reducer != null)
+			return reducer.reduce(size, image, mask);
+		return mask == null ? imageVolume(image) : imageVolume(image, mask);
+	}
+
+	/**
+	 * Computes the volume curve of each region of a label image. For each
+	 * size, the morphological operation is applied only once on the whole
+	 * image, and the volumes of all the regions are obtained by a single scan
+	 * of the result, making the computation time independent of the number
+	 * of regions.
+	 * 
+	 * @param image
+	 *            the intensity image to process
+	 * @param labelImage
+	 *            the label image, with the same size as the intensity image
+	 * @param labels
+	 *            the list of labels to consider
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the list of structuring element sizes, in pixels
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return an array containing the volume curve of each region, in the
+	 *         same order as the labels. If the computation was cancelled,
+	 *         each curve contains only the volumes computed so far.
+	 */
+	public final static double[][] labelVolumeCurves(ImageProcessor image,
+			ImageProcessor labelImage, int[] labels, Morphology.Operation op,
+			Strel.Shape shape, SizeType sizeType, int[] sizes,
+			GranulometryListener listener)
+	{
+		// the volumes of all the regions are computed within the scan of
+		// each step
+		LabelVolumeReducer reducer = new LabelVolumeReducer(labelImage, labels);
+		volumeCurve(image, null, op, shape, sizeType, sizes, reducer, listener);
+		return reducer.getVolumes();
+	}
+	
+	/**
+	 * Computes the volume curves of several images concurrently. Each image
+	 * is processed within a single thread, using the same operation and the
+	 * same list of sizes.
+	 * 
+	 * As the listener may be notified from several threads, it must be
+	 * thread-safe. Cancellation interrupts the computation of all the images.
+	 * 
+	 * @param images
+	 *            the images to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the list of structuring element sizes, in pixels
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @param nThreads
+	 *            the number of threads to use
+	 * @return an array containing the volume curve of each image, in the
+	 *         same order as the input images
+	 * @see #volumeCurve(ImageProcessor, Morphology.Operation, Strel.Shape,
+	 *      SizeType, int[], GranulometryListener)
+	 */
+	public final static double[][] volumeCurves(ImageProcessor[] images,
+			final Morphology.Operation op, final Strel.Shape shape,
+			final SizeType sizeType, final int[] sizes,
+			final GranulometryListener listener, int nThreads)
+	{
+		return volumeCurves(images, null, op, shape, sizeType, sizes, listener, nThreads);
+	}
+
+	/**
+	 * Computes the volume curves of several images concurrently, restricting
+	 * the computation of each curve to the same mask.
+	 * 
+	 * @see #volumeCurve(ImageProcessor, ImageProcessor, Morphology.Operation,
+	 *      Strel.Shape, SizeType, int[], GranulometryListener)
+	 */
+	public final static double[][] volumeCurves(ImageProcessor[] images,
+			final ImageProcessor mask, final Morphology.Operation op,
+			final Strel.Shape shape, final SizeType sizeType,
+			final int[] sizes, final GranulometryListener listener, int nThreads)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+		try
+		{
+			// submit the computation of each curve
+			ArrayList<Future<double[]>> futures = new ArrayList<Future<double[]>>(images.length);
+			for (final ImageProcessor image : images)
+			{
+				futures.add(executor.submit(new Callable<double[]>()
+				{
+					@Override
+					public double[] call()
+					{
+						return volumeCurve(image, mask, op, shape, sizeType, sizes, listener);
+					}
+				}));
+			}
+			
+			// wait for results
+			double[][] volumes = new double[images.length][];
+			for (int i = 0; i < images.length; i++)
+			{
+				volumes[i] = futures.get(i).get();
+			}
+			return volumes;
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Computation of volume curves was interrupted", ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw new RuntimeException("Could not compute volume curve", ex.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Computes the volume of the 3D image transformed by a morphological
+	 * operation, for each radius of structuring element given in a list.
+	 * 
+	 * @param image
+	 *            the 3D image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the 3D structuring element
+	 * @param radiusList
+	 *            the list of structuring element radius, in voxels
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return an array of volumes, the first one corresponding to the
+	 *         original image, the following ones to each radius. If the
+	 *         computation was cancelled, the array contains only the volumes
+	 *         computed so far.
+	 */
+	public final static double[] volumeCurve(ImageStack image,
+			Morphology.Operation op, Strel3D.Shape shape, int[] radiusList,
+			GranulometryListener listener)
 	{
-		Morphology.Operation op2 = op.getOperation();
+		int nSteps = radiusList.length;
+		double[] volumes = new double[nSteps + 1];
+
+		long t0 = System.nanoTime();
+		volumes[0] = imageVolume(image);
 		
-		int nSteps = radiusMax / step;
+		for (int i = 0; i < nSteps; i++)
+		{
+			if (listener != null)
+			{
+				if (listener.isCancelRequested())
+				{
+					return Arrays.copyOf(volumes, i + 1);
+				}
+				listener.stepStarted(new GranulometryEvent(i, nSteps, radiusList[i]));
+			}
+			
+			long t1 = System.nanoTime();
+			Strel3D strel = shape.fromRadius(radiusList[i]);
+			strel.showProgress(false);
+			
+			long t2 = System.nanoTime();
+			OperationEvent opEvent = OperationEvent.start(op.toString(), shape.toString(), radiusList[i]);
+			ImageStack image2 = op.apply(image, strel);
+			opEvent.commit();
+
+			long t3 = System.nanoTime();
+			VolumeEvent volEvent = VolumeEvent.start(radiusList[i]);
+			volumes[i + 1] = imageVolume(image2);
+			volEvent.commit();
+			
+			long t4 = System.nanoTime();
+			if (listener != null)
+			{
+				GranulometryEvent evt = new GranulometryEvent(i, nSteps,
+						radiusList[i], t2 - t1, t3 - t2, t4 - t3, t4 - t0);
+				evt.resultStack = image2;
+				listener.stepFinished(evt);
+			}
+		}
 		
+		return volumes;
+	}
+	
+	/**
+	 * Computes the volume curves of the four operations (erosion, dilation,
+	 * opening and closing) in a single pass over the strel sizes, using
+	 * structuring elements defined by their diameter.
+	 *
+	 * @see #radiusGranulometryAll(ImageProcessor, Strel.Shape, int, int)
+	 */
+	public final static ResultsTable diameterGranulometryAll(ImageProcessor image,
+			Strel.Shape shape, int diamMax, int step)
+	{
+		return diameterGranulometryAll(image, shape, diamMax, step, null);
+	}
+
+	/**
+	 * Computes the volume curves of the four operations (erosion, dilation,
+	 * opening and closing) in a single pass over the strel sizes, using
+	 * structuring elements defined by their diameter.
+	 *
+	 * @see #radiusGranulometryAll(ImageProcessor, Strel.Shape, int, int,
+	 *      GranulometryListener)
+	 */
+	public final static ResultsTable diameterGranulometryAll(ImageProcessor image,
+			Strel.Shape shape, int diamMax, int step, GranulometryListener listener)
+	{
+		return granulometryAll(image, shape, diamMax, step, "Diameter", listener);
+	}
+
+	/**
+	 * Computes the volume curves of the four operations (erosion, dilation,
+	 * opening and closing) in a single pass over the strel radius.
+	 *
+	 * For each size, the erosion and the dilation are computed only once. The
+	 * opening is obtained as the dilation of the erosion, and the closing as
+	 * the erosion of the dilation, resulting in four morphological passes per
+	 * size instead of the six required by four separate computations.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param radiusMax
+	 *            the maximal radius of the structuring element
+	 * @param step
+	 *            the increment between two consecutive radius values
+	 * @return a table with one row per size, containing the radius and the
+	 *         volume of the result of each operation
+	 */
+	public final static ResultsTable radiusGranulometryAll(ImageProcessor image,
+			Strel.Shape shape, int radiusMax, int step)
+	{
+		return radiusGranulometryAll(image, shape, radiusMax, step, null);
+	}
+
+	/**
+	 * Computes the volume curves of the four operations (erosion, dilation,
+	 * opening and closing) in a single pass over the strel radius.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param radiusMax
+	 *            the maximal radius of the structuring element
+	 * @param step
+	 *            the increment between two consecutive radius values
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return a table with one row per size, containing the radius and the
+	 *         volume of the result of each operation. If the computation was
+	 *         cancelled, only the computed steps are returned.
+	 */
+	public final static ResultsTable radiusGranulometryAll(ImageProcessor image,
+			Strel.Shape shape, int radiusMax, int step, GranulometryListener listener)
+	{
+		return granulometryAll(image, shape, radiusMax, step, "Radius", listener);
+	}
+
+	/**
+	 * Computes the volume curves of the four operations in a single pass.
+	 * Opening and closing are derived from the erosion and the dilation of
+	 * the same step, by applying the reversed structuring element. As engines
+	 * only apply a complete operation to the original image, this reuse can
+	 * not be expressed through the GranulometryEngine API, so MorphoLibJ is
+	 * called directly instead of selecting an engine.
+	 */
+	private final static ResultsTable granulometryAll(ImageProcessor image,
+			Strel.Shape shape, int sizeMax, int step, String sizeName,
+			GranulometryListener listener)
+	{
+		SizeType sizeType = SizeType.fromLabel(sizeName);
+		int[] sizes = createSizes(1, step, sizeMax / step);
+		int nSteps = sizes.length;
+
+		// the volume of original image is the same for all operations
+		long t0 = System.nanoTime();
 		double vol = imageVolume(image);
 
 		ResultsTable table = new ResultsTable();
-		
-		int radius = 1;
+
 		table.incrementCounter();
-		table.addValue("Radius", radius);
-		table.addValue("Volume", vol);
-		
-		for (int i = 0; i < nSteps; i++) 
+		table.addValue(sizeName, 1);
+		table.addValue(Operation.EROSION.toString(), vol);
+		table.addValue(Operation.DILATION.toString(), vol);
+		table.addValue(Operation.OPENING.toString(), vol);
+		table.addValue(Operation.CLOSING.toString(), vol);
+
+		for (int i = 0; i < nSteps; i++)
 		{
-			radius += step;
-			
-			IJ.showStatus("Radius " + radius + "(" + i + "/" + nSteps + ")");
-			
-			Strel strel = shape.fromRadius(radius);
+			if (listener != null)
+			{
+				if (listener.isCancelRequested())
+					break;
+				listener.stepStarted(new GranulometryEvent(i, nSteps, sizes[i]));
+			}
+
+			long t1 = System.nanoTime();
+			Strel strel = sizeType.createStrel(shape, sizes[i]);
 			strel.showProgress(false);
-			
-			ImageProcessor image2 = op2.apply(image, strel);
-			
-			vol = imageVolume(image2);
-			
+			Strel reversed = strel.reverse();
+			reversed.showProgress(false);
+
+			// compute the two basic operations
+			long t2 = System.nanoTime();
+			ImageProcessor eroded = Morphology.erosion(image, strel);
+			ImageProcessor dilated = Morphology.dilation(image, strel);
+
+			// derive opening and closing, using the same convention as
+			// MorphoLibJ for the reversed structuring element
+			ImageProcessor opened = Morphology.dilation(eroded, reversed);
+			ImageProcessor closed = Morphology.erosion(dilated, reversed);
+
+			long t3 = System.nanoTime();
 			table.incrementCounter();
-			table.addValue("Radius", radius);
-			table.addValue("Volume", vol);
+			table.addValue(sizeName, sizes[i]);
+			table.addValue(Operation.EROSION.toString(), imageVolume(eroded));
+			table.addValue(Operation.DILATION.toString(), imageVolume(dilated));
+			table.addValue(Operation.OPENING.toString(), imageVolume(opened));
+			table.addValue(Operation.CLOSING.toString(), imageVolume(closed));
+			
+			long t4 = System.nanoTime();
+			if (listener != null)
+			{
+				listener.stepFinished(new GranulometryEvent(i, nSteps, sizes[i], 
+						t2 - t1, t3 - t2, t4 - t3, t4 - t0));
+			}
 		}
-		
+
 		return table;
 	}
+
+	/**
+	 * Creates a list of regularly spaced structuring element sizes.
+	 * 
+	 * @param size0
+	 *            the initial size, that is not included in the list
+	 * @param step
+	 *            the increment between two consecutive sizes
+	 * @param nSteps
+	 *            the number of sizes
+	 * @return the array of sizes {size0+step, size0+2*step, ...,
+	 *         size0+nSteps*step}
+	 */
+	public final static int[] createSizes(int size0, int step, int nSteps)
+	{
+		int[] sizes = new int[nSteps];
+		for (int i = 0; i < nSteps; i++)
+		{
+			sizes[i] = size0 + (i + 1) * step;
+		}
+		return sizes;
+	}
 	
 	// =======================================================================
 	// Utility methods
 
+	/**
+	 * Prepares an image for the computation of granulometry. Color images are
+	 * converted to 8-bit gray scale. Other images are processed natively,
+	 * unless the conversion to 8-bit is explicitly requested.
+	 * 
+	 * @param image
+	 *            the image to process
+	 * @param convertToByte
+	 *            if true, 16-bit and 32-bit images are converted to 8-bit,
+	 *            with scaling
+	 * @return a gray scale image, that may be the input image
+	 */
+	public final static ImageProcessor toGrayscale(ImageProcessor image, boolean convertToByte)
+	{
+		if (image instanceof ColorProcessor)
+		{
+			return image.convertToByte(true);
+		}
+		if (convertToByte && !(image instanceof ByteProcessor))
+		{
+			return image.convertToByte(true);
+		}
+		return image;
+	}
+
 	/**
 	 * Computes the gray scale volume of the input image, by computing the sum
 	 * of intensity value for each pixel.
 	 * 
+	 * 8-bit, 16-bit and 32-bit images are processed by dedicated kernels
+	 * operating directly on the pixel arrays.
+	 * 
 	 * @param image
 	 *            a gray scale image
 	 * @return the sum of pixel intensities
 	 */
 	public final static double imageVolume(ImageProcessor image) 
 	{
+		Object pixels = image.getPixels();
+		if (pixels instanceof byte[])
+			return pixelSum((byte[]) pixels);
+		if (pixels instanceof short[])
+			return pixelSum((short[]) pixels);
+		if (pixels instanceof float[])
+			return pixelSum((float[]) pixels);
+		
 		// image size
 		int width = image.getWidth();
 		int height = image.getHeight();
@@ -287,6 +1037,242 @@ public class GrayscaleGranulometry
 		return res;
 	}
 
+	/**
+	 * Computes the gray scale volume of the input image restricted to a mask,
+	 * by computing the sum of intensity value for each pixel within the mask.
+	 * 
+	 * @param image
+	 *            a gray scale image
+	 * @param mask
+	 *            a binary image with the same size as the input image
+	 * @return the sum of pixel intensities within the mask
+	 */
+	public final static double imageVolume(ImageProcessor image, ImageProcessor mask) 
+	{
+		Object pixels = image.getPixels();
+		Object maskPixels = mask.getPixels();
+		if (maskPixels instanceof byte[])
+		{
+			byte[] maskArray = (byte[]) maskPixels;
+			if (pixels instanceof byte[])
+				return pixelSum((byte[]) pixels, maskArray);
+			if (pixels instanceof short[])
+				return pixelSum((short[]) pixels, maskArray);
+			if (pixels instanceof float[])
+				return pixelSum((float[]) pixels, maskArray);
+		}
+		
+		// image size
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		double resy = 0;
+		double res = 0;
+		
+		// iterate on rows
+		for (int y = 0; y < height; y++) 
+		{
+			// Compute sum of grays on current row
+			resy = 0;
+			for (int x = 0; x < width; x++) 
+			{
+				if (mask.get(x, y) != 0)
+				{
+					resy += image.getf(x, y);
+				}
+			}
+			
+			// add to global result
+			res += resy;
+		}
+		return res;
+	}
+
+	/**
+	 * The number of 8-bit values whose sum always fits into an int.
+	 */
+	private final static int BYTE_SUM_BLOCK = Integer.MAX_VALUE / 0x00FF;
+
+	/**
+	 * The number of 16-bit values whose sum always fits into an int.
+	 */
+	private final static int SHORT_SUM_BLOCK = Integer.MAX_VALUE / 0x00FFFF;
+
+	private final static double pixelSum(byte[] pixels)
+	{
+		// integer accumulation is exact, and faster than floating point. Values
+		// are summed as int within blocks, a loop that the JIT compiler can
+		// vectorize, and block sums are accumulated as long.
+		long sum = 0;
+		for (int i0 = 0, i1; i0 < pixels.length; i0 = i1)
+		{
+			i1 = (int) Math.min((long) i0 + BYTE_SUM_BLOCK, pixels.length);
+			int blockSum = 0;
+			for (int i = i0; i < i1; i++)
+			{
+				blockSum += pixels[i] & 0x00FF;
+			}
+			sum += blockSum;
+		}
+		return sum;
+	}
+
+	private final static double pixelSum(short[] pixels)
+	{
+		long sum = 0;
+		for (int i0 = 0, i1; i0 < pixels.length; i0 = i1)
+		{
+			i1 = (int) Math.min((long) i0 + SHORT_SUM_BLOCK, pixels.length);
+			int blockSum = 0;
+			for (int i = i0; i < i1; i++)
+			{
+				blockSum += pixels[i] & 0x00FFFF;
+			}
+			sum += blockSum;
+		}
+		return sum;
+	}
+
+	private final static double pixelSum(float[] pixels)
+	{
+		double sum = 0;
+		for (int i = 0; i < pixels.length; i++)
+		{
+			sum += pixels[i];
+		}
+		return sum;
+	}
+
+	private final static double pixelSum(byte[] pixels, byte[] mask)
+	{
+		long sum = 0;
+		for (int i = 0; i < pixels.length; i++)
+		{
+			if (mask[i] != 0)
+				sum += pixels[i] & 0x00FF;
+		}
+		return sum;
+	}
+
+	private final static double pixelSum(short[] pixels, byte[] mask)
+	{
+		long sum = 0;
+		for (int i = 0; i < pixels.length; i++)
+		{
+			if (mask[i] != 0)
+				sum += pixels[i] & 0x00FFFF;
+		}
+		return sum;
+	}
+
+	private final static double pixelSum(float[] pixels, byte[] mask)
+	{
+		double sum = 0;
+		for (int i = 0; i < pixels.length; i++)
+		{
+			if (mask[i] != 0)
+				sum += pixels[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Converts a region of interest into a binary mask with the size of the
+	 * image.
+	 * 
+	 * @param roi
+	 *            an area region of interest
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @return a binary mask with value 255 within the region of interest
+	 */
+	public final static ImageProcessor createMask(Roi roi, int width, int height)
+	{
+		ImageProcessor mask = new ByteProcessor(width, height);
+		Rectangle bounds = roi.getBounds();
+		ImageProcessor roiMask = roi.getMask();
+		
+		int x0 = Math.max(bounds.x, 0);
+		int y0 = Math.max(bounds.y, 0);
+		int x1 = Math.min(bounds.x + bounds.width, width);
+		int y1 = Math.min(bounds.y + bounds.height, height);
+		for (int y = y0; y < y1; y++)
+		{
+			for (int x = x0; x < x1; x++)
+			{
+				// rectangular rois do not have any mask
+				if (roiMask == null || roiMask.get(x - bounds.x, y - bounds.y) != 0)
+				{
+					mask.set(x, y, 255);
+				}
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Returns the bounding box of the non-zero pixels of a mask, or null if
+	 * the mask is empty.
+	 */
+	private final static Rectangle maskBounds(ImageProcessor mask)
+	{
+		int width = mask.getWidth();
+		int height = mask.getHeight();
+		
+		int xmin = width, xmax = -1;
+		int ymin = height, ymax = -1;
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				if (mask.get(x, y) != 0)
+				{
+					xmin = Math.min(xmin, x);
+					xmax = Math.max(xmax, x);
+					ymin = Math.min(ymin, y);
+					ymax = Math.max(ymax, y);
+				}
+			}
+		}
+		
+		if (xmax < 0)
+			return null;
+		return new Rectangle(xmin, ymin, xmax - xmin + 1, ymax - ymin + 1);
+	}
+	
+	/**
+	 * Enlarges a rectangle by a padding value in each direction, and clips
+	 * the result to the image bounds.
+	 */
+	private final static Rectangle padBounds(Rectangle bounds, int pad, int width, int height)
+	{
+		int x0 = Math.max(bounds.x - pad, 0);
+		int y0 = Math.max(bounds.y - pad, 0);
+		int x1 = Math.min(bounds.x + bounds.width + pad, width);
+		int y1 = Math.min(bounds.y + bounds.height + pad, height);
+		return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+	}
+	
+	/**
+	 * Copies a rectangular region of an image into a new image. Contrary to
+	 * ImageProcessor.crop(), the roi of the input image is not modified, 
+	 * making it possible to share the input image between threads.
+	 */
+	private final static ImageProcessor crop(ImageProcessor image, Rectangle box)
+	{
+		ImageProcessor result = image.createProcessor(box.width, box.height);
+		for (int y = 0; y < box.height; y++)
+		{
+			for (int x = 0; x < box.width; x++)
+			{
+				result.setf(x, y, image.getf(box.x + x, box.y + y));
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Computes the gray scale volume of the input 3D image, by computing the sum
 	 * of intensity value for each voxel.
@@ -297,6 +1283,24 @@ public class GrayscaleGranulometry
 	 */
 	public final static double imageVolume(ImageStack image) 
 	{
+		// use dedicated kernels for gray scale stacks
+		Object pixels0 = image.getPixels(1);
+		if (pixels0 instanceof byte[] || pixels0 instanceof short[] || pixels0 instanceof float[])
+		{
+			double res = 0;
+			for (int z = 1; z <= image.getSize(); z++)
+			{
+				Object pixels = image.getPixels(z);
+				if (pixels instanceof byte[])
+					res += pixelSum((byte[]) pixels);
+				else if (pixels instanceof short[])
+					res += pixelSum((short[]) pixels);
+				else
+					res += pixelSum((float[]) pixels);
+			}
+			return res;
+		}
+		
 		// image size
 		int width = image.getWidth();
 		int height = image.getHeight();
@@ -326,6 +1330,46 @@ public class GrayscaleGranulometry
 	}
 
 	
+	/**
+	 * Computes the granulometric curve of each row of a volume table, in
+	 * which each column corresponds to a strel size. The resulting table
+	 * has the same row labels, and one column less.
+	 * 
+	 * @param volumeTable
+	 *            a table with one volume curve per row
+	 * @return a table with one granulometric curve per row
+	 */
+	public final static ResultsTable derivateRows(ResultsTable volumeTable)
+	{
+		return derivate(GranulometryResult.fromTable(volumeTable)).toTable();
+	}
+	
+	/**
+	 * Computes the granulometric curve of each row of a volume result. The
+	 * resulting curves are associated to the sizes of the volume result,
+	 * except the first one.
+	 * 
+	 * @param volumes
+	 *            a result with one volume curve per row
+	 * @return a result with one granulometric curve per row, with the same
+	 *         labels, and one column less
+	 */
+	public final static GranulometryResult derivate(GranulometryResult volumes)
+	{
+		int nCols = volumes.getColumnCount();
+		String[] names = Arrays.copyOfRange(volumes.getColumnNames(), 1, nCols);
+		double[] sizes = volumes.getSizes();
+		if (sizes != null)
+			sizes = Arrays.copyOfRange(sizes, 1, nCols);
+		
+		GranulometryResult result = new GranulometryResult(names, sizes);
+		for (int r = 0; r < volumes.getRowCount(); r++)
+		{
+			result.addRow(volumes.getLabel(r), derivate(volumes.getRow(r)));
+		}
+		return result;
+	}
+	
 	/**
 	 * Computes derivative of the second column of the table, with size
 	 * information in the first column.
@@ -361,18 +1405,19 @@ public class GrayscaleGranulometry
 
 		ResultsTable result = new ResultsTable();
 		
-		// compute normalized derivative
+		// compute normalized derivative. Sizes may be irregularly spaced, the
+		// variation corresponding to the interval ending at the current size.
 		double v1 = v0;
-		for (int i = 1; i < n-1; i++) 
+		for (int i = 1; i < n; i++) 
 		{
-			xres[i] = table.getValueAsDouble(indX, i);
+			xres[i-1] = table.getValueAsDouble(indX, i);
 			double v2 = table.getValueAsDouble(indY, i);
-			yres[i] = 100 * (v2 - v1) / (vf - v0);
+			yres[i-1] = 100 * (v2 - v1) / (vf - v0);
 			v1 = v2;
 			
 			result.incrementCounter();
-			result.addValue(sizeColumnName, table.getValueAsDouble(indX, i));
-			result.addValue("Variation", yres[i]);
+			result.addValue(sizeColumnName, xres[i-1]);
+			result.addValue("Variation", yres[i-1]);
 		}
 		
 		return result;
@@ -415,74 +1460,22 @@ public class GrayscaleGranulometry
 	 */
 	public final static ResultsTable granuloStats(ResultsTable granuloTable) 
 	{
-		
-		// Size of the table
-		int nCols = granuloTable.getLastColumn() + 1;
-		int nRows = granuloTable.getCounter();
-
-		// Get var names and deduces strel sizes
-		double[] x = new double[nCols];
-		for (int i = 0; i < nCols; i++) 
-		{
-			x[i] = Double.valueOf(granuloTable.getColumnHeading(i));
-		}
-
-		// Compute mean of each row
-		double[] means = new double[nRows];
-		for (int r = 0; r < nRows; r++) 
-		{
-			// Extract current row
-			double accum = 0;
-			for (int c = 0; c < nCols; c++)
-			{
-				accum += granuloTable.getValueAsDouble(c, r) * x[c] / 100;
-			}
-			
-			means[r] = accum;
-		}
-		
-		// Compute standard deviations
-		double[] stds = new double[nRows];
-		for (int r = 0; r < nRows; r++)
-		{
-			// Extract current row
-			double accum = 0;
-			for (int c = 0; c < nCols; c++) 
-			{
-				double dev = (x[c] - means[r]);
-				double sqd = dev * dev;
-				accum += sqd * granuloTable.getValueAsDouble(c, r) / 100;
-			}
-			
-			stds[r] = Math.sqrt(accum);
-		}
-		
-		// Compute geometric mean
-		double[] geommeans = new double[nRows];
-		for (int r = 0; r < nRows; r++)
-		{
-			// Extract current row
-			double accum = 0;
-			for (int c = 0; c < nCols; c++) 
-			{
-				double freq = granuloTable.getValueAsDouble(c, r) / 100;
-				accum += Math.log(x[c]) * freq;
-			}
-			
-			geommeans[r] = Math.exp(accum);
-		}
-
-		// Create the resulting data table
-		ResultsTable results = new ResultsTable();
-		for (int r = 0; r < nRows; r++) 
-		{
-			results.incrementCounter();
-			results.addLabel(granuloTable.getLabel(r));
-			results.addValue("mean", means[r]);
-			results.addValue("std", stds[r]);
-			results.addValue("geommean", geommeans[r]);
-		}
-
-		return results;
+		return granuloStats(GranulometryResult.fromTable(granuloTable)).toTable();
+	}
+	
+	/**
+	 * Computes summary statistics for each granulometric curve given as row in
+	 * the input result, using the sizes associated to the columns.
+	 * 
+	 * @param granulo
+	 *            input granulometry result, with one curve per row
+	 * @return a result with the same number of rows, and one column by
+	 *         summary statistic: "mean", "std", "geommean", "skewness",
+	 *         "mode", and the "D10", "D50" (median) and "D90" percentiles
+	 * @see GranulometryStats
+	 */
+	public final static GranulometryResult granuloStats(GranulometryResult granulo) 
+	{
+		return GranulometryStats.compute(granulo);
 	}
 }
@@ -191,68 +191,59 @@ public class Grayscale_Granulometry_3D implements PlugIn
 	public ResultsTable computeVolumeCurve(ImagePlus imp, Morphology.Operation op, 
 			Strel3D.Shape shape, int radiusMax, int step, double resol, String unitName) 
 	{
-		// Extract image processor, make sure it is Gray8
+		return computeVolumeCurve(imp, op, shape, radiusMax, step, resol,
+				unitName, new StatusBarListener("Radius", resol, unitName));
+	}
+	
+	/**
+	 * Computes the volume curve of a 3D image, and notifies the listener
+	 * after each step.
+	 * 
+	 * @param imp
+	 *            the 3D image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the 3D structuring element
+	 * @param radiusMax
+	 *            the maximal radius of the structuring element
+	 * @param step
+	 *            the increment between two consecutive radius values
+	 * @param resol
+	 *            the size of a voxel in user units
+	 * @param unitName
+	 *            the name of the unit
+	 * @param listener
+	 *            the listener of the computation, or null
+	 * @return a table containing radius, diameter and volume for each step.
+	 *         If the computation was cancelled, only the computed steps are
+	 *         returned.
+	 */
+	public ResultsTable computeVolumeCurve(ImagePlus imp, Morphology.Operation op, 
+			Strel3D.Shape shape, int radiusMax, int step, double resol, String unitName,
+			GranulometryListener listener) 
+	{
 		ImageStack image = imp.getStack();
-//		if (image instanceof ShortProcessor) 
-//		{
-//			image = image.convertToByte(true);
-//		}
 
-		IJ.log("init");
-		int nSteps = radiusMax / step;
-		double[] volumes = new double[nSteps + 1];
-		
-		double vol = GrayscaleGranulometry.imageVolume(image);
-		volumes[0] = vol;
+		int[] radiusList = GrayscaleGranulometry.createSizes(0, step, radiusMax / step);
+		double[] volumes = GrayscaleGranulometry.volumeCurve(image, op, shape, radiusList, listener);
 		
 		ResultsTable table = new ResultsTable();
 		table.incrementCounter();
 		table.addValue("Radius", 0);
 		table.addValue("Diameter", 0);
-		table.addValue("Volume", vol);
+		table.addValue("Volume", volumes[0]);
 		
-		int radius = 0;
-		for (int i = 0; i < nSteps; i++) 
+		for (int i = 1; i < volumes.length; i++) 
 		{
-			radius += step;
-			IJ.log("granulo step " + i + "/" + nSteps + ": radius= " + radius);
-			
-			double radius2 = radius * resol;
-			double diam2 = (2 * radius + 1) * resol;
-			
-			showRadiusProgression(radius2, unitName, i, nSteps);
-			
-			Strel3D strel = shape.fromRadius(radius);
-			strel.showProgress(false);
-			
-			ImageStack image2 = op.apply(image, strel);
-//			imp.setProcessor(image2);
-//			imp.updateImage();
-				
-			vol = GrayscaleGranulometry.imageVolume(image2);
-			volumes[i+1] = vol;
-			
+			int radius = radiusList[i - 1];
 			table.incrementCounter();
-			table.addValue("Radius", radius2);
-			table.addValue("Diameter", diam2);
-			table.addValue("Volume", vol);
+			table.addValue("Radius", radius * resol);
+			table.addValue("Diameter", (2 * radius + 1) * resol);
+			table.addValue("Volume", volumes[i]);
 		}
 		
-//		// restore correct display 
-//		imp.setProcessor(image);
-//		imp.updateImage();
-		
 		// return the created array
 		return table;
 	}
-
-	private void showRadiusProgression(double currentRadius, String unitName, int i, int iMax) 
-	{
-		String radiusString = String.format(Locale.ENGLISH, "%7.2f", currentRadius);
-		if (unitName != null && !unitName.isEmpty()) 
-		{
-			radiusString = radiusString.concat(" " + unitName);
-		}
-		IJ.showStatus("Radius: " + radiusString + " (" + i + "/" + iMax + ")");
-	}
 }
@@ -6,6 +6,7 @@ import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.gui.GenericDialog;
+import ij.gui.Roi;
 import ij.gui.Plot;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
@@ -14,6 +15,8 @@ import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.EngineSelector;
 import inra.ijpb.morphology.Morphology;
 import inra.ijpb.morphology.Strel;
 
@@ -38,6 +41,9 @@ public class Grayscale_Granulometry_By_Diameter implements PlugIn
 	 */
 	public void run(String arg) 
 	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
 		// Get current open image
 		ImagePlus image = WindowManager.getCurrentImage();
 		if (image == null) 
@@ -65,7 +71,14 @@ public class Grayscale_Granulometry_By_Diameter implements PlugIn
 		Calibration calib = image.getCalibration();
 		gd.addNumericField("Spatial_Calibration", calib.pixelWidth, 3);
 		gd.addStringField("Calibration_Unit", calib.getUnit());
+		gd.addCheckbox("Convert to 8-bit", false);
 		gd.addCheckbox("Display Volume Curve", false);
+		Roi roi = image.getRoi();
+		boolean hasRoi = roi != null && roi.isArea();
+		if (hasRoi)
+		{
+			gd.addCheckbox("Restrict to ROI", true);
+		}
 
 		// Display dialog and wait for user input
 		gd.showDialog();
@@ -82,7 +95,9 @@ public class Grayscale_Granulometry_By_Diameter implements PlugIn
 		int step 			= (int) gd.getNextNumber();		
 		double resol 		= gd.getNextNumber();
 		String unitName 	= gd.getNextString();
+		boolean convertToByte = gd.getNextBoolean();
 		boolean displayVolumeCurve = gd.getNextBoolean();
+		boolean restrictToRoi = hasRoi ? gd.getNextBoolean() : false;
 
 		// Do some checkup on user inputs
 		if (shape == Strel.Shape.DIAMOND)
@@ -105,10 +120,15 @@ public class Grayscale_Granulometry_By_Diameter implements PlugIn
 		}
 		
 		
+		// convert the roi into a mask, to restrict computation of volumes
+		ImageProcessor mask = restrictToRoi 
+				? GrayscaleGranulometry.createMask(roi, image.getWidth(), image.getHeight()) 
+				: null;
+		
 		// dispatch processing according to color / grayscale
 		ResultsTable volumeTable = colorImage
-				? computeVolumeCurveChannel(image, channelIndex, op.getOperation(), shape, diamMax, step, resol, unitName)
-				: computeVolumeCurve(image, op.getOperation(), shape, diamMax, step, resol, unitName);
+				? computeVolumeCurveChannel(image, mask, channelIndex, op.getOperation(), shape, diamMax, step, resol, unitName)
+				: computeVolumeCurve(image, mask, op.getOperation(), shape, diamMax, step, resol, unitName, convertToByte);
 
 		// Display volume curve and table if necessary
 		if (displayVolumeCurve)
@@ -196,118 +216,101 @@ public class Grayscale_Granulometry_By_Diameter implements PlugIn
 	public ResultsTable computeVolumeCurve(ImagePlus imp, Morphology.Operation op, 
 			Strel.Shape shape, int diamMax, int step, double resol, String unitName) 
 	{
-		// Ensure input image is Gray 8
-		ImageProcessor image = imp.getProcessor();
-		if (!(image instanceof ByteProcessor)) 
-		{
-			image = image.convertToByte(true);
-		}
+		return computeVolumeCurve(imp, null, op, shape, diamMax, step, resol, unitName);
+	}
 
-		int nSteps = diamMax / step;
-		
-		double vol = GrayscaleGranulometry.imageVolume(image);
+	/**
+	 * Computes granulometric curve on input image restricted to a binary
+	 * mask. If the mask is null, the whole image is processed. Grayscale
+	 * images are processed with their own bit depth.
+	 */
+	public ResultsTable computeVolumeCurve(ImagePlus imp, ImageProcessor mask, Morphology.Operation op, 
+			Strel.Shape shape, int diamMax, int step, double resol, String unitName) 
+	{
+		return computeVolumeCurve(imp, mask, op, shape, diamMax, step, resol, unitName, false);
+	}
 
-		ResultsTable table = new ResultsTable();
-		
-		int diam = 1;
-		table.incrementCounter();
-		table.addValue("Diameter", diam);
-		table.addValue("Volume", vol);
-		
-		for (int i = 0; i < nSteps; i++) 
-		{
-			diam += step;
-			double diam2 = diam * resol;
-			
-			showDiameterProgression(diam2, unitName, i, nSteps);
-			
-			Strel strel = shape.fromDiameter(diam);
-			strel.showProgress(false);
-			
-			ImageProcessor image2 = op.apply(image, strel);
-			imp.setProcessor(image2);
-			imp.updateImage();
-			
-			vol = GrayscaleGranulometry.imageVolume(image2);
-			
-			table.incrementCounter();
-			table.addValue("Diameter", diam2);
-			table.addValue("Volume", vol);
-		}
-		
-		// restore correct display 
-		imp.setProcessor(image);
-		imp.updateImage();
-		
-		// return the created array
-		return table;
+	/**
+	 * Computes granulometric curve on input image restricted to a binary
+	 * mask. If the mask is null, the whole image is processed. If
+	 * convertToByte is true, 16-bit and 32-bit images are converted to 8-bit
+	 * before computing granulometry. Otherwise, they are processed natively.
+	 */
+	public ResultsTable computeVolumeCurve(ImagePlus imp, ImageProcessor mask, Morphology.Operation op, 
+			Strel.Shape shape, int diamMax, int step, double resol, String unitName,
+			boolean convertToByte) 
+	{
+		// Extract image processor, converting to Gray8 only if requested
+		ImageProcessor image = GrayscaleGranulometry.toGrayscale(imp.getProcessor(), convertToByte);
+
+		return computeVolumeTable(imp, image, mask, op, shape, diamMax, step, resol, unitName);
 	}
 
 	/**
 	 * Compute granulometric curve on input image, without any display, using spatial
 	 * calibration of image.
 	 */
-	private ResultsTable computeVolumeCurveChannel(ImagePlus colorImage, int channelIndex, Morphology.Operation op,
+	private ResultsTable computeVolumeCurveChannel(ImagePlus colorImage, ImageProcessor mask, int channelIndex, Morphology.Operation op,
 			Strel.Shape shape, int diamMax, int step, double resol, String unitName) 
 	{
 		// Ensure input image is Gray 8
-		ImageProcessor baseImage = colorImage.getProcessor();
-		ImageProcessor image = baseImage;
+		ImageProcessor image = colorImage.getProcessor();
 		if (image instanceof ColorProcessor) 
 		{
 			image = ((ColorProcessor) image).getChannel(channelIndex + 1, new ByteProcessor(image.getWidth(), image.getHeight()));
 		}
 
-		int nSteps = diamMax / step;
+		return computeVolumeTable(colorImage, image, mask, op, shape, diamMax, step, resol, unitName);
+	}
+	
+	/**
+	 * Computes the volume curve of the image, and displays the result of each
+	 * step within the ImagePlus.
+	 */
+	private ResultsTable computeVolumeTable(final ImagePlus imp, ImageProcessor image, ImageProcessor mask, 
+			Morphology.Operation op, Strel.Shape shape, int diamMax, int step, 
+			double resol, String unitName)
+	{
+		ImageProcessor baseImage = imp.getProcessor();
+		
+		// update display after each step
+		GranulometryListener listener = new StatusBarListener("Diameter", resol, unitName)
+		{
+			@Override
+			public void stepFinished(GranulometryEvent evt)
+			{
+				super.stepFinished(evt);
+				// results restricted to a mask correspond to a crop of the image
+				ImageProcessor result = evt.getResultImage();
+				if (result.getWidth() == imp.getWidth() && result.getHeight() == imp.getHeight())
+				{
+					imp.setProcessor(result);
+					imp.updateImage();
+				}
+			}
+		};
 		
-		double vol = GrayscaleGranulometry.imageVolume(image);
-		IJ.log("volume = " + vol);
+		int[] diams = GrayscaleGranulometry.createSizes(1, step, diamMax / step);
+		double[] volumes = GrayscaleGranulometry.volumeCurve(image, mask, op, shape,
+				SizeType.DIAMETER, diams, listener);
+		
+		// restore correct display 
+		imp.setProcessor(baseImage);
+		imp.updateImage();
 
 		ResultsTable table = new ResultsTable();
-		
-		int diam = 1;
 		table.incrementCounter();
-		table.addValue("Diameter", diam);
-		table.addValue("Volume", vol);
+		table.addValue("Diameter", 1);
+		table.addValue("Volume", volumes[0]);
 		
-		for (int i = 0; i < nSteps; i++) 
+		for (int i = 1; i < volumes.length; i++) 
 		{
-			diam += step;
-			double diam2 = diam * resol;
-			
-			showDiameterProgression(diam2, unitName, i, nSteps);
-			
-			Strel strel = shape.fromDiameter(diam);
-			strel.showProgress(false);
-			
-			ImageProcessor image2 = op.apply(image, strel);
-			
-			colorImage.setProcessor(image2);
-			colorImage.updateImage();
-			
-			vol = GrayscaleGranulometry.imageVolume(image2);
-			
 			table.incrementCounter();
-			table.addValue("Diameter", diam2);
-			table.addValue("Volume", vol);
+			table.addValue("Diameter", diams[i - 1] * resol);
+			table.addValue("Volume", volumes[i]);
 		}
 		
-		// restore correct display 
-		colorImage.setProcessor(baseImage);
-		colorImage.updateImage();
-		
 		// return the created array
 		return table;
 	}
-
-	private void showDiameterProgression(double currentDiameter, String unitName, int i, int iMax)
-	{
-		String diamString = String.format(Locale.ENGLISH, "%7.2f",
-				currentDiameter);
-		if (unitName != null && !unitName.isEmpty()) 
-		{
-			diamString = diamString.concat(" " + unitName);
-		}
-		IJ.showStatus("Diameter: " + diamString + " (" + i + "/" + iMax + ")");
-	}
 }
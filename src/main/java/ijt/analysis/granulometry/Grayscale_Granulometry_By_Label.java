@@ -0,0 +1,180 @@
+package ijt.analysis.granulometry;
+
+import java.util.Locale;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.measure.Calibration;
+import ij.plugin.PlugIn;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import inra.ijpb.label.LabelImages;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Plugin for computing the granulometric curve of each region of a label
+ * image, from the gray levels of an intensity image.
+ * 
+ * For each radius of the structuring element, the morphological operation is
+ * applied once on the whole intensity image, and the volume of each region is
+ * computed within a single scan of the result. The results are presented as
+ * tables with one row per region, and one column per strel radius, similar to
+ * the results of the batch granulometry.
+ * 
+ * @author David Legland
+ *
+ */
+public class Grayscale_Granulometry_By_Label implements PlugIn
+{
+	/* (non-Javadoc)
+	 * @see ij.plugin.PlugIn#run(java.lang.String)
+	 */
+	public void run(String arg)
+	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
+		// requires an intensity image and a label image
+		String[] imageNames = WindowManager.getImageTitles();
+		if (imageNames.length < 2)
+		{
+			IJ.error("Not enough images", "Requires an intensity image and a label image");
+			return;
+		}
+		
+		// create the dialog
+		GenericDialog gd = new GenericDialog("Granulometry by Label");
+		gd.addChoice("Intensity Image", imageNames, imageNames[0]);
+		gd.addChoice("Label Image", imageNames, imageNames[1]);
+		gd.addChoice("Operation", Operation.getAllLabels(), 
+				Operation.CLOSING.toString());
+		gd.addChoice("Element", Strel.Shape.getAllLabels(), 
+				Strel.Shape.SQUARE.toString());
+		gd.addNumericField("Radius Max. (in pixels)", 25, 0);
+		gd.addNumericField("Step (in pixels)", 1, 0);
+		gd.addNumericField("Spatial_Calibration", 1, 3);
+		gd.addStringField("Calibration_Unit", "pixel");
+		gd.addCheckbox("Convert to 8-bit", false);
+		
+		// Display dialog and wait for user input
+		gd.showDialog();
+		if (gd.wasCanceled())
+		{
+			return;
+		}
+		
+		// extract chosen parameters
+		ImagePlus image 	= WindowManager.getImage(gd.getNextChoice());
+		ImagePlus labelImage = WindowManager.getImage(gd.getNextChoice());
+		Operation op 		= Operation.fromLabel(gd.getNextChoice());
+		Strel.Shape shape 	= Strel.Shape.fromLabel(gd.getNextChoice());
+		int radiusMax 		= (int) gd.getNextNumber();		
+		int step 			= (int) gd.getNextNumber();		
+		double resol 		= gd.getNextNumber();
+		String unitName 	= gd.getNextString();
+		boolean convertToByte = gd.getNextBoolean();
+		
+		// Do some checkup on user inputs
+		if (image.getWidth() != labelImage.getWidth() || image.getHeight() != labelImage.getHeight())
+		{
+			IJ.error("Dimension Error", "Intensity and label images must have the same size");
+			return;
+		}
+		if (Double.isNaN(resol)) 
+		{
+			IJ.error("Parsing Error", "Could not interpret the resolution input");
+			return;
+		}
+		
+		// Execute core of the plugin
+		ImageProcessor intensity = GrayscaleGranulometry.toGrayscale(image.getProcessor(), convertToByte);
+		GranulometryResult volumes = computeVolumeCurves(intensity,
+				labelImage.getProcessor(), op.getOperation(), shape, radiusMax,
+				step, resol, unitName);
+		if (volumes == null)
+		{
+			return;
+		}
+		
+		// Compute granulometric curves and their statistics
+		GranulometryResult granulo = GrayscaleGranulometry.derivate(volumes);
+		GranulometryResult stats = GrayscaleGranulometry.granuloStats(granulo);
+		
+		// Display results
+		String suffix = String.format(Locale.ENGLISH, "%s (operation=%s, radiusMax=%d, step=%d)",
+				labelImage.getShortTitle(), op, radiusMax, step);
+		volumes.toTable().show("Volumes of " + suffix);
+		granulo.toTable().show("Granulometries of " + suffix);
+		stats.toTable().show("Granulometry Stats of " + suffix);
+	}
+	
+	/**
+	 * Computes the volume curve of each region of a label image.
+	 * 
+	 * @param image
+	 *            the intensity image
+	 * @param labelImage
+	 *            the label image, with the same size as the intensity image
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param radiusMax
+	 *            the maximal radius of the structuring element
+	 * @param step
+	 *            the increment between two consecutive radius values
+	 * @param resol
+	 *            the size of a pixel in user units
+	 * @param unitName
+	 *            the name of the unit
+	 * @return a result with one row per label, and one column per radius,
+	 *         starting with the radius 0 corresponding to the original image,
+	 *         or null if the computation was interrupted by the user
+	 */
+	public GranulometryResult computeVolumeCurves(ImageProcessor image, ImageProcessor labelImage, 
+			Morphology.Operation op, Strel.Shape shape, int radiusMax, int step, 
+			double resol, String unitName)
+	{
+		// convert color images to gray scale
+		image = GrayscaleGranulometry.toGrayscale(image, false);
+		
+		int[] labels = LabelImages.findAllLabels(labelImage);
+		int[] radiusList = GrayscaleGranulometry.createSizes(0, step, radiusMax / step);
+		double[][] volumes = GrayscaleGranulometry.labelVolumeCurves(image, labelImage, 
+				labels, op, shape, SizeType.RADIUS, radiusList, 
+				new StatusBarListener("Radius", resol, unitName));
+		
+		int nCols = radiusList.length + 1;
+		if (volumes.length > 0 && volumes[0].length < nCols)
+		{
+			// the computation was interrupted by the user
+			IJ.showStatus("Granulometry by label interrupted");
+			return null;
+		}
+		
+		boolean calibrated = resol != 1 || !unitName.equals("pixel");
+		String[] colNames = new String[nCols];
+		double[] sizes = new double[nCols];
+		for (int i = 0; i < nCols; i++)
+		{
+			int radius = i == 0 ? 0 : radiusList[i - 1];
+			sizes[i] = radius * resol;
+			colNames[i] = calibrated 
+					? String.format(Locale.US, "%5.2f", sizes[i])
+					: Integer.toString(radius);
+		}
+		
+		GranulometryResult result = new GranulometryResult(colNames, sizes);
+		for (int l = 0; l < labels.length; l++)
+		{
+			result.addRow(Integer.toString(labels[l]), volumes[l]);
+		}
+		
+		return result;
+	}
+}
@@ -1,20 +1,25 @@
 package ijt.analysis.granulometry;
 
+import java.awt.Color;
 import java.util.Locale;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.WindowManager;
 import ij.gui.GenericDialog;
+import ij.gui.Roi;
 import ij.gui.Plot;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
 import ij.plugin.PlugIn;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
 import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.EngineSelector;
 import inra.ijpb.morphology.Morphology;
 import inra.ijpb.morphology.Strel;
 
@@ -32,11 +37,68 @@ import inra.ijpb.morphology.Strel;
  */
 public class Grayscale_Granulometry_By_Radius implements PlugIn 
 {
+	/**
+	 * The way the list of radius values is determined.
+	 */
+	public enum Sampling
+	{
+		/** Radius values are regularly spaced, using the step */
+		REGULAR("Regular"),
+		/** Radius values are determined from the variations of the volume */
+		ADAPTIVE("Adaptive"),
+		/** Large radius values are computed on downsampled images */
+		PYRAMID("Pyramid");
+		
+		private String label;
+		
+		private Sampling(String label)
+		{
+			this.label = label;
+		}
+		
+		public String toString()
+		{
+			return this.label;
+		}
+		
+		public static String[] getAllLabels()
+		{
+			int n = Sampling.values().length;
+			String[] result = new String[n];
+			
+			int i = 0;
+			for (Sampling sampling : Sampling.values())
+				result[i++] = sampling.label;
+			
+			return result;
+		}
+		
+		/**
+		 * Determines the sampling from its label.
+		 * @throws IllegalArgumentException if label is not recognized.
+		 */
+		public static Sampling fromLabel(String label)
+		{
+			if (label != null)
+				label = label.toLowerCase();
+			for (Sampling val : Sampling.values()) 
+			{
+				String cmp = val.label.toLowerCase();
+				if (cmp.equals(label))
+					return val;
+			}
+			throw new IllegalArgumentException("Unable to parse Sampling with label: " + label);
+		}
+	};
+	
 	/* (non-Javadoc)
 	 * @see ij.plugin.PlugIn#run(java.lang.String)
 	 */
 	public void run(String arg) 
 	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
 		// Get current open image
 		ImagePlus image = WindowManager.getCurrentImage();
 		if (image == null) 
@@ -52,7 +114,8 @@ public class Grayscale_Granulometry_By_Radius implements PlugIn
 		
 		if (colorImage)
 		{
-			gd.addChoice("Working Channel", new String[] {"Red", "Green", "Blue"}, "Red");
+			gd.addChoice("Working Channel", new String[] {"Red", "Green", "Blue", "All"}, "Red");
+			gd.addCheckbox("Add Luminance Channel", false);
 		}
 		gd.addChoice("Operation", Operation.getAllLabels(), 
 				Operation.CLOSING.toString());
@@ -64,7 +127,20 @@ public class Grayscale_Granulometry_By_Radius implements PlugIn
 		Calibration calib = image.getCalibration();
 		gd.addNumericField("Spatial_Calibration", calib.pixelWidth, 3);
 		gd.addStringField("Calibration_Unit", calib.getUnit());
+		gd.addCheckbox("Convert to 8-bit", false);
 		gd.addCheckbox("Display Volume Curve", false);
+		gd.addCheckbox("Display Size Map", false);
+		gd.addChoice("Sampling", Sampling.getAllLabels(), 
+				Sampling.REGULAR.toString());
+		gd.addNumericField("Pyramid Switch Radius", PyramidGranulometry.DEFAULT_SWITCH_SIZE, 0);
+		gd.addCheckbox("Intensity Statistics", false);
+		gd.addStringField("Intensity_Thresholds", "");
+		Roi roi = image.getRoi();
+		boolean hasRoi = roi != null && roi.isArea();
+		if (hasRoi)
+		{
+			gd.addCheckbox("Restrict to ROI", true);
+		}
 
 		// Display dialog and wait for user input
 		gd.showDialog();
@@ -75,13 +151,21 @@ public class Grayscale_Granulometry_By_Radius implements PlugIn
 		
 		// extract chosen parameters
 		int channelIndex    = colorImage ? gd.getNextChoiceIndex() : 0;
+		boolean addLuminance = colorImage ? gd.getNextBoolean() : false;
 		Operation op 		= Operation.fromLabel(gd.getNextChoice());
 		Strel.Shape shape 	= Strel.Shape.fromLabel(gd.getNextChoice());
 		int radiusMax 		= (int) gd.getNextNumber();		
 		int step 			= (int) gd.getNextNumber();		
 		double resol 		= gd.getNextNumber();
 		String unitName 	= gd.getNextString();
+		boolean convertToByte = gd.getNextBoolean();
 		boolean displayVolumeCurve = gd.getNextBoolean();
+		boolean displaySizeMap = gd.getNextBoolean();
+		Sampling sampling	= Sampling.fromLabel(gd.getNextChoice());
+		int pyramidSwitchRadius = (int) gd.getNextNumber();
+		boolean intensityStats = gd.getNextBoolean();
+		String thresholdString = gd.getNextString();
+		boolean restrictToRoi = hasRoi ? gd.getNextBoolean() : false;
 	
 		// Do some checkup on user inputs
 		if (Double.isNaN(resol)) 
@@ -89,11 +173,78 @@ public class Grayscale_Granulometry_By_Radius implements PlugIn
 			IJ.error("Parsing Error", "Could not interpret the resolution input");
 			return;
 		}
+		if (sampling == Sampling.PYRAMID && pyramidSwitchRadius <= 0)
+		{
+			IJ.error("Pyramid", "Pyramid sampling requires a positive switch radius");
+			return;
+		}
+		boolean allChannels = colorImage && channelIndex == 3;
+		boolean extraOutputs = displaySizeMap || intensityStats;
+		if (allChannels && (sampling != Sampling.REGULAR || extraOutputs))
+		{
+			IJ.error("Granulometry", "Processing all channels requires regular sampling, without size map nor intensity statistics");
+			return;
+		}
+		if (sampling != Sampling.REGULAR && (restrictToRoi || extraOutputs))
+		{
+			IJ.error("Granulometry", sampling + " sampling can not be used with ROI, size map nor intensity statistics");
+			return;
+		}
+		if (displaySizeMap && restrictToRoi)
+		{
+			IJ.error("Size Map", "Size map can not be restricted to a ROI");
+			return;
+		}
+		double[] intensityThresholds = null;
+		if (intensityStats)
+		{
+			try
+			{
+				intensityThresholds = parseThresholds(thresholdString);
+			}
+			catch (NumberFormatException ex)
+			{
+				IJ.error("Parsing Error", "Could not interpret the intensity thresholds");
+				return;
+			}
+		}
+		
+		// convert the roi into a mask, to restrict computation of volumes
+		ImageProcessor mask = restrictToRoi 
+				? GrayscaleGranulometry.createMask(roi, image.getWidth(), image.getHeight()) 
+				: null;
+		
+		// process all channels at once
+		if (allChannels)
+		{
+			ResultsTable volumeTable = computeVolumeCurveChannels(image, mask,
+					addLuminance, op.getOperation(), shape, radiusMax, step,
+					resol, unitName);
+			if (displayVolumeCurve)
+			{
+				String title = String.format(Locale.ENGLISH,
+						"Volume Curves of %s (operation=%s, shape=%s, radius=%d, step=%d)",
+						image.getShortTitle(), op, shape, radiusMax, step);
+				volumeTable.show(title);
+				plotChannelCurves(volumeTable, title, "Image Total Intensity", unitName);
+			}
+			
+			ResultsTable granulo = derivateChannels(volumeTable);
+			String title = String.format(Locale.ENGLISH,
+					"Granulometries of %s (operation=%s, shape=%s, radiusMax=%d, step=%d)",
+					image.getShortTitle(), op, shape, radiusMax, step);
+			granulo.show(title);
+			plotChannelCurves(granulo, title, "Grayscale Variation (%)", unitName);
+			return;
+		}
 		
-		// dispatch processing according to color / grayscale
-		ResultsTable volumeTable = colorImage
-				? computeVolumeCurveChannel(image, channelIndex, op.getOperation(), shape, radiusMax, step, resol, unitName)
-				: computeVolumeCurve(image, op.getOperation(), shape, radiusMax, step, resol, unitName);
+		// extract the channel to process, converting to Gray8 only if requested
+		ImageProcessor channel = colorImage
+				? extractChannel((ColorProcessor) image.getProcessor(), channelIndex)
+				: GrayscaleGranulometry.toGrayscale(image.getProcessor(), convertToByte);
+		ResultsTable volumeTable = computeVolumeTable(image, channel, mask, 
+				op.getOperation(), shape, radiusMax, step, resol, unitName, 
+				sampling, pyramidSwitchRadius, displaySizeMap, intensityThresholds);
 
 //		// Execute core of the plugin
 //		ResultsTable volumeTable = computeVolumeCurve(image, op.getOperation(), shape, radiusMax, step, 
@@ -189,121 +340,366 @@ public class Grayscale_Granulometry_By_Radius implements PlugIn
 		plot.show();			
 	}
 	
-	public ResultsTable computeVolumeCurve(ImagePlus imp, Morphology.Operation op, 
-			Strel.Shape shape, int diamMax, int step, double resol, String unitName) 
+	/**
+	 * Displays the curves of each channel within a single plot. The first
+	 * column of the table contains the strel diameter, and is followed by one
+	 * column for each channel.
+	 */
+	private void plotChannelCurves(ResultsTable table, String title, String yLabel, String unitName)
 	{
-		// Extract image processor, make sure it is Gray8
-		ImageProcessor image = imp.getProcessor();
-		if (image instanceof ShortProcessor) 
+		int firstColumn = table.getColumnIndex("Diameter") + 1;
+		int nChannels = table.getLastColumn() - firstColumn + 1;
+		double[] x = table.getColumnAsDoubles(firstColumn - 1);
+		
+		double yMax = 0;
+		for (int c = 0; c < nChannels; c++)
 		{
-			image = image.convertToByte(true);
+			for (double y : table.getColumnAsDoubles(firstColumn + c))
+				yMax = Math.max(yMax, y);
 		}
+		
+		Plot plot = new Plot(title, "Strel Diameter (" + unitName + ")", yLabel);
+		plot.setLimits(0, x[x.length - 1], 0, yMax);
+		
+		Color[] colors = new Color[] {Color.RED, Color.GREEN, Color.BLUE, Color.DARK_GRAY};
+		for (int c = 0; c < nChannels; c++)
+		{
+			plot.setColor(colors[c % colors.length]);
+			plot.addPoints(x, table.getColumnAsDoubles(firstColumn + c), Plot.LINE);
+		}
+		
+		plot.show();
+	}
+	
+	public ResultsTable computeVolumeCurve(ImagePlus imp, Morphology.Operation op, 
+			Strel.Shape shape, int diamMax, int step, double resol, String unitName) 
+	{
+		return computeVolumeCurve(imp, null, op, shape, diamMax, step, resol, unitName);
+	}
+
+	/**
+	 * Computes granulometric curve on input image restricted to a binary
+	 * mask. If the mask is null, the whole image is processed.
+	 */
+	public ResultsTable computeVolumeCurve(ImagePlus imp, ImageProcessor mask, Morphology.Operation op, 
+			Strel.Shape shape, int diamMax, int step, double resol, String unitName) 
+	{
+		// Extract image processor, keeping the bit depth of grayscale images
+		ImageProcessor image = GrayscaleGranulometry.toGrayscale(imp.getProcessor(), false);
 
-		int nSteps = diamMax / step;
+		return computeVolumeTable(imp, image, mask, op, shape, diamMax, step, resol, unitName,
+				Sampling.REGULAR, 0, false, null);
+	}
+
+	/**
+	 * Extracts a single channel of a color image as a Gray8 image.
+	 */
+	private static final ImageProcessor extractChannel(ColorProcessor image, int channelIndex)
+	{
+		return image.getChannel(channelIndex + 1, new ByteProcessor(image.getWidth(), image.getHeight()));
+	}
+	
+	/**
+	 * Computes the volume curves of the red, green and blue channels of a
+	 * color image, and optionally of its luminance. The channels are
+	 * extracted once, and their curves are computed concurrently, without
+	 * updating the display.
+	 * 
+	 * @param colorImage
+	 *            the RGB image to process
+	 * @param addLuminance
+	 *            if true, the volume curve of the luminance is also computed
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param radiusMax
+	 *            the maximal radius of the structuring element
+	 * @param step
+	 *            the increment between two consecutive radius values
+	 * @param resol
+	 *            the size of a pixel in user units
+	 * @param unitName
+	 *            the name of the unit
+	 * @return a table containing the radius, the diameter, and one column
+	 *         for the volume of each channel
+	 */
+	public ResultsTable computeVolumeCurveChannels(ImagePlus colorImage,
+			boolean addLuminance, Morphology.Operation op, Strel.Shape shape, 
+			int radiusMax, int step, double resol, String unitName)
+	{
+		return computeVolumeCurveChannels(colorImage, null, addLuminance, op,
+				shape, radiusMax, step, resol, unitName);
+	}
+	
+	/**
+	 * Computes the volume curves of the channels of a color image, restricted
+	 * to a binary mask. If the mask is null, the whole image is processed.
+	 */
+	public ResultsTable computeVolumeCurveChannels(ImagePlus colorImage,
+			ImageProcessor mask, boolean addLuminance, Morphology.Operation op,
+			Strel.Shape shape, int radiusMax, int step, double resol, String unitName)
+	{
+		ColorProcessor image = (ColorProcessor) colorImage.getProcessor();
+		ImageProcessor[] channels = extractChannels(image, addLuminance);
+		String[] channelNames = new String[] {"Red", "Green", "Blue", "Luminance"};
 		
-		double[] volumes = new double[nSteps + 1];
+		int[] radiusList = GrayscaleGranulometry.createSizes(0, step, radiusMax / step);
+		int nThreads = Math.min(channels.length, Runtime.getRuntime().availableProcessors());
+		double[][] volumes = GrayscaleGranulometry.volumeCurves(channels, mask, op, shape,
+				SizeType.RADIUS, radiusList, new StatusBarListener("Radius", resol, unitName), 
+				nThreads);
 		
-		double vol = GrayscaleGranulometry.imageVolume(image);
-		volumes[0] = vol;
+		// in case of cancellation, keep only the sizes computed for all channels
+		int nRows = volumes[0].length;
+		for (double[] curve : volumes)
+			nRows = Math.min(nRows, curve.length);
 		
 		ResultsTable table = new ResultsTable();
-		table.incrementCounter();
-		table.addValue("Radius", 0);
-		table.addValue("Diameter", 0);
-		table.addValue("Volume", vol);
-		
-		int radius = 0;
-		for (int i = 0; i < nSteps; i++) 
+		for (int i = 0; i < nRows; i++) 
 		{
-			radius += step;
-			
-			double radius2 = radius * resol;
-			double diam2 = (2 * radius + 1) * resol;
-			
-			showRadiusProgression(radius2, unitName, i, nSteps);
-			
-			Strel strel = shape.fromRadius(radius);
-			strel.showProgress(false);
-			
-			ImageProcessor image2 = op.apply(image, strel);
-			imp.setProcessor(image2);
-			imp.updateImage();
-				
-			vol = GrayscaleGranulometry.imageVolume(image2);
-			volumes[i+1] = vol;
-			
+			int radius = i == 0 ? 0 : radiusList[i - 1];
 			table.incrementCounter();
-			table.addValue("Radius", radius2);
-			table.addValue("Diameter", diam2);
-			table.addValue("Volume", vol);
+			table.addValue("Radius", radius * resol);
+			table.addValue("Diameter", i == 0 ? 0 : (2 * radius + 1) * resol);
+			for (int c = 0; c < channels.length; c++)
+			{
+				table.addValue(channelNames[c], volumes[c][i]);
+			}
 		}
 		
-		// restore correct display 
-		imp.setProcessor(image);
-		imp.updateImage();
-		
-		// return the created array
 		return table;
 	}
-
-	private ResultsTable computeVolumeCurveChannel(ImagePlus colorImage, int channelIndex, Morphology.Operation op, 
-			Strel.Shape shape, int diamMax, int step, double resol, String unitName) 
+	
+	/**
+	 * Extracts the red, green and blue channels of a color image, and
+	 * optionally the luminance computed with the weights of ITU-R BT.601.
+	 */
+	private static final ImageProcessor[] extractChannels(ColorProcessor image, boolean addLuminance)
 	{
-		// Ensure input image is Gray 8
-		ImageProcessor baseImage = colorImage.getProcessor();
-		ImageProcessor image = baseImage;
-		if (image instanceof ColorProcessor) 
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int nPixels = width * height;
+		
+		byte[] red = new byte[nPixels];
+		byte[] green = new byte[nPixels];
+		byte[] blue = new byte[nPixels];
+		image.getRGB(red, green, blue);
+		
+		ImageProcessor[] channels = new ImageProcessor[addLuminance ? 4 : 3];
+		channels[0] = new ByteProcessor(width, height, red);
+		channels[1] = new ByteProcessor(width, height, green);
+		channels[2] = new ByteProcessor(width, height, blue);
+		
+		if (addLuminance)
 		{
-			image = ((ColorProcessor) image).getChannel(channelIndex + 1, new ByteProcessor(image.getWidth(), image.getHeight()));
+			byte[] lum = new byte[nPixels];
+			for (int i = 0; i < nPixels; i++)
+			{
+				double value = 0.299 * (red[i] & 0xFF) + 0.587 * (green[i] & 0xFF) + 0.114 * (blue[i] & 0xFF);
+				lum[i] = (byte) Math.round(value);
+			}
+			channels[3] = new ByteProcessor(width, height, lum);
+		}
+		
+		return channels;
+	}
+	
+	/**
+	 * Computes the granulometric curve of each channel column of a volume
+	 * table, using the "Diameter" column as abscissa.
+	 */
+	private static final ResultsTable derivateChannels(ResultsTable volumeTable)
+	{
+		int indX = volumeTable.getColumnIndex("Diameter");
+		int lastColumn = volumeTable.getLastColumn();
+		
+		ResultsTable result = new ResultsTable();
+		for (int c = indX + 1; c <= lastColumn; c++)
+		{
+			ResultsTable granulo = GrayscaleGranulometry.derivate(volumeTable, indX, c);
+			String channelName = volumeTable.getColumnHeading(c);
+			for (int r = 0; r < granulo.getCounter(); r++)
+			{
+				if (c == indX + 1)
+				{
+					result.incrementCounter();
+					result.setValue("Diameter", r, granulo.getValueAsDouble(0, r));
+				}
+				result.setValue(channelName, r, granulo.getValueAsDouble(1, r));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Computes the volume curve of the image, and displays the result of each
+	 * step within the ImagePlus. Adaptive and pyramid sampling do not support
+	 * a mask, a size map nor intensity statistics.
+	 * 
+	 * @param sampling
+	 *            the way the radius values are determined
+	 * @param pyramidSwitchRadius
+	 *            the radius above which volumes are computed on downsampled
+	 *            images, used only for pyramid sampling
+	 * @param displaySizeMap
+	 *            if true, the dominant size map is computed within the same
+	 *            pass, and displayed in a new image
+	 * @param intensityThresholds
+	 *            the intensity thresholds used for counting pixels at each
+	 *            step, or null if intensity statistics are not computed
+	 */
+	private ResultsTable computeVolumeTable(final ImagePlus imp, ImageProcessor image, ImageProcessor mask, 
+			Morphology.Operation op, Strel.Shape shape, int radiusMax, int step, 
+			double resol, String unitName, Sampling sampling, int pyramidSwitchRadius,
+			boolean displaySizeMap, double[] intensityThresholds)
+	{
+		ImageProcessor baseImage = imp.getProcessor();
+		
+		// update display after each step
+		GranulometryListener listener = new StatusBarListener("Radius", resol, unitName)
+		{
+			@Override
+			public void stepFinished(GranulometryEvent evt)
+			{
+				super.stepFinished(evt);
+				// results restricted to a mask correspond to a crop of the image
+				ImageProcessor result = evt.getResultImage();
+				if (result.getWidth() == imp.getWidth() && result.getHeight() == imp.getHeight())
+				{
+					imp.setProcessor(result);
+					imp.updateImage();
+				}
+			}
+		};
+		
+		// optionally compute the dominant size map within the same pass
+		DominantSizeListener sizeMap = null;
+		if (displaySizeMap)
+		{
+			sizeMap = new DominantSizeListener(image);
+			listener = new CompositeListener(listener, sizeMap);
 		}
-
-		int nSteps = diamMax / step;
 		
-		double[] volumes = new double[nSteps + 1];
+		// optionally gather intensity statistics within the volume computation
+		IntensityReducer reducer = null;
+		if (intensityThresholds != null)
+		{
+			reducer = IntensityReducer.forImage(image, 256, intensityThresholds);
+		}
 		
-		double vol = GrayscaleGranulometry.imageVolume(image);
-		volumes[0] = vol;
+		int[] radiusList;
+		double[] volumes;
+		if (sampling == Sampling.ADAPTIVE)
+		{
+			// radius list is determined from the variations of the volume 
+			ResultsTable res = AdaptiveGranulometry.adaptiveGranulometry(image, op, 
+					shape, SizeType.RADIUS, radiusMax, listener);
+			double[] radii = res.getColumnAsDoubles(0);
+			volumes = res.getColumnAsDoubles(1);
+			radiusList = new int[radii.length - 1];
+			for (int i = 1; i < radii.length; i++)
+			{
+				radiusList[i - 1] = (int) radii[i];
+			}
+		}
+		else if (sampling == Sampling.PYRAMID)
+		{
+			// large radius values are computed on downsampled images
+			radiusList = GrayscaleGranulometry.createSizes(0, step, radiusMax / step);
+			volumes = PyramidGranulometry.volumeCurve(image, op, shape,
+					SizeType.RADIUS, radiusList, pyramidSwitchRadius, listener);
+		}
+		else
+		{
+			radiusList = GrayscaleGranulometry.createSizes(0, step, radiusMax / step);
+			volumes = GrayscaleGranulometry.volumeCurve(image, mask, op, shape,
+					SizeType.RADIUS, radiusList, reducer, listener);
+		}
+		
+		// restore correct display 
+		imp.setProcessor(baseImage);
+		imp.updateImage();
+		
+		if (sizeMap != null)
+		{
+			ImageProcessor sizes = sizeMap.getSizeMap();
+			sizes.multiply(resol);
+			ImageStack stack = new ImageStack(image.getWidth(), image.getHeight());
+			stack.addSlice("Radius", sizes);
+			stack.addSlice("Residue", sizeMap.getResidueMap());
+			ImagePlus sizeMapPlus = new ImagePlus(imp.getShortTitle() + "-sizeMap", stack);
+			sizeMapPlus.setCalibration(imp.getCalibration());
+			sizeMapPlus.show();
+		}
+		
+		if (reducer != null)
+		{
+			showIntensityStatistics(reducer, imp.getShortTitle());
+		}
 		
 		ResultsTable table = new ResultsTable();
 		table.incrementCounter();
 		table.addValue("Radius", 0);
 		table.addValue("Diameter", 0);
-		table.addValue("Volume", vol);
+		table.addValue("Volume", volumes[0]);
 		
-		int radius = 0;
-		for (int i = 0; i < nSteps; i++) 
+		for (int i = 1; i < volumes.length; i++) 
 		{
-			radius += step;
-			
-			double radius2 = radius * resol;
-			double diam2 = (2 * radius + 1) * resol;
-			
-			showRadiusProgression(radius2, unitName, i, nSteps);
-			
-			Strel strel = shape.fromRadius(radius);
-			strel.showProgress(false);
-			
-			ImageProcessor image2 = op.apply(image, strel);
-			colorImage.setProcessor(image2);
-			colorImage.updateImage();
-				
-			vol = GrayscaleGranulometry.imageVolume(image2);
-			volumes[i+1] = vol;
-			
+			int radius = radiusList[i - 1];
 			table.incrementCounter();
-			table.addValue("Radius", radius2);
-			table.addValue("Diameter", diam2);
-			table.addValue("Volume", vol);
+			table.addValue("Radius", radius * resol);
+			table.addValue("Diameter", (2 * radius + 1) * resol);
+			table.addValue("Volume", volumes[i]);
 		}
 		
-		// restore correct display 
-		colorImage.setProcessor(baseImage);
-		colorImage.updateImage();
-		
 		// return the created array
 		return table;
 	}
 	
+	/**
+	 * Displays the intensity statistics of each step as a table, and the
+	 * histograms of each step as a size-by-intensity image, with one row per
+	 * radius.
+	 */
+	private static final void showIntensityStatistics(IntensityReducer reducer, String title)
+	{
+		reducer.getStatistics().toTable().show(title + "-intensityStats");
+		
+		GranulometryResult histograms = reducer.getHistograms();
+		int nBins = histograms.getColumnCount();
+		int nSteps = histograms.getRowCount();
+		FloatProcessor spectrum = new FloatProcessor(nBins, nSteps);
+		for (int r = 0; r < nSteps; r++)
+		{
+			double[] histo = histograms.getRow(r);
+			for (int b = 0; b < nBins; b++)
+			{
+				spectrum.setf(b, r, (float) histo[b]);
+			}
+		}
+		spectrum.resetMinAndMax();
+		new ImagePlus(title + "-sizeIntensitySpectrum", spectrum).show();
+	}
+	
+	/**
+	 * Parses a list of thresholds separated by commas or spaces.
+	 */
+	private static final double[] parseThresholds(String string)
+	{
+		String trimmed = string.trim();
+		if (trimmed.isEmpty())
+			return new double[0];
+		
+		String[] tokens = trimmed.split("[,\\s]+");
+		double[] thresholds = new double[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+		{
+			thresholds[i] = Double.parseDouble(tokens[i]);
+		}
+		return thresholds;
+	}
+	
 	public ResultsTable granulometricCurve(ImageProcessor image, Morphology.Operation op, 
 			Strel.Shape shape, int radiusMax, int step)
 	{
@@ -313,55 +709,29 @@ public class Grayscale_Granulometry_By_Radius implements PlugIn
 	public ResultsTable granulometricCurve(ImageProcessor image, Morphology.Operation op, 
 			Strel.Shape shape, int radiusMax, int step, double resol, String unitName) 
 	{
-		// Ensure input image is Gray 8
-		if (!(image instanceof ByteProcessor)) 
-		{
-			image = image.convertToByte(true);
-		}
+		// convert color images to gray scale
+		image = GrayscaleGranulometry.toGrayscale(image, false);
 
-		int nSteps = radiusMax / step;
-		
-		double vol = GrayscaleGranulometry.imageVolume(image);
+		int[] radiusList = GrayscaleGranulometry.createSizes(1, step, radiusMax / step);
+		double[] volumes = GrayscaleGranulometry.volumeCurve(image, op, shape,
+				SizeType.RADIUS, radiusList, new StatusBarListener("Radius", resol, unitName));
 
 		ResultsTable table = new ResultsTable();
 		
-		int radius = 1;
 		table.incrementCounter();
-		table.addValue("Radius", radius);
-		table.addValue("Diameter", radius * 2 + 1);
-		table.addValue("Volume", vol);
+		table.addValue("Radius", 1);
+		table.addValue("Diameter", 3);
+		table.addValue("Volume", volumes[0]);
 		
-		for (int i = 0; i < nSteps; i++) 
+		for (int i = 1; i < volumes.length; i++) 
 		{
-			radius += step;
-			double radius2 = radius * resol;
-			double diam2 = (2 * radius + 1) * resol;
-			
-			showRadiusProgression(radius2, unitName, i, nSteps);
-			
-			Strel strel = shape.fromRadius(radius);
-			strel.showProgress(false);
-			
-			ImageProcessor image2 = op.apply(image, strel);
-			
-			vol = GrayscaleGranulometry.imageVolume(image2);
-			
+			int radius = radiusList[i - 1];
 			table.incrementCounter();
-			table.addValue("Radius", radius2);
-			table.addValue("Diameter", diam2);
-			table.addValue("Volume", vol);
+			table.addValue("Radius", radius * resol);
+			table.addValue("Diameter", (2 * radius + 1) * resol);
+			table.addValue("Volume", volumes[i]);
 		}
 		
 		return table;
 	}
-
-	private void showRadiusProgression(double currentRadius, String unitName, int i, int iMax) 
-	{
-		String radiusString = String.format(Locale.ENGLISH, "%7.2f", currentRadius);
-		if (unitName != null && !unitName.isEmpty()) 
-		{
-			radiusString = radiusString.concat(" " + unitName);
-		}
-		IJ.showStatus("Radius: " + radiusString + " (" + i + "/" + iMax + ")");
-	}
 }
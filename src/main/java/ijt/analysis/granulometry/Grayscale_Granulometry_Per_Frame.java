@@ -0,0 +1,382 @@
+package ijt.analysis.granulometry;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.measure.Calibration;
+import ij.plugin.PlugIn;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter.Enhancement;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * Plugin for computing an independent granulometric curve for each frame of
+ * a stack or a hyperstack, for example for monitoring the evolution of
+ * texture within a time-lapse acquisition.
+ * 
+ * In planar mode, a curve is computed for each 2D image of the stack (each
+ * channel, slice and frame). In 3D mode, a curve is computed for each 3D
+ * image corresponding to a channel and a time point. Images are distributed
+ * over several threads. The results are presented as tables with one row per
+ * image, and one column per strel radius, similar to the results of the batch
+ * granulometry.
+ * 
+ * @author David Legland
+ *
+ */
+public class Grayscale_Granulometry_Per_Frame implements PlugIn
+{
+	/**
+	 * If true, planar images are converted to 8-bit before computing
+	 * granulometry. Otherwise, they are processed natively.
+	 */
+	boolean convertToByte = false;
+	
+	/* (non-Javadoc)
+	 * @see ij.plugin.PlugIn#run(java.lang.String)
+	 */
+	public void run(String arg)
+	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
+		// Get current open image
+		ImagePlus image = WindowManager.getCurrentImage();
+		if (image == null) 
+		{
+			IJ.error("No image", "Need at least one image to work");
+			return;
+		}
+		if (image.getStackSize() <= 1)
+		{
+			IJ.error("Requires Stack", "Requires a stack or a hyperstack to work");
+			return;
+		}
+		
+		// create the dialog
+		GenericDialog gd = new GenericDialog("Granulometry per Frame");
+		gd.addChoice("Mode", new String[] {"Planar (each slice)", "3D (each time point)"}, 
+				"Planar (each slice)");
+		gd.addChoice("Operation", Operation.getAllLabels(), 
+				Operation.CLOSING.toString());
+		gd.addChoice("Element (planar)", Strel.Shape.getAllLabels(), 
+				Strel.Shape.SQUARE.toString());
+		gd.addChoice("Element (3D)", Strel3D.Shape.getAllLabels(), 
+				Strel3D.Shape.CUBE.toString());
+		gd.addNumericField("Radius Max. (in pixels)", 25, 0);
+		gd.addNumericField("Step (in pixels)", 1, 0);
+		Calibration calib = image.getCalibration();
+		gd.addNumericField("Spatial_Calibration", calib.pixelWidth, 3);
+		gd.addStringField("Calibration_Unit", calib.getUnit());
+		gd.addCheckbox("Convert to 8-bit", false);
+		gd.addNumericField("Number of Threads", Runtime.getRuntime().availableProcessors(), 0);
+		
+		// Display dialog and wait for user input
+		gd.showDialog();
+		if (gd.wasCanceled())
+		{
+			return;
+		}
+		
+		// extract chosen parameters
+		boolean mode3d			= gd.getNextChoiceIndex() == 1;
+		Operation op 			= Operation.fromLabel(gd.getNextChoice());
+		Strel.Shape shape 		= Strel.Shape.fromLabel(gd.getNextChoice());
+		Strel3D.Shape shape3d 	= Strel3D.Shape.fromLabel(gd.getNextChoice());
+		int radiusMax 			= (int) gd.getNextNumber();		
+		int step 				= (int) gd.getNextNumber();		
+		double resol 			= gd.getNextNumber();
+		String unitName 		= gd.getNextString();
+		this.convertToByte		= gd.getNextBoolean();
+		int nThreads 			= (int) gd.getNextNumber();
+		
+		// Do some checkup on user inputs
+		if (Double.isNaN(resol)) 
+		{
+			IJ.error("Parsing Error", "Could not interpret the resolution input");
+			return;
+		}
+		
+		// Execute core of the plugin
+		long tic = System.nanoTime();
+		GranulometryResult volumes = mode3d 
+				? computeVolumeCurves3D(image, op.getOperation(), shape3d, radiusMax, step, resol, unitName, nThreads)
+				: computeVolumeCurves(image, op.getOperation(), shape, radiusMax, step, resol, unitName, nThreads);
+		long toc = System.nanoTime();
+		if (volumes == null)
+			return;
+		
+		// Compute granulometric curves and their statistics
+		GranulometryResult granulo = GrayscaleGranulometry.derivate(volumes);
+		GranulometryResult stats = GrayscaleGranulometry.granuloStats(granulo);
+		
+		// Display results
+		String suffix = String.format(Locale.ENGLISH, "%s (operation=%s, radiusMax=%d, step=%d)",
+				image.getShortTitle(), op, radiusMax, step);
+		volumes.toTable().show("Volumes of " + suffix);
+		granulo.toTable().show("Granulometries of " + suffix);
+		stats.toTable().show("Granulometry Stats of " + suffix);
+		
+		IJ.showStatus(String.format(Locale.ENGLISH, "Granulometry per frame: %d images in %.1f s",
+				volumes.getRowCount(), (toc - tic) / 1e9));
+	}
+	
+	/**
+	 * Computes the volume curve of each 2D image of the stack.
+	 * 
+	 * @param imp
+	 *            the stack or hyperstack to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param radiusMax
+	 *            the maximal radius of the structuring element
+	 * @param step
+	 *            the increment between two consecutive radius values
+	 * @param resol
+	 *            the size of a pixel in user units
+	 * @param unitName
+	 *            the name of the unit
+	 * @param nThreads
+	 *            the number of threads to use
+	 * @return a result with one row per image and one column per radius, or
+	 *         null if the computation was cancelled
+	 */
+	public GranulometryResult computeVolumeCurves(ImagePlus imp, final Morphology.Operation op,
+			final Strel.Shape shape, int radiusMax, int step, double resol,
+			String unitName, int nThreads)
+	{
+		final ImageStack stack = imp.getStack();
+		final int[] radiusList = GrayscaleGranulometry.createSizes(0, step, radiusMax / step);
+		final GranulometryListener listener = createCancelListener();
+		final boolean toByte = this.convertToByte;
+		
+		ArrayList<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+		ArrayList<String> labels = new ArrayList<String>();
+		for (int t = 1; t <= imp.getNFrames(); t++)
+		{
+			for (int c = 1; c <= imp.getNChannels(); c++)
+			{
+				for (int z = 1; z <= imp.getNSlices(); z++)
+				{
+					final int index = imp.getStackIndex(c, z, t);
+					labels.add(createLabel(imp, c, z, t));
+					tasks.add(new Callable<double[]>()
+					{
+						@Override
+						public double[] call()
+						{
+							ImageProcessor image = getProcessor(stack, index);
+							image = Batch_Granulometry_By_Diameter.prepareImage(image, Enhancement.NONE, toByte);
+							return GrayscaleGranulometry.volumeCurve(image, op, shape, 
+									SizeType.RADIUS, radiusList, listener);
+						}
+					});
+				}
+			}
+		}
+		
+		return runTasks(tasks, labels, radiusList, resol, unitName, nThreads);
+	}
+	
+	/**
+	 * Computes the volume curve of each 3D image of the hyperstack, for each
+	 * channel and each time point.
+	 * 
+	 * @param imp
+	 *            the hyperstack to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the 3D structuring element
+	 * @param radiusMax
+	 *            the maximal radius of the structuring element
+	 * @param step
+	 *            the increment between two consecutive radius values
+	 * @param resol
+	 *            the size of a voxel in user units
+	 * @param unitName
+	 *            the name of the unit
+	 * @param nThreads
+	 *            the number of threads to use
+	 * @return a result with one row per 3D image and one column per radius, or
+	 *         null if the computation was cancelled
+	 */
+	public GranulometryResult computeVolumeCurves3D(final ImagePlus imp, final Morphology.Operation op,
+			final Strel3D.Shape shape, int radiusMax, int step, double resol,
+			String unitName, int nThreads)
+	{
+		final ImageStack stack = imp.getStack();
+		final int[] radiusList = GrayscaleGranulometry.createSizes(0, step, radiusMax / step);
+		final GranulometryListener listener = createCancelListener();
+		
+		ArrayList<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+		ArrayList<String> labels = new ArrayList<String>();
+		for (int t = 1; t <= imp.getNFrames(); t++)
+		{
+			for (int c = 1; c <= imp.getNChannels(); c++)
+			{
+				final int channel = c;
+				final int frame = t;
+				labels.add(createLabel(imp, c, 0, t));
+				tasks.add(new Callable<double[]>()
+				{
+					@Override
+					public double[] call()
+					{
+						// create the 3D image corresponding to channel and frame
+						ImageStack image = new ImageStack(stack.getWidth(), stack.getHeight());
+						for (int z = 1; z <= imp.getNSlices(); z++)
+						{
+							image.addSlice(getProcessor(stack, imp.getStackIndex(channel, z, frame)));
+						}
+						return GrayscaleGranulometry.volumeCurve(image, op, shape, radiusList, listener);
+					}
+				});
+			}
+		}
+		
+		return runTasks(tasks, labels, radiusList, resol, unitName, nThreads);
+	}
+	
+	/**
+	 * Returns the processor of a stack slice. Access to the stack is
+	 * synchronized, as virtual stacks read images from files.
+	 */
+	private static final ImageProcessor getProcessor(ImageStack stack, int index)
+	{
+		synchronized (stack)
+		{
+			return stack.getProcessor(index);
+		}
+	}
+	
+	/**
+	 * Creates a listener that interrupts the computation when the user presses
+	 * the escape key.
+	 */
+	private static final GranulometryListener createCancelListener()
+	{
+		IJ.resetEscape();
+		return new GranulometryListener()
+		{
+			@Override
+			public void stepStarted(GranulometryEvent evt)
+			{
+			}
+
+			@Override
+			public void stepFinished(GranulometryEvent evt)
+			{
+			}
+
+			@Override
+			public boolean isCancelRequested()
+			{
+				return IJ.escapePressed();
+			}
+		};
+	}
+	
+	private static final String createLabel(ImagePlus imp, int c, int z, int t)
+	{
+		String label = "";
+		if (imp.getNChannels() > 1)
+			label += "c" + c;
+		if (z > 0 && imp.getNSlices() > 1)
+			label += (label.isEmpty() ? "" : "-") + "z" + z;
+		if (imp.getNFrames() > 1)
+			label += (label.isEmpty() ? "" : "-") + "t" + t;
+		return label;
+	}
+	
+	/**
+	 * Runs the computation of each volume curve within a thread pool, and
+	 * collects results into a result.
+	 */
+	private GranulometryResult runTasks(ArrayList<Callable<double[]>> tasks, ArrayList<String> labels,
+			int[] radiusList, double resol, String unitName, int nThreads)
+	{
+		int nImages = tasks.size();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+		ArrayList<Future<double[]>> futures = new ArrayList<Future<double[]>>(nImages);
+		for (Callable<double[]> task : tasks)
+		{
+			futures.add(executor.submit(task));
+		}
+		executor.shutdown();
+		
+		String[] colNames = createColumnNames(radiusList, resol, unitName);
+		double[] sizes = new double[radiusList.length + 1];
+		for (int i = 0; i < radiusList.length; i++)
+		{
+			sizes[i + 1] = radiusList[i] * resol;
+		}
+		GranulometryResult result = new GranulometryResult(colNames, sizes);
+		try
+		{
+			for (int i = 0; i < nImages; i++)
+			{
+				double[] volumes = futures.get(i).get();
+				if (volumes.length < radiusList.length + 1)
+				{
+					// the computation was interrupted by the user
+					executor.shutdownNow();
+					IJ.showProgress(1.0);
+					IJ.showStatus("Granulometry per frame interrupted");
+					return null;
+				}
+				
+				result.addRow(labels.get(i), volumes);
+				IJ.showProgress(i + 1, nImages);
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException ex)
+		{
+			executor.shutdownNow();
+			throw new RuntimeException("Could not compute volume curve", ex.getCause());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Creates column names from the strel radius values, preceded by the
+	 * radius 0 for the original image.
+	 */
+	private static final String[] createColumnNames(int[] radiusList, double resol, String unitName)
+	{
+		boolean calibrated = resol != 1 || (unitName != null && !unitName.equals("pixel"));
+		String[] colNames = new String[radiusList.length + 1];
+		for (int i = 0; i <= radiusList.length; i++)
+		{
+			int radius = i == 0 ? 0 : radiusList[i - 1];
+			colNames[i] = calibrated 
+					? String.format(Locale.US, "%5.2f", radius * resol)
+					: Integer.toString(radius);
+		}
+		return colNames;
+	}
+}
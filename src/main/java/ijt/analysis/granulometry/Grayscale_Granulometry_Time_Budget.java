@@ -0,0 +1,116 @@
+package ijt.analysis.granulometry;
+
+import java.util.Locale;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.gui.Plot;
+import ij.measure.ResultsTable;
+import ij.plugin.PlugIn;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.AnytimeGranulometry.Curve;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Plugin for computing a granulometric curve within a time budget. A coarse
+ * curve is computed first, and is refined until the time budget expires.
+ * 
+ * @author David Legland
+ *
+ */
+public class Grayscale_Granulometry_Time_Budget implements PlugIn
+{
+	/* (non-Javadoc)
+	 * @see ij.plugin.PlugIn#run(java.lang.String)
+	 */
+	public void run(String arg)
+	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
+		// Get current open image
+		ImagePlus imagePlus = WindowManager.getCurrentImage();
+		if (imagePlus == null) 
+		{
+			IJ.error("No image", "Need at least one image to work");
+			return;
+		}
+		
+		// create the dialog
+		GenericDialog gd = new GenericDialog("Granulometry with Time Budget");
+		gd.addChoice("Operation", Operation.getAllLabels(), 
+				Operation.CLOSING.toString());
+		gd.addChoice("Element", Strel.Shape.getAllLabels(), 
+				Strel.Shape.SQUARE.toString());
+		gd.addNumericField("Radius Max. (in pixels)", 25, 0);
+		gd.addNumericField("Time Budget (in seconds)", 5, 1);
+		gd.addCheckbox("Convert to 8-bit", false);
+		
+		// Display dialog and wait for user input
+		gd.showDialog();
+		if (gd.wasCanceled())
+		{
+			return;
+		}
+		
+		// extract chosen parameters
+		Operation op 		= Operation.fromLabel(gd.getNextChoice());
+		Strel.Shape shape 	= Strel.Shape.fromLabel(gd.getNextChoice());
+		int radiusMax 		= (int) gd.getNextNumber();		
+		double timeBudget	= gd.getNextNumber();
+		boolean convertToByte = gd.getNextBoolean();
+		
+		// convert to Gray 8 only if requested
+		ImageProcessor image = GrayscaleGranulometry.toGrayscale(imagePlus.getProcessor(), convertToByte);
+		
+		// display the state of each refinement
+		AnytimeGranulometry.CurveListener listener = new AnytimeGranulometry.CurveListener()
+		{
+			@Override
+			public void curveRefined(Curve curve)
+			{
+				IJ.showStatus(String.format(Locale.ENGLISH, "Granulometry: %d sizes (%d exact)",
+						curve.getSizes().length - 1, countExact(curve)));
+			}
+		};
+		
+		Curve curve = AnytimeGranulometry.volumeCurve(image, op.getOperation(),
+				shape, SizeType.RADIUS, radiusMax, (long) (timeBudget * 1000), listener);
+		if (!curve.isComplete())
+		{
+			IJ.log(String.format(Locale.ENGLISH, 
+					"Time budget expired: %d sizes computed, including %d exact ones",
+					curve.getSizes().length - 1, countExact(curve)));
+		}
+		
+		// Display results
+		String title = String.format(Locale.ENGLISH,
+				"Granulometry of %s (operation=%s, shape=%s, radiusMax=%d)",
+				imagePlus.getShortTitle(), op, shape, radiusMax);
+		curve.getVolumeTable().show("Volume Curve of " + imagePlus.getShortTitle());
+		ResultsTable granulo = curve.getGranulometry();
+		granulo.show(title);
+		if (granulo.getCounter() == 0)
+			return;
+		
+		Plot plot = new Plot(title, "Strel Radius (pixels)", "Grayscale Variation (%)",
+				granulo.getColumnAsDoubles(0), granulo.getColumnAsDoubles(1));
+		plot.show();
+	}
+	
+	private static final int countExact(Curve curve)
+	{
+		int count = 0;
+		for (int i = 1; i < curve.getSizes().length; i++)
+		{
+			if (curve.isExact(i))
+				count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,383 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Gathers intensity statistics of the image obtained at each step of a
+ * granulometry, within the scan used for computing the volume: sum and sum
+ * of squares, minimum and maximum values, intensity histogram, and number of
+ * pixels above a list of thresholds.
+ *
+ * For 8-bit and 16-bit images, the scan only builds the histogram of raw
+ * values, from which all statistics are derived. For 32-bit images, the
+ * statistics are accumulated directly.
+ *
+ * The histograms of all steps form a size-by-intensity matrix, that can be
+ * used for computing joint size-intensity spectra.
+ *
+ * @author David Legland
+ *
+ */
+public class IntensityReducer implements StepReducer
+{
+	/**
+	 * The number of bins of the intensity histogram.
+	 */
+	int nBins;
+
+	/**
+	 * The intensity corresponding to the lower bound of the first bin.
+	 */
+	double minValue;
+
+	/**
+	 * The intensity corresponding to the upper bound of the last bin.
+	 */
+	double maxValue;
+
+	/**
+	 * The thresholds used for counting pixels.
+	 */
+	double[] thresholds;
+
+	/**
+	 * The size of each processed step.
+	 */
+	ArrayList<Integer> sizes = new ArrayList<Integer>();
+
+	/**
+	 * The statistics of each processed step.
+	 */
+	ArrayList<double[]> stats = new ArrayList<double[]>();
+
+	/**
+	 * The histogram of each processed step.
+	 */
+	ArrayList<double[]> histograms = new ArrayList<double[]>();
+
+	/**
+	 * The histogram of raw values, reused for integer images.
+	 */
+	int[] rawCounts;
+
+	/**
+	 * Creates a new reducer.
+	 *
+	 * @param nBins
+	 *            the number of bins of the intensity histogram
+	 * @param minValue
+	 *            the lower bound of the histogram range
+	 * @param maxValue
+	 *            the upper bound of the histogram range. Values outside of
+	 *            the range are counted in the first or the last bin.
+	 * @param thresholds
+	 *            the intensity thresholds, for counting the pixels with
+	 *            greater values
+	 */
+	public IntensityReducer(int nBins, double minValue, double maxValue, double[] thresholds)
+	{
+		if (nBins < 1)
+		{
+			throw new IllegalArgumentException("Number of bins must be positive");
+		}
+		if (!(maxValue > minValue))
+		{
+			throw new IllegalArgumentException("Histogram range must not be empty");
+		}
+		this.nBins = nBins;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.thresholds = thresholds != null ? thresholds : new double[0];
+	}
+
+	/**
+	 * Creates a new reducer whose histogram range corresponds to the range of
+	 * values within the image. As flat morphological operations do not create
+	 * new values, this range contains the values of all steps.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param nBins
+	 *            the number of bins of the intensity histogram
+	 * @param thresholds
+	 *            the intensity thresholds, for counting the pixels with
+	 *            greater values
+	 * @return a new reducer
+	 */
+	public static final IntensityReducer forImage(ImageProcessor image, int nBins, double[] thresholds)
+	{
+		double vmin = Double.POSITIVE_INFINITY;
+		double vmax = Double.NEGATIVE_INFINITY;
+		int nPixels = image.getPixelCount();
+		for (int i = 0; i < nPixels; i++)
+		{
+			double value = image.getf(i);
+			vmin = Math.min(vmin, value);
+			vmax = Math.max(vmax, value);
+		}
+		if (!(vmax > vmin))
+		{
+			vmax = vmin + 1;
+		}
+
+		// for integer images, the last value must be within the last bin
+		if (!(image.getPixels() instanceof float[]))
+		{
+			vmax += 1;
+		}
+		return new IntensityReducer(nBins, vmin, vmax, thresholds);
+	}
+
+	@Override
+	public double reduce(int size, ImageProcessor image, ImageProcessor mask)
+	{
+		Object pixels = image.getPixels();
+		byte[] maskArray = null;
+		if (mask != null)
+		{
+			if (!(mask.getPixels() instanceof byte[]))
+			{
+				throw new IllegalArgumentException("Mask must be a binary 8-bit image");
+			}
+			maskArray = (byte[]) mask.getPixels();
+		}
+
+		double[] stepStats;
+		double[] histo = new double[nBins];
+		if (pixels instanceof byte[])
+		{
+			stepStats = reduceByte((byte[]) pixels, maskArray, histo);
+		}
+		else if (pixels instanceof short[])
+		{
+			stepStats = reduceShort((short[]) pixels, maskArray, histo);
+		}
+		else if (pixels instanceof float[])
+		{
+			stepStats = reduceFloat((float[]) pixels, maskArray, histo);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Color images must be converted to grayscale");
+		}
+
+		sizes.add(size);
+		stats.add(stepStats);
+		histograms.add(histo);
+		return stepStats[0];
+	}
+
+	private double[] reduceByte(byte[] pixels, byte[] mask, double[] histo)
+	{
+		if (rawCounts == null || rawCounts.length != 256)
+			rawCounts = new int[256];
+		int[] counts = rawCounts;
+		Arrays.fill(counts, 0);
+
+		if (mask == null)
+		{
+			for (int i = 0; i < pixels.length; i++)
+				counts[pixels[i] & 0xFF]++;
+		}
+		else
+		{
+			for (int i = 0; i < pixels.length; i++)
+			{
+				if (mask[i] != 0)
+					counts[pixels[i] & 0xFF]++;
+			}
+		}
+		return reduceCounts(counts, histo);
+	}
+
+	private double[] reduceShort(short[] pixels, byte[] mask, double[] histo)
+	{
+		if (rawCounts == null || rawCounts.length != 65536)
+			rawCounts = new int[65536];
+		int[] counts = rawCounts;
+		Arrays.fill(counts, 0);
+
+		if (mask == null)
+		{
+			for (int i = 0; i < pixels.length; i++)
+				counts[pixels[i] & 0xFFFF]++;
+		}
+		else
+		{
+			for (int i = 0; i < pixels.length; i++)
+			{
+				if (mask[i] != 0)
+					counts[pixels[i] & 0xFFFF]++;
+			}
+		}
+		return reduceCounts(counts, histo);
+	}
+
+	/**
+	 * Computes the statistics from the histogram of raw integer values.
+	 */
+	private double[] reduceCounts(int[] counts, double[] histo)
+	{
+		long count = 0;
+		long sum = 0;
+		double sumSq = 0;
+		int vmin = -1;
+		int vmax = -1;
+		double[] above = new double[thresholds.length];
+		for (int v = 0; v < counts.length; v++)
+		{
+			int c = counts[v];
+			if (c == 0)
+				continue;
+
+			if (vmin < 0)
+				vmin = v;
+			vmax = v;
+			count += c;
+			sum += (long) c * v;
+			sumSq += (double) c * v * v;
+			histo[binIndex(v)] += c;
+			for (int k = 0; k < thresholds.length; k++)
+			{
+				if (v > thresholds[k])
+					above[k] += c;
+			}
+		}
+
+		return createStats(count, sum, sumSq, vmin < 0 ? Double.NaN : vmin,
+				vmax < 0 ? Double.NaN : vmax, above);
+	}
+
+	private double[] reduceFloat(float[] pixels, byte[] mask, double[] histo)
+	{
+		long count = 0;
+		double sum = 0;
+		double sumSq = 0;
+		double vmin = Double.POSITIVE_INFINITY;
+		double vmax = Double.NEGATIVE_INFINITY;
+		double[] above = new double[thresholds.length];
+		for (int i = 0; i < pixels.length; i++)
+		{
+			if (mask != null && mask[i] == 0)
+				continue;
+
+			double v = pixels[i];
+			count++;
+			sum += v;
+			sumSq += v * v;
+			if (v < vmin)
+				vmin = v;
+			if (v > vmax)
+				vmax = v;
+			histo[binIndex(v)]++;
+			for (int k = 0; k < thresholds.length; k++)
+			{
+				if (v > thresholds[k])
+					above[k]++;
+			}
+		}
+
+		if (count == 0)
+		{
+			vmin = Double.NaN;
+			vmax = Double.NaN;
+		}
+		return createStats(count, sum, sumSq, vmin, vmax, above);
+	}
+
+	private int binIndex(double value)
+	{
+		int bin = (int) Math.floor((value - minValue) * nBins / (maxValue - minValue));
+		return Math.min(Math.max(bin, 0), nBins - 1);
+	}
+
+	private double[] createStats(long count, double sum, double sumSq,
+			double vmin, double vmax, double[] above)
+	{
+		double mean = sum / count;
+		double var = Math.max(sumSq / count - mean * mean, 0);
+		double[] res = new double[6 + above.length];
+		res[0] = sum;
+		res[1] = sumSq;
+		res[2] = vmin;
+		res[3] = vmax;
+		res[4] = mean;
+		res[5] = Math.sqrt(var);
+		System.arraycopy(above, 0, res, 6, above.length);
+		return res;
+	}
+
+	/**
+	 * @return the size of each processed step, 0 corresponding to the
+	 *         original image
+	 */
+	public int[] getSizes()
+	{
+		int[] res = new int[sizes.size()];
+		for (int i = 0; i < res.length; i++)
+		{
+			res[i] = sizes.get(i);
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the statistics of each processed step, with one row per step
+	 * labeled by the size, and the columns "Volume", "SumSq", "Min", "Max",
+	 * "Mean", "Std", followed by the number of pixels above each threshold.
+	 *
+	 * @return the statistics of each step
+	 */
+	public GranulometryResult getStatistics()
+	{
+		String[] names = new String[6 + thresholds.length];
+		names[0] = "Volume";
+		names[1] = "SumSq";
+		names[2] = "Min";
+		names[3] = "Max";
+		names[4] = "Mean";
+		names[5] = "Std";
+		for (int k = 0; k < thresholds.length; k++)
+		{
+			names[6 + k] = String.format(Locale.US, "Above_%g", thresholds[k]);
+		}
+
+		GranulometryResult result = new GranulometryResult(names, null);
+		for (int i = 0; i < stats.size(); i++)
+		{
+			result.addRow(Integer.toString(sizes.get(i)), stats.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the size-by-intensity matrix, with one row per step labeled by
+	 * the size, and one column per histogram bin named after the center of
+	 * the bin.
+	 *
+	 * @return the histogram of each step
+	 */
+	public GranulometryResult getHistograms()
+	{
+		String[] names = new String[nBins];
+		double binWidth = (maxValue - minValue) / nBins;
+		for (int b = 0; b < nBins; b++)
+		{
+			names[b] = String.format(Locale.US, "%.4g", minValue + (b + 0.5) * binWidth);
+		}
+
+		GranulometryResult result = new GranulometryResult(names, null);
+		for (int i = 0; i < histograms.size(); i++)
+		{
+			result.addRow(Integer.toString(sizes.get(i)), histograms.get(i));
+		}
+		return result;
+	}
+}
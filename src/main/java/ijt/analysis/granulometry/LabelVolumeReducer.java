@@ -0,0 +1,140 @@
+package ijt.analysis.granulometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Computes the volume of each region of a label image, within the scan used
+ * for computing the volume of the image obtained at each step of a
+ * granulometry.
+ *
+ * The index of the region containing each pixel is computed once, so that
+ * each step requires a single scan of the image whatever the number of
+ * regions. As the index is computed for the whole image, the reducer can not
+ * be used together with a mask.
+ *
+ * @see GrayscaleGranulometry#labelVolumeCurves(ImageProcessor,
+ *      ImageProcessor, int[], inra.ijpb.morphology.Morphology.Operation,
+ *      inra.ijpb.morphology.Strel.Shape, GrayscaleGranulometry.SizeType,
+ *      int[], GranulometryListener)
+ *
+ * @author David Legland
+ *
+ */
+public class LabelVolumeReducer implements StepReducer
+{
+	/**
+	 * The number of regions.
+	 */
+	int nLabels;
+
+	/**
+	 * The index of the region containing each pixel, or -1 for pixels
+	 * outside of the regions.
+	 */
+	int[] pixelIndices;
+
+	/**
+	 * The volume of each region, for each processed step.
+	 */
+	ArrayList<double[]> volumes = new ArrayList<double[]>();
+
+	/**
+	 * Creates a new reducer.
+	 *
+	 * @param labelImage
+	 *            the label image, with the same size as the images to scan
+	 * @param labels
+	 *            the list of labels to consider
+	 */
+	public LabelVolumeReducer(ImageProcessor labelImage, int[] labels)
+	{
+		this.nLabels = labels.length;
+
+		// compute the index of the region containing each pixel, or -1
+		int maxLabel = 0;
+		for (int label : labels)
+			maxLabel = Math.max(maxLabel, label);
+		int[] labelIndices = new int[maxLabel + 1];
+		Arrays.fill(labelIndices, -1);
+		for (int i = 0; i < nLabels; i++)
+			labelIndices[labels[i]] = i;
+
+		int width = labelImage.getWidth();
+		int height = labelImage.getHeight();
+		this.pixelIndices = new int[width * height];
+		for (int y = 0, i = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++, i++)
+			{
+				int label = (int) labelImage.getf(x, y);
+				pixelIndices[i] = label > 0 && label <= maxLabel ? labelIndices[label] : -1;
+			}
+		}
+	}
+
+	@Override
+	public double reduce(int size, ImageProcessor image, ImageProcessor mask)
+	{
+		if (mask != null)
+		{
+			throw new IllegalArgumentException("Volumes of regions can not be computed within a mask");
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (width * height != pixelIndices.length)
+		{
+			throw new IllegalArgumentException("Image and label image must have the same size");
+		}
+
+		double[] regionVolumes = new double[nLabels];
+		double volume = 0;
+		for (int y = 0, i = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++, i++)
+			{
+				double value = image.getf(x, y);
+				volume += value;
+				int index = pixelIndices[i];
+				if (index >= 0)
+				{
+					regionVolumes[index] += value;
+				}
+			}
+		}
+		volumes.add(regionVolumes);
+		return volume;
+	}
+
+	/**
+	 * @return the number of processed steps, including the original image
+	 */
+	public int getStepCount()
+	{
+		return volumes.size();
+	}
+
+	/**
+	 * Returns the volume curve of each region, in the same order as the
+	 * labels given at construction.
+	 *
+	 * @return an array containing the volume curve of each region, with one
+	 *         value for each processed step
+	 */
+	public double[][] getVolumes()
+	{
+		int nSteps = volumes.size();
+		double[][] res = new double[nLabels][nSteps];
+		for (int i = 0; i < nSteps; i++)
+		{
+			double[] stepVolumes = volumes.get(i);
+			for (int l = 0; l < nLabels; l++)
+			{
+				res[l][i] = stepVolumes[l];
+			}
+		}
+		return res;
+	}
+}
@@ -0,0 +1,323 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Computes local granulometries, corresponding to the granulometric curve
+ * computed within a square window around each pixel.
+ *
+ * The volume within each window is computed in constant time using the
+ * integral image of the result of each step, by a reducer that replaces the
+ * computation of the image volume. Steps are processed one after
+ * the other, keeping only the window volumes of the previous step, so that
+ * memory does not depend on the number of sizes (except for the stack of
+ * local variations, that contains one slice per size).
+ *
+ * @author David Legland
+ *
+ */
+public class LocalGranulometry
+{
+	/**
+	 * Computes the local mean size, the standard deviation of the size, and
+	 * the geometric mean size, as computed by the granuloStats() method, for
+	 * the window around each pixel.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the list of structuring element sizes, in pixels
+	 * @param windowRadius
+	 *            the radius of the square window around each pixel
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return a stack with three float slices: "mean", "std" and "geommean",
+	 *         in pixels. Pixels whose window volume does not vary contain NaN.
+	 * @see GrayscaleGranulometry#granuloStats(ij.measure.ResultsTable)
+	 */
+	public final static ImageStack localGranuloStats(ImageProcessor image,
+			Morphology.Operation op, Strel.Shape shape, SizeType sizeType,
+			int[] sizes, int windowRadius, GranulometryListener listener)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int nPixels = width * height;
+
+		// accumulate the moments of the window volume variations
+		StatsReducer reducer = new StatsReducer(width, height, windowRadius);
+		GrayscaleGranulometry.volumeCurve(image, null, op, shape, sizeType, sizes, reducer, listener);
+
+		// normalize by the total variation of each window
+		float[] means = new float[nPixels];
+		float[] stds = new float[nPixels];
+		float[] geommeans = new float[nPixels];
+		for (int i = 0; i < nPixels; i++)
+		{
+			double sum0 = reducer.sum0[i];
+			double mean = reducer.sum1[i] / sum0;
+			means[i] = (float) mean;
+			stds[i] = (float) Math.sqrt(Math.max(reducer.sum2[i] / sum0 - mean * mean, 0));
+			geommeans[i] = (float) Math.exp(reducer.sumLog[i] / sum0);
+		}
+
+		ImageStack result = new ImageStack(width, height);
+		result.addSlice("mean", new FloatProcessor(width, height, means));
+		result.addSlice("std", new FloatProcessor(width, height, stds));
+		result.addSlice("geommean", new FloatProcessor(width, height, geommeans));
+		return result;
+	}
+
+	/**
+	 * Computes the local granulometric curve around each pixel, as the
+	 * variation of the window volume between two consecutive sizes,
+	 * normalized by the total variation of the window volume.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the list of structuring element sizes, in pixels
+	 * @param windowRadius
+	 *            the radius of the square window around each pixel
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return a stack of float images with one slice for each size, containing
+	 *         the local variations in percents. If the computation was
+	 *         cancelled, the stack contains only the computed sizes.
+	 */
+	public final static ImageStack localGranulometry(ImageProcessor image,
+			Morphology.Operation op, Strel.Shape shape, SizeType sizeType,
+			int[] sizes, int windowRadius, GranulometryListener listener)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int nPixels = width * height;
+
+		// compute the window volume variations of each step
+		VariationsReducer reducer = new VariationsReducer(width, height, windowRadius);
+		GrayscaleGranulometry.volumeCurve(image, null, op, shape, sizeType, sizes, reducer, listener);
+		ImageStack result = reducer.variations;
+
+		// normalize variations by the total variation of each window
+		for (int z = 1; z <= result.getSize(); z++)
+		{
+			float[] diffs = (float[]) result.getPixels(z);
+			for (int i = 0; i < nPixels; i++)
+			{
+				diffs[i] = (float) (100 * diffs[i] / reducer.sum0[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the sum of values within a square window around each pixel,
+	 * using an integral image. Windows are clipped by the image bounds.
+	 */
+	private static class WindowSums
+	{
+		int width;
+		int height;
+		int radius;
+
+		/**
+		 * The integral image, with one more row and column than the image.
+		 */
+		double[] integral;
+
+		WindowSums(int width, int height, int radius)
+		{
+			this.width = width;
+			this.height = height;
+			this.radius = radius;
+			this.integral = new double[(width + 1) * (height + 1)];
+		}
+
+		/**
+		 * Computes the window sums of the image, and returns the sum of
+		 * all the values of the image.
+		 */
+		double compute(ImageProcessor image, double[] sums)
+		{
+			// compute integral image
+			int w1 = width + 1;
+			for (int y = 0; y < height; y++)
+			{
+				double rowSum = 0;
+				for (int x = 0; x < width; x++)
+				{
+					rowSum += image.getf(x, y);
+					integral[(y + 1) * w1 + x + 1] = integral[y * w1 + x + 1] + rowSum;
+				}
+			}
+
+			// sum within each window using the four corners
+			for (int y = 0; y < height; y++)
+			{
+				int y0 = Math.max(y - radius, 0);
+				int y1 = Math.min(y + radius + 1, height);
+				for (int x = 0; x < width; x++)
+				{
+					int x0 = Math.max(x - radius, 0);
+					int x1 = Math.min(x + radius + 1, width);
+					sums[y * width + x] = integral[y1 * w1 + x1] - integral[y0 * w1 + x1]
+							- integral[y1 * w1 + x0] + integral[y0 * w1 + x0];
+				}
+			}
+			return integral[height * w1 + width];
+		}
+	}
+
+	/**
+	 * Computes the window volumes of the image obtained at each step, and
+	 * passes the variation of each window volume with respect to the
+	 * previous step to the processStep() method. The volume of the image is
+	 * obtained from the integral image.
+	 */
+	private static abstract class WindowReducer implements StepReducer
+	{
+		WindowSums windowSums;
+
+		/**
+		 * The window volumes of the previous step.
+		 */
+		double[] previous;
+
+		/**
+		 * The window volumes of the current step.
+		 */
+		double[] current;
+
+		/**
+		 * The index of the next step, or -1 before the original image.
+		 */
+		int stepIndex = -1;
+
+		WindowReducer(int width, int height, int windowRadius)
+		{
+			this.windowSums = new WindowSums(width, height, windowRadius);
+			this.previous = new double[width * height];
+			this.current = new double[width * height];
+		}
+
+		@Override
+		public double reduce(int size, ImageProcessor image, ImageProcessor mask)
+		{
+			if (mask != null)
+			{
+				throw new IllegalArgumentException("Local granulometry can not be computed within a mask");
+			}
+			double volume = windowSums.compute(image, current);
+			if (stepIndex >= 0)
+			{
+				processStep(stepIndex, size, previous, current);
+			}
+			stepIndex++;
+
+			double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			return volume;
+		}
+
+		/**
+		 * Processes the window volumes of a step.
+		 *
+		 * @param index
+		 *            the index of the step, starting from 0
+		 * @param size
+		 *            the size of the structuring element of the step
+		 * @param previous
+		 *            the window volumes of the previous step
+		 * @param current
+		 *            the window volumes of the current step
+		 */
+		abstract void processStep(int index, int size, double[] previous, double[] current);
+	}
+
+	/**
+	 * Accumulates the moments of the window volume variations, weighted by
+	 * the size.
+	 */
+	private static class StatsReducer extends WindowReducer
+	{
+		double[] sum0;
+		double[] sum1;
+		double[] sum2;
+		double[] sumLog;
+
+		StatsReducer(int width, int height, int windowRadius)
+		{
+			super(width, height, windowRadius);
+			int nPixels = width * height;
+			this.sum0 = new double[nPixels];
+			this.sum1 = new double[nPixels];
+			this.sum2 = new double[nPixels];
+			this.sumLog = new double[nPixels];
+		}
+
+		@Override
+		void processStep(int index, int size, double[] previous, double[] current)
+		{
+			double logSize = Math.log(size);
+			for (int i = 0; i < current.length; i++)
+			{
+				double diff = current[i] - previous[i];
+				sum0[i] += diff;
+				sum1[i] += diff * size;
+				sum2[i] += diff * size * size;
+				sumLog[i] += diff * logSize;
+			}
+		}
+	}
+
+	/**
+	 * Keeps the window volume variations of each step as a slice of a
+	 * stack, together with the total variation of each window.
+	 */
+	private static class VariationsReducer extends WindowReducer
+	{
+		ImageStack variations;
+		double[] sum0;
+
+		VariationsReducer(int width, int height, int windowRadius)
+		{
+			super(width, height, windowRadius);
+			this.variations = new ImageStack(width, height);
+			this.sum0 = new double[width * height];
+		}
+
+		@Override
+		void processStep(int index, int size, double[] previous, double[] current)
+		{
+			float[] diffs = new float[current.length];
+			for (int i = 0; i < current.length; i++)
+			{
+				double diff = current[i] - previous[i];
+				diffs[i] = (float) diff;
+				sum0[i] += diff;
+			}
+			variations.addSlice(Integer.toString(size),
+					new FloatProcessor(variations.getWidth(), variations.getHeight(), diffs));
+		}
+	}
+}
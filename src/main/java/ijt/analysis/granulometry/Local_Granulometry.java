@@ -0,0 +1,95 @@
+package ijt.analysis.granulometry;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.measure.Calibration;
+import ij.plugin.PlugIn;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Plugin for computing local granulometries, within a square window around
+ * each pixel. The result is either a stack containing the mean size, the
+ * standard deviation of size and the geometric mean size, or a stack with one
+ * slice for each size, containing the local granulometric curve.
+ * 
+ * @author David Legland
+ *
+ */
+public class Local_Granulometry implements PlugIn
+{
+	/* (non-Javadoc)
+	 * @see ij.plugin.PlugIn#run(java.lang.String)
+	 */
+	public void run(String arg)
+	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
+		// Get current open image
+		ImagePlus imagePlus = WindowManager.getCurrentImage();
+		if (imagePlus == null) 
+		{
+			IJ.error("No image", "Need at least one image to work");
+			return;
+		}
+		
+		// create the dialog
+		GenericDialog gd = new GenericDialog("Local Granulometry");
+		gd.addChoice("Operation", Operation.getAllLabels(), 
+				Operation.CLOSING.toString());
+		gd.addChoice("Element", Strel.Shape.getAllLabels(), 
+				Strel.Shape.SQUARE.toString());
+		gd.addNumericField("Radius Max. (in pixels)", 10, 0);
+		gd.addNumericField("Step (in pixels)", 1, 0);
+		gd.addNumericField("Window Radius (in pixels)", 20, 0);
+		gd.addChoice("Result", new String[] {"Size Statistics", "Size Variations"}, 
+				"Size Statistics");
+		gd.addCheckbox("Convert to 8-bit", false);
+		
+		// Display dialog and wait for user input
+		gd.showDialog();
+		if (gd.wasCanceled())
+		{
+			return;
+		}
+		
+		// extract chosen parameters
+		Operation op 		= Operation.fromLabel(gd.getNextChoice());
+		Strel.Shape shape 	= Strel.Shape.fromLabel(gd.getNextChoice());
+		int radiusMax 		= (int) gd.getNextNumber();		
+		int step 			= (int) gd.getNextNumber();		
+		int windowRadius	= (int) gd.getNextNumber();
+		boolean variations	= gd.getNextChoiceIndex() == 1;
+		boolean convertToByte = gd.getNextBoolean();
+		
+		// convert to Gray 8 only if requested
+		ImageProcessor image = GrayscaleGranulometry.toGrayscale(imagePlus.getProcessor(), convertToByte);
+		
+		// Execute core of the plugin
+		int[] radiusList = GrayscaleGranulometry.createSizes(0, step, radiusMax / step);
+		GranulometryListener listener = new StatusBarListener("Radius");
+		long t0 = System.currentTimeMillis();
+		ImageStack result = variations
+				? LocalGranulometry.localGranulometry(image, op.getOperation(), shape, 
+						SizeType.RADIUS, radiusList, windowRadius, listener)
+				: LocalGranulometry.localGranuloStats(image, op.getOperation(), shape, 
+						SizeType.RADIUS, radiusList, windowRadius, listener);
+		long t1 = System.currentTimeMillis();
+		
+		// create result image, that keeps the spatial calibration of the input
+		String title = imagePlus.getShortTitle() + (variations ? "-localGranulo" : "-localGranuloStats");
+		ImagePlus resultPlus = new ImagePlus(title, result);
+		Calibration calib = imagePlus.getCalibration();
+		resultPlus.setCalibration(calib);
+		resultPlus.show();
+		
+		IJ.showStatus("Local granulometry: " + (t1 - t0) + " ms");
+	}
+}
@@ -0,0 +1,342 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads and writes granulometry results as binary files in the .npy format
+ * used by NumPy, together with a side index file containing the labels of
+ * the rows and the names and sizes of the columns.
+ *
+ * Values are stored as a two-dimensional array of little-endian doubles, in
+ * row-major order, with one row per image. The file can be read with Python
+ * by using <code>numpy.load(fileName, mmap_mode='r')</code>.
+ *
+ * The index file has the same name as the .npy file, with the ".index.txt"
+ * extension. It contains a line "columns" followed by the number of columns,
+ * then one line per column with the name and the size separated by a tab,
+ * and a line "rows" followed by the number of rows, then one line per row
+ * label.
+ *
+ * Both writing and reading use memory-mapped file channels. Large files are
+ * mapped by blocks of rows, as a single mapping is limited to 2 GB.
+ *
+ * @author David Legland
+ *
+ */
+public class NpyResultFile
+{
+	/**
+	 * The magic string at the beginning of .npy files.
+	 */
+	static final byte[] MAGIC = new byte[] {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+
+	/**
+	 * The alignment of the data block, as used by NumPy.
+	 */
+	static final int HEADER_ALIGNMENT = 64;
+
+	/**
+	 * The maximal size of a mapped block, in bytes.
+	 */
+	static final long MAX_BLOCK_SIZE = 1L << 30;
+
+	static final Pattern SHAPE_PATTERN = Pattern.compile("'shape':\\s*\\((\\d+),\\s*(\\d+)\\s*\\)");
+
+	/**
+	 * Writes the values of a result into a .npy file, and the labels and
+	 * sizes into the index file.
+	 *
+	 * @param result
+	 *            the result to write
+	 * @param file
+	 *            the .npy file to create
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public static final void write(GranulometryResult result, File file) throws IOException
+	{
+		int nRows = result.getRowCount();
+		int nCols = result.getColumnCount();
+		byte[] header = createHeader(nRows, nCols);
+
+		// remove previous content, as mapped files are not truncated
+		file.delete();
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE))
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, header.length);
+			buffer.put(header);
+			buffer.force();
+
+			// write data by blocks of rows
+			long rowBytes = 8L * nCols;
+			int blockRows = (int) Math.max(MAX_BLOCK_SIZE / Math.max(rowBytes, 1), 1);
+			for (int row0 = 0; row0 < nRows; row0 += blockRows)
+			{
+				int row1 = Math.min(row0 + blockRows, nRows);
+				long position = header.length + row0 * rowBytes;
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, (row1 - row0) * rowBytes);
+				DoubleBuffer values = buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+				for (int r = row0; r < row1; r++)
+				{
+					values.put(result.getRow(r));
+				}
+				buffer.force();
+			}
+		}
+
+		writeIndex(result, indexFile(file));
+	}
+
+	/**
+	 * Creates the header of the .npy file, padded with spaces such that data
+	 * start at a multiple of the alignment.
+	 */
+	private static final byte[] createHeader(int nRows, int nCols)
+	{
+		String dict = String.format(Locale.US,
+				"{'descr': '<f8', 'fortran_order': False, 'shape': (%d, %d), }", nRows, nCols);
+
+		// magic (6), version (2), header length (2), dict, and final newline
+		int prefix = MAGIC.length + 4;
+		int total = prefix + dict.length() + 1;
+		total = ((total + HEADER_ALIGNMENT - 1) / HEADER_ALIGNMENT) * HEADER_ALIGNMENT;
+		int dictLength = total - prefix;
+
+		StringBuilder sb = new StringBuilder(dict);
+		while (sb.length() < dictLength - 1)
+		{
+			sb.append(' ');
+		}
+		sb.append('\n');
+
+		byte[] header = new byte[total];
+		System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+		header[6] = 1;
+		header[7] = 0;
+		header[8] = (byte) (dictLength & 0xFF);
+		header[9] = (byte) ((dictLength >> 8) & 0xFF);
+		byte[] dictBytes = sb.toString().getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(dictBytes, 0, header, prefix, dictBytes.length);
+		return header;
+	}
+
+	private static final void writeIndex(GranulometryResult result, File file) throws IOException
+	{
+		String[] names = result.getColumnNames();
+		double[] sizes = result.getSizes();
+
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		try
+		{
+			writer.println("columns\t" + names.length);
+			for (int c = 0; c < names.length; c++)
+			{
+				double size = sizes != null ? sizes[c] : Double.NaN;
+				writer.println(names[c].trim() + "\t" + size);
+			}
+			writer.println("rows\t" + result.getRowCount());
+			for (int r = 0; r < result.getRowCount(); r++)
+			{
+				String label = result.getLabel(r);
+				writer.println(label != null ? label : "");
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Maps the values of a .npy file written by the write() method, without
+	 * copying them into memory. The file must be smaller than 2 GB.
+	 *
+	 * @param file
+	 *            the .npy file to read
+	 * @return a read-only buffer containing the values in row-major order
+	 * @throws IOException
+	 *             if the file could not be read, or has an unsupported format
+	 */
+	public static final DoubleBuffer mapValues(File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long[] shape = new long[2];
+			int offset = readHeader(channel, shape);
+			long size = 8L * shape[0] * shape[1];
+			if (offset + size > Integer.MAX_VALUE)
+			{
+				throw new IOException("File is too large to be mapped at once: " + file.getName());
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+			return buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		}
+	}
+
+	/**
+	 * Reads a result from a .npy file and its index file.
+	 *
+	 * @param file
+	 *            the .npy file to read
+	 * @return the result containing the values, labels and sizes
+	 * @throws IOException
+	 *             if the files could not be read, or have an unsupported
+	 *             format
+	 */
+	public static final GranulometryResult read(File file) throws IOException
+	{
+		// read column names, sizes and labels
+		String[] names;
+		double[] sizes;
+		String[] labels;
+		BufferedReader reader = new BufferedReader(new FileReader(indexFile(file)));
+		try
+		{
+			int nCols = parseCount(reader.readLine(), "columns");
+			names = new String[nCols];
+			sizes = new double[nCols];
+			for (int c = 0; c < nCols; c++)
+			{
+				String[] tokens = reader.readLine().split("\t");
+				names[c] = tokens[0];
+				sizes[c] = Double.parseDouble(tokens[1]);
+			}
+			int nRows = parseCount(reader.readLine(), "rows");
+			labels = new String[nRows];
+			for (int r = 0; r < nRows; r++)
+			{
+				labels[r] = reader.readLine();
+			}
+		}
+		catch (RuntimeException ex)
+		{
+			throw new IOException("Could not parse index file of " + file.getName(), ex);
+		}
+		finally
+		{
+			reader.close();
+		}
+		if (sizes.length > 0 && Double.isNaN(sizes[0]))
+		{
+			sizes = null;
+		}
+
+		GranulometryResult result = new GranulometryResult(names, sizes);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long[] shape = new long[2];
+			int offset = readHeader(channel, shape);
+			if (shape[0] != labels.length || shape[1] != names.length)
+			{
+				throw new IOException("Array shape does not match index file: " + file.getName());
+			}
+			int nRows = (int) shape[0];
+			int nCols = (int) shape[1];
+
+			// read data by blocks of rows
+			long rowBytes = 8L * nCols;
+			int blockRows = (int) Math.max(MAX_BLOCK_SIZE / Math.max(rowBytes, 1), 1);
+			for (int row0 = 0; row0 < nRows; row0 += blockRows)
+			{
+				int row1 = Math.min(row0 + blockRows, nRows);
+				long position = offset + row0 * rowBytes;
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+						position, (row1 - row0) * rowBytes);
+				DoubleBuffer values = buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+				for (int r = row0; r < row1; r++)
+				{
+					double[] row = new double[nCols];
+					values.get(row);
+					result.addRow(labels[r], row);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the header of a .npy file, and returns the offset of the data.
+	 */
+	private static final int readHeader(FileChannel channel, long[] shape) throws IOException
+	{
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				Math.min(channel.size(), 10));
+		for (int i = 0; i < MAGIC.length; i++)
+		{
+			if (buffer.get(i) != MAGIC[i])
+			{
+				throw new IOException("Not a .npy file");
+			}
+		}
+		if (buffer.get(6) != 1)
+		{
+			throw new IOException("Unsupported .npy version: " + buffer.get(6));
+		}
+		int dictLength = (buffer.get(8) & 0xFF) | ((buffer.get(9) & 0xFF) << 8);
+
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 10, dictLength);
+		byte[] dictBytes = new byte[dictLength];
+		buffer.get(dictBytes);
+		String dict = new String(dictBytes, StandardCharsets.US_ASCII);
+
+		if (!dict.contains("'descr': '<f8'") || !dict.contains("'fortran_order': False"))
+		{
+			throw new IOException("Only C-ordered arrays of little-endian doubles are supported");
+		}
+		Matcher matcher = SHAPE_PATTERN.matcher(dict);
+		if (!matcher.find())
+		{
+			throw new IOException("Only two-dimensional arrays are supported");
+		}
+		shape[0] = Long.parseLong(matcher.group(1));
+		shape[1] = Long.parseLong(matcher.group(2));
+		return 10 + dictLength;
+	}
+
+	private static final int parseCount(String line, String key)
+	{
+		String[] tokens = line.split("\t");
+		if (!tokens[0].equals(key))
+		{
+			throw new IllegalArgumentException("Expected line starting with " + key);
+		}
+		return Integer.parseInt(tokens[1]);
+	}
+
+	/**
+	 * Returns the index file associated to a .npy file.
+	 *
+	 * @param file
+	 *            the .npy file
+	 * @return the file containing the labels and the sizes
+	 */
+	public static final File indexFile(File file)
+	{
+		String name = file.getName();
+		if (name.endsWith(".npy"))
+		{
+			name = name.substring(0, name.length() - 4);
+		}
+		return new File(file.getParentFile(), name + ".index.txt");
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import ijt.analysis.granulometry.engine.GranulometryEngine;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Computes granulometric curves using a multiresolution pyramid for large
+ * sizes of structuring elements.
+ *
+ * Sizes smaller than the switchover size are computed on the original image.
+ * Larger sizes are computed on an image downsampled by a power of two factor
+ * f, chosen such that the scaled size s/f is between half the switchover size
+ * and the switchover size. Downsampled images are obtained by averaging
+ * blocks of 2-by-2 pixels, and volumes are multiplied by the ratio of pixel
+ * numbers.
+ *
+ * Error bound: the scaled size is rounded to the nearest integer, resulting
+ * in an error on the effective size of at most f/2 pixels in the original
+ * image. As s/f is at least half the switchover size, the relative error on
+ * the size is bounded by 1/switchSize for all the levels of the pyramid
+ * (about 3% for the default switchover size of 32). Averaging also smoothes
+ * the details smaller than f pixels; the resulting error on volumes depends
+ * on the image and can be measured with the estimateError() method.
+ *
+ * @author David Legland
+ *
+ */
+public class PyramidGranulometry
+{
+	/**
+	 * The default size above which the downsampled images are used.
+	 */
+	public static final int DEFAULT_SWITCH_SIZE = 32;
+
+	/**
+	 * Computes the volume curve of an image, using downsampled images for the
+	 * sizes greater than the switchover size.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the list of structuring element sizes, in pixels
+	 * @param switchSize
+	 *            the size above which downsampled images are used
+	 * @param listener
+	 *            the listener notified of each step, or null. Events give the
+	 *            original size; for downsampled steps, the result image
+	 *            corresponds to the downsampled image.
+	 * @return an array of volumes, the first one corresponding to the
+	 *         original image, the following ones to each size. If the
+	 *         computation was cancelled, the array contains only the volumes
+	 *         computed so far.
+	 */
+	public final static double[] volumeCurve(ImageProcessor image,
+			Morphology.Operation op, Strel.Shape shape, SizeType sizeType,
+			int[] sizes, int switchSize, GranulometryListener listener)
+	{
+		if (switchSize < 1)
+		{
+			throw new IllegalArgumentException("Switchover size must be positive");
+		}
+
+		int nSteps = sizes.length;
+		double[] volumes = new double[nSteps + 1];
+		volumes[0] = GrayscaleGranulometry.imageVolume(image);
+
+		// the levels of the pyramid, computed when needed
+		ArrayList<ImageProcessor> levels = new ArrayList<ImageProcessor>();
+		levels.add(image);
+
+		long t0 = System.nanoTime();
+
+		// scale the sizes, and select the engines before the steps, as
+		// selection may require calibration. Downsampled levels are stored as
+		// 32-bit images.
+		int[] levelIndices = new int[nSteps];
+		int[] levelSizes = new int[nSteps];
+		GranulometryEngine[] engines = new GranulometryEngine[nSteps];
+		EngineSelector selector = EngineSelector.getDefault();
+		for (int i = 0; i < nSteps; i++)
+		{
+			int level = levelIndex(sizes[i], switchSize);
+			levelIndices[i] = level;
+			levelSizes[i] = scaleSize(sizes[i], 1 << level, sizeType);
+			int bitDepth = level == 0 ? image.getBitDepth() : 32;
+			engines[i] = selector.select(bitDepth, op, shape, sizeType, levelSizes[i]);
+		}
+
+		for (int i = 0; i < nSteps; i++)
+		{
+			if (listener != null)
+			{
+				if (listener.isCancelRequested())
+				{
+					return Arrays.copyOf(volumes, i + 1);
+				}
+				listener.stepStarted(new GranulometryEvent(i, nSteps, sizes[i]));
+			}
+
+			// compute the image corresponding to the level
+			long t1 = System.nanoTime();
+			int level = levelIndices[i];
+			while (levels.size() <= level)
+			{
+				levels.add(downsample(levels.get(levels.size() - 1)));
+			}
+			ImageProcessor levelImage = levels.get(level);
+			double scale = ((double) image.getWidth() * image.getHeight())
+					/ ((double) levelImage.getWidth() * levelImage.getHeight());
+
+			long t2 = System.nanoTime();
+			ImageProcessor result = engines[i].apply(levelImage, op, shape, sizeType, levelSizes[i]);
+
+			long t3 = System.nanoTime();
+			volumes[i + 1] = GrayscaleGranulometry.imageVolume(result) * scale;
+
+			long t4 = System.nanoTime();
+			if (listener != null)
+			{
+				GranulometryEvent evt = new GranulometryEvent(i, nSteps,
+						sizes[i], t2 - t1, t3 - t2, t4 - t3, t4 - t0);
+				evt.resultImage = result;
+				listener.stepFinished(evt);
+			}
+		}
+
+		return volumes;
+	}
+
+	/**
+	 * Measures the error of the pyramid computation for a given size, by
+	 * comparing with the computation on the original image. The error is
+	 * normalized by the variation between the original volume and the volume
+	 * at the given size.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether sizes correspond to radius or diameter
+	 * @param size
+	 *            the size of structuring element used for the comparison
+	 * @param switchSize
+	 *            the size above which downsampled images are used
+	 * @return the relative error on the volume variation
+	 */
+	public final static double estimateError(ImageProcessor image,
+			Morphology.Operation op, Strel.Shape shape, SizeType sizeType,
+			int size, int switchSize)
+	{
+		int[] sizes = new int[] {size};
+		double[] exact = GrayscaleGranulometry.volumeCurve(image, op, shape,
+				sizeType, sizes, null);
+		double[] approx = volumeCurve(image, op, shape, sizeType, sizes,
+				switchSize, null);
+		return Math.abs(approx[1] - exact[1]) / Math.abs(exact[1] - exact[0]);
+	}
+
+	/**
+	 * Returns the index of the pyramid level used for a given size, such
+	 * that the size divided by the downsampling factor is smaller than the
+	 * switchover size.
+	 */
+	private final static int levelIndex(int size, int switchSize)
+	{
+		int level = 0;
+		while (size >= (switchSize << level))
+		{
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Scales a strel size by a downsampling factor, such that the extent of
+	 * the scaled strel multiplied by the factor is as close as possible to the
+	 * original extent. The extent of a strel with radius r being 2r+1, using
+	 * r/f would result in a bias of (f-1)/2 pixels.
+	 */
+	private final static int scaleSize(int size, int factor, SizeType sizeType)
+	{
+		if (sizeType == SizeType.DIAMETER)
+		{
+			return Math.max((int) Math.round((double) size / factor), 1);
+		}
+		
+		double extent = (2.0 * size + 1) / factor;
+		return Math.max((int) Math.round((extent - 1) / 2), 0);
+	}
+
+	/**
+	 * Downsamples an image by a factor two, by averaging the values of each
+	 * block of 2-by-2 pixels. Blocks on the last row or column may contain
+	 * less pixels.
+	 */
+	private final static ImageProcessor downsample(ImageProcessor image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int width2 = (width + 1) / 2;
+		int height2 = (height + 1) / 2;
+
+		FloatProcessor result = new FloatProcessor(width2, height2);
+		for (int y2 = 0; y2 < height2; y2++)
+		{
+			for (int x2 = 0; x2 < width2; x2++)
+			{
+				double sum = 0;
+				int count = 0;
+				for (int y = 2 * y2; y < Math.min(2 * y2 + 2, height); y++)
+				{
+					for (int x = 2 * x2; x < Math.min(2 * x2 + 2, width); x++)
+					{
+						sum += image.getf(x, y);
+						count++;
+					}
+				}
+				result.setf(x2, y2, (float) (sum / count));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,405 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter.Enhancement;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Splits the computation of batch granulometry into shards, that can be
+ * computed by independent processes sharing a file system, and merges the
+ * partial results.
+ *
+ * The list of images is given by a manifest file, containing one image path
+ * per line. Shard i of n processes the images whose index within the
+ * manifest modulo n equals i, and appends one row per image to its partial
+ * volume and granulometry files. As rows are flushed after each image, an
+ * interrupted shard can be restarted, and only processes the missing images.
+ *
+ * The merge step reads the partial volume files of all shards, checks that
+ * each image of the manifest was processed exactly once, and writes the
+ * final volume, granulometry and statistics files in the order of the
+ * manifest.
+ *
+ * @author David Legland
+ *
+ */
+public class ShardedBatch
+{
+	/**
+	 * Writes a manifest file containing the path of each image.
+	 *
+	 * @param files
+	 *            the list of image files
+	 * @param manifestFile
+	 *            the manifest file to create
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public static final void writeManifest(File[] files, File manifestFile) throws IOException
+	{
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(manifestFile)));
+		try
+		{
+			for (File file : files)
+			{
+				writer.println(file.getAbsolutePath());
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Creates the manifest of the images within a directory, sorted by name.
+	 *
+	 * @param directory
+	 *            the directory containing the images
+	 * @param extension
+	 *            the extension of the image files, including the dot
+	 * @param manifestFile
+	 *            the manifest file to create
+	 * @return the number of images within the manifest
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public static final int createManifest(File directory, final String extension,
+			File manifestFile) throws IOException
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+		{
+			throw new IOException("Could not list directory: " + directory);
+		}
+		ArrayList<File> images = new ArrayList<File>();
+		for (File file : files)
+		{
+			if (file.isFile() && file.getName().endsWith(extension))
+				images.add(file);
+		}
+		File[] array = images.toArray(new File[images.size()]);
+		Arrays.sort(array);
+		writeManifest(array, manifestFile);
+		return array.length;
+	}
+
+	/**
+	 * Reads the list of image files within a manifest. Empty lines are
+	 * ignored.
+	 *
+	 * @param manifestFile
+	 *            the manifest file
+	 * @return the list of image files, in the order of the manifest
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public static final File[] readManifest(File manifestFile) throws IOException
+	{
+		ArrayList<File> files = new ArrayList<File>();
+		BufferedReader reader = new BufferedReader(new FileReader(manifestFile));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				line = line.trim();
+				if (!line.isEmpty())
+					files.add(new File(line));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return files.toArray(new File[files.size()]);
+	}
+
+	/**
+	 * Returns the files of a manifest processed by a given shard.
+	 *
+	 * @param files
+	 *            the list of files of the manifest
+	 * @param shardIndex
+	 *            the index of the shard, between 0 and nShards-1
+	 * @param nShards
+	 *            the number of shards
+	 * @return the files whose index modulo nShards equals shardIndex
+	 */
+	public static final File[] selectShard(File[] files, int shardIndex, int nShards)
+	{
+		if (nShards < 1 || shardIndex < 0 || shardIndex >= nShards)
+		{
+			throw new IllegalArgumentException("Shard index must be between 0 and " + (nShards - 1));
+		}
+		ArrayList<File> shard = new ArrayList<File>();
+		for (int i = shardIndex; i < files.length; i += nShards)
+		{
+			shard.add(files[i]);
+		}
+		return shard.toArray(new File[shard.size()]);
+	}
+
+	/**
+	 * Returns the base path of the partial files of a shard.
+	 *
+	 * @param basePath
+	 *            the base path of the final result files
+	 * @param shardIndex
+	 *            the index of the shard
+	 * @param nShards
+	 *            the number of shards
+	 * @return the base path of the partial files
+	 */
+	public static final String shardBasePath(String basePath, int shardIndex, int nShards)
+	{
+		return String.format(Locale.ENGLISH, "%s.shard%d-of-%d", basePath, shardIndex, nShards);
+	}
+
+	/**
+	 * Computes the granulometric curves of the images of a shard, and appends
+	 * them to the partial volume and granulometry files. The images already
+	 * present in the partial volume file are not processed again.
+	 *
+	 * @param manifestFile
+	 *            the manifest file
+	 * @param basePath
+	 *            the base path of the final result files
+	 * @param shardIndex
+	 *            the index of the shard, between 0 and nShards-1
+	 * @param nShards
+	 *            the number of shards
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param diamMax
+	 *            the maximal diameter of the structuring element
+	 * @param step
+	 *            the increment between two consecutive diameters
+	 * @param enhancement
+	 *            the contrast enhancement applied to each image
+	 * @param convertToByte
+	 *            if true, 16-bit and 32-bit images are converted to 8-bit
+	 * @param resol
+	 *            the size of a pixel in user units
+	 * @param unitName
+	 *            the name of the unit
+	 * @param listener
+	 *            the listener notified of each step, or null
+	 * @return the number of images processed by this call
+	 * @throws IOException
+	 *             if the manifest could not be read, if existing partial
+	 *             files were computed with other sizes, or if the partial
+	 *             files could not be written
+	 */
+	public static final int computeShard(File manifestFile, String basePath,
+			int shardIndex, int nShards, Operation op, Strel.Shape shape,
+			int diamMax, int step, Enhancement enhancement, boolean convertToByte,
+			double resol, String unitName, GranulometryListener listener)
+			throws IOException
+	{
+		File[] files = selectShard(readManifest(manifestFile), shardIndex, nShards);
+		String shardPath = shardBasePath(basePath, shardIndex, nShards);
+
+		// prepare the headers of the partial files
+		int nSteps = (diamMax - 1) / step;
+		double[] sizes = new double[nSteps + 1];
+		for (int i = 0; i <= nSteps; i++)
+		{
+			sizes[i] = (i * step + 1) * resol;
+		}
+		String[] names = Batch_Granulometry_By_Diameter.createColumnNames(nSteps, step, resol, unitName);
+		GranulometryResult volumes = new GranulometryResult(names, sizes);
+		GranulometryResult granulo = GrayscaleGranulometry.derivate(volumes);
+
+		// partial files of a previous run must have been computed with the
+		// same sizes
+		File volumeFile = new File(shardPath + ".vols.txt");
+		File granuloFile = new File(shardPath + ".gr.txt");
+		volumes.checkHeader(volumeFile);
+		granulo.checkHeader(granuloFile);
+
+		// the images processed by a previous run of the shard
+		Set<String> done = new HashSet<String>();
+		if (volumeFile.exists() && volumeFile.length() > 0)
+		{
+			GranulometryResult previous = GranulometryResult.readText(volumeFile);
+			for (int r = 0; r < previous.getRowCount(); r++)
+				done.add(previous.getLabel(r));
+		}
+
+		PrintWriter volumeWriter = openWriter(volumeFile, volumes);
+		PrintWriter granuloWriter = openWriter(granuloFile, granulo);
+		int count = 0;
+		try
+		{
+			for (File file : files)
+			{
+				String fileName = file.getName();
+				if (done.contains(fileName))
+					continue;
+
+				ImagePlus imp = IJ.openImage(file.getAbsolutePath());
+				if (imp == null)
+				{
+					throw new IOException("Could not open image file: " + file.getAbsolutePath());
+				}
+				ImageProcessor image = Batch_Granulometry_By_Diameter.prepareImage(
+						imp.getProcessor(), enhancement, convertToByte);
+				double[] curve = Batch_Granulometry_By_Diameter.computeVolumeCurve(image,
+						op, shape, diamMax, step, listener);
+				if (curve.length < sizes.length)
+				{
+					// interrupted by the user
+					break;
+				}
+
+				GranulometryResult.writeRow(volumeWriter, fileName, curve);
+				GranulometryResult.writeRow(granuloWriter, fileName, GrayscaleGranulometry.derivate(curve));
+				volumeWriter.flush();
+				granuloWriter.flush();
+				count++;
+			}
+		}
+		finally
+		{
+			volumeWriter.close();
+			granuloWriter.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Opens a partial file in append mode, and writes the header if the file
+	 * is empty.
+	 */
+	private static final PrintWriter openWriter(File file, GranulometryResult header) throws IOException
+	{
+		boolean isNew = !file.exists() || file.length() == 0;
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+		if (isNew)
+		{
+			header.writeHeader(writer);
+			writer.flush();
+		}
+		return writer;
+	}
+
+	/**
+	 * Merges the partial volume files of all the shards, and computes the
+	 * granulometric curves and their statistics.
+	 *
+	 * @param manifestFile
+	 *            the manifest file
+	 * @param basePath
+	 *            the base path of the final result files
+	 * @param nShards
+	 *            the number of shards
+	 * @return an array containing the volumes, the granulometric curves and
+	 *         the statistics, with rows in the order of the manifest
+	 * @throws IOException
+	 *             if a partial file could not be read, or if some images were
+	 *             not processed or were processed several times
+	 */
+	public static final GranulometryResult[] merge(File manifestFile, String basePath,
+			int nShards) throws IOException
+	{
+		if (nShards < 1)
+		{
+			throw new IllegalArgumentException("Number of shards must be positive");
+		}
+		File[] files = readManifest(manifestFile);
+		Map<String, Integer> indices = new HashMap<String, Integer>(files.length * 2);
+		for (int i = 0; i < files.length; i++)
+		{
+			if (indices.put(files[i].getName(), i) != null)
+			{
+				throw new IOException("Manifest contains several files named " + files[i].getName());
+			}
+		}
+
+		// collect the rows of each partial file
+		double[][] rows = new double[files.length][];
+		GranulometryResult first = null;
+		for (int s = 0; s < nShards; s++)
+		{
+			File partFile = new File(shardBasePath(basePath, s, nShards) + ".vols.txt");
+			if (!partFile.exists())
+			{
+				throw new IOException("Missing partial file: " + partFile.getName());
+			}
+			GranulometryResult part = GranulometryResult.readText(partFile);
+			if (first == null)
+			{
+				first = part;
+			}
+			else if (!Arrays.equals(first.getColumnNames(), part.getColumnNames()))
+			{
+				throw new IOException("Partial files were computed with different sizes: " + partFile.getName());
+			}
+
+			for (int r = 0; r < part.getRowCount(); r++)
+			{
+				String label = part.getLabel(r);
+				Integer index = indices.get(label);
+				if (index == null)
+				{
+					throw new IOException("Image " + label + " of " + partFile.getName() + " is not in the manifest");
+				}
+				if (rows[index] != null)
+				{
+					throw new IOException("Image " + label + " was processed several times");
+				}
+				rows[index] = part.getRow(r);
+			}
+		}
+
+		// check completeness
+		int nMissing = 0;
+		String firstMissing = null;
+		for (int i = 0; i < files.length; i++)
+		{
+			if (rows[i] == null)
+			{
+				if (firstMissing == null)
+					firstMissing = files[i].getName();
+				nMissing++;
+			}
+		}
+		if (nMissing > 0)
+		{
+			throw new IOException(nMissing + " images were not processed, including " + firstMissing);
+		}
+
+		GranulometryResult volumes = new GranulometryResult(first.getColumnNames(), first.getSizes());
+		for (int i = 0; i < files.length; i++)
+		{
+			volumes.addRow(files[i].getName(), rows[i]);
+		}
+		GranulometryResult granulo = GrayscaleGranulometry.derivate(volumes);
+		GranulometryResult stats = GrayscaleGranulometry.granuloStats(granulo);
+		return new GranulometryResult[] {volumes, granulo, stats};
+	}
+}
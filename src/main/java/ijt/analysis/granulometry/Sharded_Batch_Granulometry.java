@@ -0,0 +1,162 @@
+package ijt.analysis.granulometry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+import ij.IJ;
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter.Enhancement;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Plugin for running batch granulometry as several shards, computed by
+ * independent ImageJ instances sharing a file system, for example in
+ * headless mode on several nodes. Three commands are available: creation of
+ * the manifest listing the images, computation of a shard, and merge of the
+ * partial results.
+ *
+ * @see ShardedBatch
+ *
+ * @author David Legland
+ *
+ */
+public class Sharded_Batch_Granulometry implements PlugIn
+{
+	static final String CREATE_MANIFEST = "Create Manifest";
+	static final String COMPUTE_SHARD = "Compute Shard";
+	static final String MERGE_SHARDS = "Merge Shards";
+
+	/* (non-Javadoc)
+	 * @see ij.plugin.PlugIn#run(java.lang.String)
+	 */
+	public void run(String arg)
+	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
+		GenericDialog gd = new GenericDialog("Sharded Batch Granulometry");
+		gd.addChoice("Command", new String[] {CREATE_MANIFEST, COMPUTE_SHARD, MERGE_SHARDS},
+				COMPUTE_SHARD);
+		gd.addStringField("Manifest_File", "", 40);
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+
+		String command = gd.getNextChoice();
+		File manifestFile = new File(gd.getNextString());
+
+		try
+		{
+			if (command.equals(CREATE_MANIFEST))
+				createManifest(manifestFile);
+			else if (command.equals(COMPUTE_SHARD))
+				computeShard(manifestFile);
+			else
+				mergeShards(manifestFile);
+		}
+		catch (IOException ex)
+		{
+			IJ.error("Sharded Batch Granulometry", ex.getMessage());
+		}
+	}
+
+	private void createManifest(File manifestFile) throws IOException
+	{
+		GenericDialog gd = new GenericDialog("Create Manifest");
+		gd.addStringField("Image_Directory", "", 40);
+		gd.addStringField("File_Extension", ".tif");
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+
+		File directory = new File(gd.getNextString());
+		String extension = gd.getNextString();
+		int n = ShardedBatch.createManifest(directory, extension, manifestFile);
+		IJ.log("Manifest " + manifestFile.getName() + " created with " + n + " images");
+	}
+
+	private void computeShard(File manifestFile) throws IOException
+	{
+		GenericDialog gd = new GenericDialog("Compute Shard");
+		gd.addStringField("Result_Base_Path", "", 40);
+		gd.addNumericField("Shard_Index (from 0)", 0, 0);
+		gd.addNumericField("Number_of_Shards", 4, 0);
+		gd.addChoice("Operation", Operation.getAllLabels(),
+				Operation.CLOSING.toString());
+		gd.addChoice("Element", Strel.Shape.getAllLabels(),
+				Strel.Shape.SQUARE.toString());
+		gd.addNumericField("Diameter Max. (in pixels)", 51, 0);
+		gd.addNumericField("Step (in pixels)", 1, 0);
+		gd.addChoice("Contrast_Adjustment", Enhancement.getAllLabels(),
+				Enhancement.NONE.toString());
+		gd.addCheckbox("Convert to 8-bit", false);
+		gd.addNumericField("Spatial_Calibration", 1, 2);
+		gd.addStringField("Calibration_Unit", "pixel");
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+
+		String basePath = gd.getNextString();
+		int shardIndex = (int) gd.getNextNumber();
+		int nShards = (int) gd.getNextNumber();
+		Operation op = Operation.fromLabel(gd.getNextChoice());
+		Strel.Shape shape = Strel.Shape.fromLabel(gd.getNextChoice());
+		int diamMax = (int) gd.getNextNumber();
+		int step 	= (int) gd.getNextNumber();
+		Enhancement enhancement = Enhancement.fromLabel(gd.getNextChoice());
+		boolean convertToByte = gd.getNextBoolean();
+		double resol = gd.getNextNumber();
+		String unitName = gd.getNextString();
+		if (Double.isNaN(resol))
+		{
+			IJ.error("Parsing Error", "Could not interpret the resolution input");
+			return;
+		}
+
+		long t0 = System.nanoTime();
+		int count = ShardedBatch.computeShard(manifestFile, basePath, shardIndex,
+				nShards, op, shape, diamMax, step, enhancement, convertToByte,
+				resol, unitName, new StatusBarListener("Diameter"));
+		IJ.log(String.format(Locale.ENGLISH, "Shard %d of %d: %d images processed in %.1f s",
+				shardIndex, nShards, count, (System.nanoTime() - t0) / 1e9));
+	}
+
+	private void mergeShards(File manifestFile) throws IOException
+	{
+		GenericDialog gd = new GenericDialog("Merge Shards");
+		gd.addStringField("Result_Base_Path", "", 40);
+		gd.addNumericField("Number_of_Shards", 4, 0);
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+
+		String basePath = gd.getNextString();
+		int nShards = (int) gd.getNextNumber();
+
+		GranulometryResult[] results = ShardedBatch.merge(manifestFile, basePath, nShards);
+		saveResult(basePath + ".vols.txt", results[0]);
+		saveResult(basePath + ".gr.txt", results[1]);
+		saveResult(basePath + ".stats.txt", results[2]);
+		IJ.log("Merged " + results[0].getRowCount() + " images from " + nShards + " shards");
+	}
+
+	private static final void saveResult(String fileName, GranulometryResult result) throws IOException
+	{
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+		try
+		{
+			result.write(writer);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+}
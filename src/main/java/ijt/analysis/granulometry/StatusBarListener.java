@@ -0,0 +1,77 @@
+package ijt.analysis.granulometry;
+
+import java.util.Locale;
+
+import ij.IJ;
+
+/**
+ * Displays the progression of granulometry computation in the status bar and
+ * in the progress bar of ImageJ. The computation is interrupted when the user
+ * presses the escape key.
+ * 
+ * @author David Legland
+ *
+ */
+public class StatusBarListener implements GranulometryListener
+{
+	String sizeName;
+	double resol;
+	String unitName;
+	
+	/**
+	 * Creates a new listener that displays size in pixels.
+	 * 
+	 * @param sizeName
+	 *            the name of the size displayed in the status bar (e.g.
+	 *            "Radius" or "Diameter")
+	 */
+	public StatusBarListener(String sizeName)
+	{
+		this(sizeName, 1.0, "");
+	}
+	
+	/**
+	 * Creates a new listener that displays size in calibrated units.
+	 * 
+	 * @param sizeName
+	 *            the name of the size displayed in the status bar (e.g.
+	 *            "Radius" or "Diameter")
+	 * @param resol
+	 *            the size of a pixel in user units
+	 * @param unitName
+	 *            the name of the unit, that can be empty
+	 */
+	public StatusBarListener(String sizeName, double resol, String unitName)
+	{
+		this.sizeName = sizeName;
+		this.resol = resol;
+		this.unitName = unitName;
+		
+		// avoid interruption due to a former key press
+		IJ.resetEscape();
+	}
+
+	@Override
+	public void stepStarted(GranulometryEvent evt)
+	{
+		String sizeString = String.format(Locale.ENGLISH, "%7.2f", evt.getSize() * resol);
+		if (unitName != null && !unitName.isEmpty()) 
+		{
+			sizeString = sizeString.concat(" " + unitName);
+		}
+		IJ.showStatus(sizeName + ": " + sizeString + " (" + evt.getStepIndex() + "/" + evt.getStepCount() + ")");
+		IJ.showProgress(evt.getStepIndex(), evt.getStepCount());
+	}
+
+	@Override
+	public void stepFinished(GranulometryEvent evt)
+	{
+		IJ.showProgress(evt.getStepIndex() + 1, evt.getStepCount());
+	}
+
+	@Override
+	public boolean isCancelRequested()
+	{
+		return IJ.escapePressed();
+	}
+}
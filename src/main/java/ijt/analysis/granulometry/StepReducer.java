@@ -0,0 +1,35 @@
+package ijt.analysis.granulometry;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Scans the image obtained at each step of a granulometry, in place of the
+ * computation of the volume. Implementations can gather additional
+ * statistics within the same pass over the pixels.
+ *
+ * Reducers usually keep the statistics of each step, and should not be
+ * shared by several concurrent computations.
+ *
+ * @see IntensityReducer
+ *
+ * @author David Legland
+ *
+ */
+public interface StepReducer
+{
+	/**
+	 * Scans the image obtained for a given size of structuring element.
+	 *
+	 * @param size
+	 *            the size of the structuring element, or 0 for the original
+	 *            image
+	 * @param image
+	 *            the image to scan
+	 * @param mask
+	 *            a binary image with the same size as the image, or null to
+	 *            scan all the pixels
+	 * @return the volume of the image, as the sum of the values of the
+	 *         pixels within the mask
+	 */
+	public double reduce(int size, ImageProcessor image, ImageProcessor mask);
+}
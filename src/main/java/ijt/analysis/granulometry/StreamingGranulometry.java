@@ -0,0 +1,559 @@
+/**
+ *
+ */
+package ijt.analysis.granulometry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter.Enhancement;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.monitor.GranulometryMonitor;
+import ijt.analysis.granulometry.monitor.MetricsListener;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Computes the granulometric curves of the images written into a directory,
+ * as they arrive.
+ *
+ * A watcher thread listens to the creation and modification of files within
+ * the directory, and considers that a file is fully written when its size
+ * and modification time did not change during the settle time. Complete
+ * files are put into a bounded queue: when the queue is full, the watcher
+ * waits until the worker thread has processed an image, so that the number
+ * of images in flight remains bounded.
+ *
+ * The worker thread processes the images in the order of their completion,
+ * using the same pipeline as the batch plugin, and appends one row per image
+ * to the volume, granulometry and statistics files. The files are flushed
+ * after each image, so that results are available as soon as the image is
+ * processed. When the output files already exist, the images they contain
+ * are not processed again, and their columns must correspond to the current
+ * sizes.
+ *
+ * @author David Legland
+ *
+ */
+public class StreamingGranulometry
+{
+	/**
+	 * The delay between two checks of the watcher and the worker, in
+	 * milliseconds.
+	 */
+	static final long POLL_DELAY = 500;
+
+	// computation parameters
+	File directory;
+	String extension;
+	Operation op;
+	Strel.Shape shape;
+	int diamMax;
+	int step;
+	Enhancement enhancement;
+	boolean convertToByte;
+	double resol;
+	String unitName;
+
+	/**
+	 * The maximal number of complete images waiting for processing.
+	 */
+	int queueCapacity = 16;
+
+	/**
+	 * The time during which a file must remain unchanged before being
+	 * processed, in milliseconds.
+	 */
+	long settleTime = 2000;
+
+	/**
+	 * The complete files waiting for processing.
+	 */
+	BlockingQueue<File> queue;
+
+	/**
+	 * The names of the files already submitted, or already present in the
+	 * result files.
+	 */
+	Set<String> submitted = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The number of images processed since the start.
+	 */
+	AtomicInteger processedCount = new AtomicInteger(0);
+
+	volatile boolean running = false;
+
+	Thread watcherThread;
+	Thread workerThread;
+	WatchService watchService;
+
+	PrintWriter volumeWriter;
+	PrintWriter granuloWriter;
+	PrintWriter statsWriter;
+
+	/**
+	 * Creates a new streaming granulometry.
+	 *
+	 * @param directory
+	 *            the directory to watch
+	 * @param extension
+	 *            the extension of the image files to process, including the
+	 *            dot
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param diamMax
+	 *            the maximal diameter of the structuring element
+	 * @param step
+	 *            the increment between two consecutive diameters
+	 * @param enhancement
+	 *            the contrast enhancement applied to each image
+	 * @param convertToByte
+	 *            if true, 16-bit and 32-bit images are converted to 8-bit
+	 * @param resol
+	 *            the size of a pixel in user units
+	 * @param unitName
+	 *            the name of the unit
+	 */
+	public StreamingGranulometry(File directory, String extension, Operation op,
+			Strel.Shape shape, int diamMax, int step, Enhancement enhancement,
+			boolean convertToByte, double resol, String unitName)
+	{
+		this.directory = directory;
+		this.extension = extension;
+		this.op = op;
+		this.shape = shape;
+		this.diamMax = diamMax;
+		this.step = step;
+		this.enhancement = enhancement;
+		this.convertToByte = convertToByte;
+		this.resol = resol;
+		this.unitName = unitName;
+	}
+
+	/**
+	 * @param capacity
+	 *            the maximal number of complete images waiting for processing
+	 */
+	public void setQueueCapacity(int capacity)
+	{
+		this.queueCapacity = Math.max(capacity, 1);
+	}
+
+	/**
+	 * @param settleTime
+	 *            the time during which a file must remain unchanged before
+	 *            being processed, in milliseconds
+	 */
+	public void setSettleTime(long settleTime)
+	{
+		this.settleTime = Math.max(settleTime, 0);
+	}
+
+	/**
+	 * @return the number of images processed since the start
+	 */
+	public int getProcessedCount()
+	{
+		return processedCount.get();
+	}
+
+	/**
+	 * @return the number of complete images waiting for processing
+	 */
+	public int getQueuedCount()
+	{
+		return queue == null ? 0 : queue.size();
+	}
+
+	/**
+	 * Starts watching the directory. The images already within the directory
+	 * and not yet present in the result files are processed first.
+	 *
+	 * @param basePath
+	 *            the path of the result files, without extension. Results are
+	 *            appended to the files with extensions ".vols.txt", ".gr.txt"
+	 *            and ".stats.txt".
+	 * @throws IOException
+	 *             if the result files could not be opened, if existing result
+	 *             files were computed with other sizes, or if the directory
+	 *             could not be watched
+	 */
+	public void start(String basePath) throws IOException
+	{
+		if (running)
+		{
+			throw new IllegalStateException("Streaming granulometry is already running");
+		}
+
+		// the headers of the result files
+		int nSteps = (diamMax - 1) / step;
+		double[] sizes = new double[nSteps + 1];
+		for (int i = 0; i <= nSteps; i++)
+		{
+			sizes[i] = (i * step + 1) * resol;
+		}
+		String[] names = Batch_Granulometry_By_Diameter.createColumnNames(nSteps, step, resol, unitName);
+		GranulometryResult volumes = new GranulometryResult(names, sizes);
+		GranulometryResult granulo = GrayscaleGranulometry.derivate(volumes);
+		GranulometryResult stats = new GranulometryResult(GranulometryStats.STAT_NAMES, null);
+
+		// existing files must have been computed with the same sizes
+		File volumeFile = new File(basePath + ".vols.txt");
+		File granuloFile = new File(basePath + ".gr.txt");
+		File statsFile = new File(basePath + ".stats.txt");
+		volumes.checkHeader(volumeFile);
+		granulo.checkHeader(granuloFile);
+		stats.checkHeader(statsFile);
+
+		// the files already processed in a previous session
+		submitted.clear();
+		readProcessedNames(volumeFile);
+
+		// open result files, and write headers of new files
+		volumeWriter = openWriter(volumeFile, volumes);
+		granuloWriter = openWriter(granuloFile, granulo);
+		statsWriter = openWriter(statsFile, stats);
+
+		watchService = FileSystems.getDefault().newWatchService();
+		directory.toPath().register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		queue = new ArrayBlockingQueue<File>(queueCapacity);
+		running = true;
+
+		watcherThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				watchDirectory();
+			}
+		}, "Granulometry-Watcher");
+		watcherThread.setDaemon(true);
+
+		workerThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				processQueue(sizes);
+			}
+		}, "Granulometry-Worker");
+		workerThread.setDaemon(true);
+
+		watcherThread.start();
+		workerThread.start();
+	}
+
+	/**
+	 * Stops watching the directory, and waits for the termination of the
+	 * current image. The images remaining in the queue are not processed, and
+	 * will be processed at the next start.
+	 */
+	public void stop()
+	{
+		if (!running)
+			return;
+		running = false;
+
+		try
+		{
+			watcherThread.join();
+			workerThread.join();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		try
+		{
+			watchService.close();
+		}
+		catch (IOException ex)
+		{
+			IJ.log("Could not close watch service: " + ex.getMessage());
+		}
+		volumeWriter.close();
+		granuloWriter.close();
+		statsWriter.close();
+	}
+
+	/**
+	 * Reads the labels of the rows already written into a volume file.
+	 */
+	private void readProcessedNames(File file) throws IOException
+	{
+		if (!file.exists())
+			return;
+
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			// skip header line
+			String line = reader.readLine();
+			while ((line = reader.readLine()) != null)
+			{
+				int tab = line.indexOf('\t');
+				if (tab > 0)
+					submitted.add(line.substring(0, tab));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Opens a result file in append mode, and writes the header if the file
+	 * is empty.
+	 */
+	private static final PrintWriter openWriter(File file, GranulometryResult header) throws IOException
+	{
+		boolean isNew = !file.exists() || file.length() == 0;
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+		if (isNew)
+		{
+			header.writeHeader(writer);
+			writer.flush();
+		}
+		return writer;
+	}
+
+	/**
+	 * Watches the directory, and puts the files into the queue once they
+	 * are complete.
+	 */
+	private void watchDirectory()
+	{
+		// the files being written, associated to their last known state
+		Map<File, long[]> pending = new HashMap<File, long[]>();
+
+		// start with the files already in the directory
+		scanDirectory(pending);
+
+		while (running)
+		{
+			WatchKey key;
+			try
+			{
+				key = watchService.poll(POLL_DELAY, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (Exception ex)
+			{
+				// watch service was closed
+				return;
+			}
+
+			if (key != null)
+			{
+				for (WatchEvent<?> event : key.pollEvents())
+				{
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+					{
+						// some events were lost
+						scanDirectory(pending);
+						continue;
+					}
+					Path name = (Path) event.context();
+					File file = new File(directory, name.toString());
+					if (accept(file) && !pending.containsKey(file))
+					{
+						pending.put(file, new long[] {-1, -1, System.currentTimeMillis()});
+					}
+				}
+				key.reset();
+			}
+
+			submitCompleteFiles(pending);
+		}
+	}
+
+	private void scanDirectory(Map<File, long[]> pending)
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files);
+		for (File file : files)
+		{
+			if (accept(file) && !pending.containsKey(file))
+			{
+				pending.put(file, new long[] {-1, -1, System.currentTimeMillis()});
+			}
+		}
+	}
+
+	private boolean accept(File file)
+	{
+		return file.getName().endsWith(extension) && !submitted.contains(file.getName());
+	}
+
+	/**
+	 * Puts into the queue the pending files whose size and modification time
+	 * did not change during the settle time. Blocks while the queue is full.
+	 */
+	private void submitCompleteFiles(Map<File, long[]> pending)
+	{
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<File, long[]>> iter = pending.entrySet().iterator();
+		while (iter.hasNext() && running)
+		{
+			Map.Entry<File, long[]> entry = iter.next();
+			File file = entry.getKey();
+			long[] state = entry.getValue();
+			if (!file.exists())
+			{
+				iter.remove();
+				continue;
+			}
+
+			long size = file.length();
+			long modified = file.lastModified();
+			if (size != state[0] || modified != state[1])
+			{
+				// file is still being written
+				state[0] = size;
+				state[1] = modified;
+				state[2] = now;
+				continue;
+			}
+			if (now - state[2] < settleTime)
+				continue;
+
+			// wait for a free place within the queue
+			try
+			{
+				while (running && !queue.offer(file, POLL_DELAY, TimeUnit.MILLISECONDS))
+				{
+					IJ.showStatus("Granulometry queue is full (" + queue.size() + " images)");
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (running)
+			{
+				submitted.add(file.getName());
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Processes the images of the queue until the computation is stopped.
+	 */
+	private void processQueue(double[] sizes)
+	{
+		double[] granuloSizes = Arrays.copyOfRange(sizes, 1, sizes.length);
+		GranulometryListener statusListener = new StatusBarListener("Diameter")
+		{
+			@Override
+			public boolean isCancelRequested()
+			{
+				return !running;
+			}
+		};
+		GranulometryListener listener = new CompositeListener(statusListener,
+				new MetricsListener(GranulometryMonitor.metrics()));
+
+		while (running)
+		{
+			File file;
+			try
+			{
+				file = queue.poll(POLL_DELAY, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (file == null)
+				continue;
+
+			String fileName = file.getName();
+			GranulometryMonitor.setCurrentFile(fileName);
+			ImagePlus imp = IJ.openImage(file.getAbsolutePath());
+			if (imp == null)
+			{
+				IJ.log("Could not open image file: " + fileName);
+				continue;
+			}
+			GranulometryMonitor.metrics().addBytesRead(file.length());
+
+			double[] volumes;
+			try
+			{
+				ImageProcessor image = Batch_Granulometry_By_Diameter.prepareImage(
+						imp.getProcessor(), enhancement, convertToByte);
+				volumes = Batch_Granulometry_By_Diameter.computeVolumeCurve(image,
+						op, shape, diamMax, step, listener);
+			}
+			catch (RuntimeException ex)
+			{
+				IJ.log("Could not process image " + fileName + ": " + ex.getMessage());
+				continue;
+			}
+			if (volumes.length < sizes.length)
+			{
+				// interrupted, the image will be processed at next start
+				break;
+			}
+			GranulometryMonitor.metrics().addImage();
+
+			double[] granulo = GrayscaleGranulometry.derivate(volumes);
+			double[] stats = GranulometryStats.computeRow(granulo, granuloSizes);
+			appendRow(volumeWriter, fileName, volumes);
+			appendRow(granuloWriter, fileName, granulo);
+			appendRow(statsWriter, fileName, stats);
+
+			int count = processedCount.incrementAndGet();
+			IJ.showStatus(String.format(Locale.ENGLISH, "Granulometry: %d images processed, %d queued",
+					count, queue.size()));
+		}
+		GranulometryMonitor.setCurrentFile(null);
+	}
+
+	private static final void appendRow(PrintWriter writer, String label, double[] values)
+	{
+		GranulometryResult.writeRow(writer, label, values);
+		writer.flush();
+	}
+}
@@ -0,0 +1,120 @@
+package ijt.analysis.granulometry;
+
+import java.io.File;
+import java.io.IOException;
+
+import ij.IJ;
+import ij.gui.GenericDialog;
+import ij.gui.WaitForUserDialog;
+import ij.io.SaveDialog;
+import ij.plugin.PlugIn;
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter.Enhancement;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.engine.EngineSelector;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Plugin for computing the granulometric curves of the images written into a
+ * directory, as they arrive. Results are appended to the result files after
+ * each image, until the user stops the watching.
+ *
+ * @see StreamingGranulometry
+ *
+ * @author David Legland
+ *
+ */
+public class Watch_Folder_Granulometry implements PlugIn
+{
+	/* (non-Javadoc)
+	 * @see ij.plugin.PlugIn#run(java.lang.String)
+	 */
+	public void run(String arg)
+	{
+		// select the fastest engine for each type of step
+		EngineSelector.setCalibrationEnabled(true);
+		
+		// (1) Choose the directory to watch
+		String dirName = IJ.getDirectory("Choose the directory to watch");
+		if (dirName == null)
+			return;
+		File baseDir = new File(dirName);
+
+		// (2) Open a dialog to choose analysis parameters
+		GenericDialog gd = new GenericDialog("Watch Folder Granulometry");
+		gd.addStringField("File_Extension", ".tif");
+		gd.addChoice("Operation", Operation.getAllLabels(),
+				Operation.CLOSING.toString());
+		gd.addChoice("Element", Strel.Shape.getAllLabels(),
+				Strel.Shape.SQUARE.toString());
+		gd.addNumericField("Diameter Max. (in pixels)", 51, 0);
+		gd.addNumericField("Step (in pixels)", 1, 0);
+		gd.addChoice("Contrast_Adjustment", Enhancement.getAllLabels(),
+				Enhancement.NONE.toString());
+		gd.addCheckbox("Convert to 8-bit", false);
+		gd.addNumericField("Spatial_Calibration", 1, 2);
+		gd.addStringField("Calibration_Unit", "pixel");
+		gd.addNumericField("Max. Queued Images", 16, 0);
+		gd.addNumericField("Settle Time (in seconds)", 2, 1);
+
+		// Wait for user response
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+
+		// extract chosen parameters
+		String extension = gd.getNextString();
+		Operation op = Operation.fromLabel(gd.getNextChoice());
+		Strel.Shape shape = Strel.Shape.fromLabel(gd.getNextChoice());
+		int diamMax = (int) gd.getNextNumber();
+		int step 	= (int) gd.getNextNumber();
+		Enhancement enhancement = Enhancement.fromLabel(gd.getNextChoice());
+		boolean convertToByte = gd.getNextBoolean();
+		double resol = gd.getNextNumber();
+		String unitName = gd.getNextString();
+		int queueCapacity = (int) gd.getNextNumber();
+		double settleTime = gd.getNextNumber();
+		if (Double.isNaN(resol) || Double.isNaN(settleTime))
+		{
+			IJ.error("Parsing Error", "Could not interpret the numeric inputs");
+			return;
+		}
+
+		// (3) Open a dialog to choose the result file name
+		SaveDialog dlg = new SaveDialog("Save Result file", baseDir.getParent(),
+				baseDir.getName() + "_stream.txt");
+		String fileName = dlg.getFileName();
+		if (fileName == null)
+		{
+			return;
+		}
+		String basePath = new File(dlg.getDirectory(), fileName).getAbsolutePath();
+		if (basePath.endsWith(".txt"))
+			basePath = basePath.substring(0, basePath.length() - 4);
+
+		// (4) Process images until the user stops
+		StreamingGranulometry streaming = new StreamingGranulometry(baseDir,
+				extension, op, shape, diamMax, step, enhancement,
+				convertToByte, resol, unitName);
+		streaming.setQueueCapacity(queueCapacity);
+		streaming.setSettleTime((long) (settleTime * 1000));
+		try
+		{
+			streaming.start(basePath);
+		}
+		catch (IOException ex)
+		{
+			IJ.error("Watch Folder Granulometry", "Could not start watching:\n" + ex.getMessage());
+			return;
+		}
+
+		new WaitForUserDialog("Watch Folder Granulometry",
+				"Watching " + baseDir.getName() + " for new images.\n"
+				+ "Results are appended to " + basePath + ".*.txt\n \n"
+				+ "Click OK to stop.").show();
+		streaming.stop();
+
+		IJ.log("Watch folder granulometry stopped: " + streaming.getProcessedCount()
+				+ " images processed, " + streaming.getQueuedCount()
+				+ " images left for the next session");
+	}
+}
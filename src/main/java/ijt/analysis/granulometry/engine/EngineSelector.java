@@ -0,0 +1,545 @@
+package ijt.analysis.granulometry.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ij.IJ;
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Selects the fastest engine for each type of granulometry step.
+ *
+ * Steps are grouped by operation, shape, size type, bit depth, and power of
+ * two of the size. When several engines can process a group, each of them is
+ * timed on a small synthetic image, and the fastest one is kept. The results
+ * of calibration are stored in a properties file, so that calibration is
+ * performed only once per group and set of engines. When only one engine is
+ * applicable, no calibration is performed.
+ *
+ * Automatic selection can be disabled by specifying a fixed engine, that is
+ * used for all the steps it can process. By default, the default selector
+ * uses the MorphoLibJ engine without calibration, so that library calls
+ * neither time the engines nor write into the preferences directory. The
+ * plugins enable calibration with the setCalibrationEnabled() method. The
+ * engine of the default selector can also be fixed with the system property
+ * "ijt.granulometry.engine", that takes precedence over calibration; in that
+ * case, the calibration file is neither read nor written.
+ *
+ * @author David Legland
+ *
+ */
+public class EngineSelector
+{
+	/**
+	 * The name of the file storing the calibration results, within the
+	 * preferences directory of ImageJ.
+	 */
+	public static final String CACHE_FILE_NAME = "granulometry-engines.properties";
+
+	/**
+	 * The name of the system property specifying the engine used by the
+	 * default selector, for example "MorphoLibJ".
+	 */
+	public static final String ENGINE_PROPERTY = "ijt.granulometry.engine";
+
+	/**
+	 * The size of the synthetic images used for calibration.
+	 */
+	static final int CALIBRATION_IMAGE_SIZE = 192;
+
+	/**
+	 * The maximal size of structuring element used for calibration.
+	 */
+	static final int CALIBRATION_MAX_SIZE = 64;
+
+	/**
+	 * The number of timed runs of each engine, after one warm-up run.
+	 */
+	static final int CALIBRATION_RUNS = 3;
+
+	/**
+	 * The selector used by default, created at first call.
+	 */
+	private static EngineSelector defaultSelector = null;
+
+	/**
+	 * Whether the default selector chooses engines by calibration.
+	 */
+	private static boolean calibrationEnabled = false;
+
+	/**
+	 * The list of available engines.
+	 */
+	List<GranulometryEngine> engines;
+
+	/**
+	 * The file used for storing calibration results, or null.
+	 */
+	File cacheFile;
+
+	/**
+	 * The calibration results, associating the name of the fastest engine to
+	 * each group of steps and set of candidate engines.
+	 */
+	Properties calibration = new Properties();
+
+	/**
+	 * The engine selected for each group of steps.
+	 */
+	Map<String, GranulometryEngine> selection = new ConcurrentHashMap<String, GranulometryEngine>();
+
+	/**
+	 * The engine used for all the steps it can process, or null to select
+	 * engines by calibration.
+	 */
+	GranulometryEngine fixedEngine = null;
+
+	/**
+	 * Creates a new selector.
+	 *
+	 * @param engines
+	 *            the list of available engines
+	 * @param cacheFile
+	 *            the file used for storing calibration results, or null to
+	 *            keep them only in memory
+	 */
+	public EngineSelector(List<GranulometryEngine> engines, File cacheFile)
+	{
+		if (engines.isEmpty())
+		{
+			throw new IllegalArgumentException("Requires at least one engine");
+		}
+		this.engines = new ArrayList<GranulometryEngine>(engines);
+		this.cacheFile = cacheFile;
+		readCache();
+	}
+
+	/**
+	 * Returns the selector used by default, that considers the engines
+	 * discovered by the ServiceLoader. If the system property
+	 * "ijt.granulometry.engine" is set, the selector always uses the engine
+	 * with this name when it is applicable. Otherwise, if calibration is
+	 * enabled, the selector stores calibration results within the
+	 * preferences directory of ImageJ. Otherwise, the selector always uses
+	 * the MorphoLibJ engine.
+	 *
+	 * @return the default selector
+	 * @throws IllegalArgumentException
+	 *             if the system property does not correspond to an available
+	 *             engine
+	 */
+	public static final synchronized EngineSelector getDefault()
+	{
+		if (defaultSelector == null)
+		{
+			String engineName = System.getProperty(ENGINE_PROPERTY);
+			if ((engineName == null || engineName.isEmpty()) && !calibrationEnabled)
+			{
+				engineName = MorphoLibJEngine.NAME;
+			}
+			if (engineName != null && !engineName.isEmpty())
+			{
+				EngineSelector selector = new EngineSelector(loadEngines(), null);
+				GranulometryEngine engine = selector.getEngine(engineName);
+				if (engine == null)
+				{
+					throw new IllegalArgumentException("Unknown granulometry engine: " + engineName);
+				}
+				selector.setFixedEngine(engine);
+				defaultSelector = selector;
+			}
+			else
+			{
+				String prefsDir = Prefs.getPrefsDir();
+				File cacheFile = prefsDir != null ? new File(prefsDir, CACHE_FILE_NAME) : null;
+				defaultSelector = new EngineSelector(loadEngines(), cacheFile);
+			}
+		}
+		return defaultSelector;
+	}
+
+	/**
+	 * Changes the selector used by default.
+	 *
+	 * @param selector
+	 *            the new default selector, or null to create it again from
+	 *            the system properties at next call to getDefault()
+	 */
+	public static final synchronized void setDefault(EngineSelector selector)
+	{
+		defaultSelector = selector;
+	}
+
+	/**
+	 * Enables or disables the calibration of the default selector. When
+	 * calibration is disabled, the default selector always uses the
+	 * MorphoLibJ engine. This has no effect if the engine is fixed with the
+	 * system property "ijt.granulometry.engine". Plugins enable calibration
+	 * before processing images.
+	 *
+	 * @param enabled
+	 *            true for selecting the fastest engine of each step
+	 */
+	public static final synchronized void setCalibrationEnabled(boolean enabled)
+	{
+		if (enabled != calibrationEnabled)
+		{
+			calibrationEnabled = enabled;
+			defaultSelector = null;
+		}
+	}
+
+	/**
+	 * @return true if the default selector chooses engines by calibration
+	 */
+	public static final synchronized boolean isCalibrationEnabled()
+	{
+		return calibrationEnabled;
+	}
+
+	/**
+	 * Discovers the engines declared as services. The default MorphoLibJ
+	 * engine is always included, as the first one.
+	 *
+	 * @return the list of available engines
+	 */
+	public static final List<GranulometryEngine> loadEngines()
+	{
+		List<GranulometryEngine> engines = new ArrayList<GranulometryEngine>();
+		engines.add(new MorphoLibJEngine());
+
+		ServiceLoader<GranulometryEngine> loader = ServiceLoader.load(
+				GranulometryEngine.class, GranulometryEngine.class.getClassLoader());
+		Iterator<GranulometryEngine> iter = loader.iterator();
+		while (true)
+		{
+			GranulometryEngine engine;
+			try
+			{
+				if (!iter.hasNext())
+					break;
+				engine = iter.next();
+			}
+			catch (ServiceConfigurationError err)
+			{
+				IJ.log("Could not load granulometry engine: " + err.getMessage());
+				continue;
+			}
+			if (engine instanceof MorphoLibJEngine)
+				continue;
+			engines.add(engine);
+		}
+		return engines;
+	}
+
+	/**
+	 * @return the list of available engines
+	 */
+	public List<GranulometryEngine> getEngines()
+	{
+		return Collections.unmodifiableList(engines);
+	}
+
+	/**
+	 * Returns the engine with the given name.
+	 *
+	 * @param name
+	 *            the name of the engine
+	 * @return the engine with the given name, or null if there is no such
+	 *         engine
+	 */
+	public GranulometryEngine getEngine(String name)
+	{
+		for (GranulometryEngine engine : engines)
+		{
+			if (engine.getName().equals(name))
+				return engine;
+		}
+		return null;
+	}
+
+	/**
+	 * Fixes the engine used for all the steps it can process, disabling
+	 * calibration. The other steps use the first applicable engine.
+	 *
+	 * @param engine
+	 *            the engine to use, or null to select engines by calibration
+	 */
+	public synchronized void setFixedEngine(GranulometryEngine engine)
+	{
+		this.fixedEngine = engine;
+		selection.clear();
+	}
+
+	/**
+	 * @return the engine used for all the steps it can process, or null if
+	 *         engines are selected by calibration
+	 */
+	public GranulometryEngine getFixedEngine()
+	{
+		return fixedEngine;
+	}
+
+	/**
+	 * Returns the fastest engine applicable to a type of step. Calibration is
+	 * performed at the first call for a group of steps, if several engines
+	 * are applicable, no engine is fixed, and no calibration result is stored.
+	 *
+	 * @param bitDepth
+	 *            the bit depth of the image
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether the size corresponds to radius or diameter
+	 * @param size
+	 *            the size of the structuring element, in pixels
+	 * @return the engine to use for the step
+	 */
+	public GranulometryEngine select(int bitDepth, Morphology.Operation op,
+			Strel.Shape shape, SizeType sizeType, int size)
+	{
+		String key = op + "/" + shape + "/" + sizeType + "/" + bitDepth + "/" + sizeClass(size);
+		GranulometryEngine engine = selection.get(key);
+		if (engine != null)
+			return engine;
+
+		synchronized (this)
+		{
+			engine = selection.get(key);
+			if (engine != null)
+				return engine;
+
+			if (fixedEngine != null && fixedEngine.isApplicable(bitDepth, op, shape, sizeType, size))
+			{
+				selection.put(key, fixedEngine);
+				return fixedEngine;
+			}
+
+			List<GranulometryEngine> candidates = new ArrayList<GranulometryEngine>();
+			StringBuilder names = new StringBuilder();
+			for (GranulometryEngine candidate : engines)
+			{
+				if (candidate.isApplicable(bitDepth, op, shape, sizeType, size))
+				{
+					candidates.add(candidate);
+					names.append(names.length() == 0 ? "" : "+").append(candidate.getName());
+				}
+			}
+			if (candidates.isEmpty())
+			{
+				throw new IllegalStateException("No engine can process " + key);
+			}
+
+			if (candidates.size() == 1 || fixedEngine != null)
+			{
+				engine = candidates.get(0);
+			}
+			else
+			{
+				String cacheKey = key + "/" + names;
+				String name = calibration.getProperty(cacheKey);
+				for (GranulometryEngine candidate : candidates)
+				{
+					if (candidate.getName().equals(name))
+						engine = candidate;
+				}
+				if (engine == null)
+				{
+					engine = calibrate(candidates, bitDepth, op, shape, sizeType, size);
+					calibration.setProperty(cacheKey, engine.getName());
+					writeCache();
+				}
+			}
+			selection.put(key, engine);
+			return engine;
+		}
+	}
+
+	/**
+	 * Returns the fastest engine for each step of a granulometry. This makes
+	 * it possible to perform calibration before the computation of the
+	 * steps, so that it is not included within the timing of the steps.
+	 *
+	 * @param bitDepth
+	 *            the bit depth of the image
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether the sizes correspond to radius or diameter
+	 * @param sizes
+	 *            the size of the structuring element of each step, in pixels
+	 * @return the engine to use for each step
+	 */
+	public GranulometryEngine[] select(int bitDepth, Morphology.Operation op,
+			Strel.Shape shape, SizeType sizeType, int[] sizes)
+	{
+		GranulometryEngine[] res = new GranulometryEngine[sizes.length];
+		for (int i = 0; i < sizes.length; i++)
+		{
+			res[i] = select(bitDepth, op, shape, sizeType, sizes[i]);
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the index of the power of two containing the size, used for
+	 * grouping steps.
+	 */
+	static final int sizeClass(int size)
+	{
+		return 32 - Integer.numberOfLeadingZeros(Math.max(size, 1));
+	}
+
+	/**
+	 * Times each candidate engine on a synthetic image, and returns the
+	 * fastest one. Engines that fail are ignored.
+	 */
+	private GranulometryEngine calibrate(List<GranulometryEngine> candidates,
+			int bitDepth, Morphology.Operation op, Strel.Shape shape,
+			SizeType sizeType, int size)
+	{
+		ImageProcessor image = createCalibrationImage(bitDepth);
+		GranulometryEngine fallback = getEngine(MorphoLibJEngine.NAME);
+		if (fallback == null || !candidates.contains(fallback))
+			fallback = candidates.get(0);
+		if (image == null)
+			return fallback;
+
+		size = Math.min(size, CALIBRATION_MAX_SIZE);
+		GranulometryEngine best = null;
+		long bestTime = Long.MAX_VALUE;
+		for (GranulometryEngine engine : candidates)
+		{
+			long time = Long.MAX_VALUE;
+			try
+			{
+				engine.apply(image, op, shape, sizeType, size);
+				for (int i = 0; i < CALIBRATION_RUNS; i++)
+				{
+					long t0 = System.nanoTime();
+					engine.apply(image, op, shape, sizeType, size);
+					time = Math.min(time, System.nanoTime() - t0);
+				}
+			}
+			catch (RuntimeException ex)
+			{
+				IJ.log("Granulometry engine " + engine.getName() + " failed during calibration: " + ex.getMessage());
+				continue;
+			}
+			if (time < bestTime)
+			{
+				best = engine;
+				bestTime = time;
+			}
+		}
+		return best != null ? best : fallback;
+	}
+
+	/**
+	 * Creates a synthetic image with random values, or returns null if the
+	 * bit depth is not supported.
+	 */
+	static final ImageProcessor createCalibrationImage(int bitDepth)
+	{
+		int size = CALIBRATION_IMAGE_SIZE;
+		int nPixels = size * size;
+		Random random = new Random(1);
+		switch (bitDepth)
+		{
+		case 8:
+		{
+			byte[] pixels = new byte[nPixels];
+			for (int i = 0; i < nPixels; i++)
+				pixels[i] = (byte) random.nextInt(256);
+			return new ByteProcessor(size, size, pixels);
+		}
+		case 16:
+		{
+			short[] pixels = new short[nPixels];
+			for (int i = 0; i < nPixels; i++)
+				pixels[i] = (short) random.nextInt(4096);
+			return new ShortProcessor(size, size, pixels, null);
+		}
+		case 32:
+		{
+			float[] pixels = new float[nPixels];
+			for (int i = 0; i < nPixels; i++)
+				pixels[i] = random.nextFloat() * 255;
+			return new FloatProcessor(size, size, pixels);
+		}
+		default:
+			return null;
+		}
+	}
+
+	private void readCache()
+	{
+		if (cacheFile == null || !cacheFile.exists())
+			return;
+
+		try
+		{
+			InputStream in = new FileInputStream(cacheFile);
+			try
+			{
+				calibration.load(in);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			IJ.log("Could not read granulometry engine calibration: " + ex.getMessage());
+		}
+	}
+
+	private void writeCache()
+	{
+		if (cacheFile == null)
+			return;
+
+		try
+		{
+			OutputStream out = new FileOutputStream(cacheFile);
+			try
+			{
+				calibration.store(out, "Fastest granulometry engine for each type of step");
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			IJ.log("Could not write granulometry engine calibration: " + ex.getMessage());
+		}
+	}
+}
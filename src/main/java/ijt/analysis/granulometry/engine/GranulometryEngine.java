@@ -0,0 +1,70 @@
+package ijt.analysis.granulometry.engine;
+
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * Computes the morphological operation of a granulometry step. The loop over
+ * the sizes, the computation of the volume, and the notification of the
+ * listeners are managed by GrayscaleGranulometry, so that an engine only has
+ * to provide a faster implementation of the operation for some types of
+ * images or structuring elements.
+ *
+ * Engines are discovered with the ServiceLoader mechanism: implementations
+ * must have a public no-argument constructor, and be listed in the file
+ * "META-INF/services/ijt.analysis.granulometry.engine.GranulometryEngine".
+ * Implementations must be thread-safe.
+ *
+ * @see EngineSelector
+ * @see MorphoLibJEngine
+ *
+ * @author David Legland
+ *
+ */
+public interface GranulometryEngine
+{
+	/**
+	 * @return the name of the engine, used for identifying it within the
+	 *         calibration cache
+	 */
+	public String getName();
+
+	/**
+	 * Checks if the engine can process a given type of step.
+	 *
+	 * @param bitDepth
+	 *            the bit depth of the image: 8, 16 or 32
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether the size corresponds to radius or diameter
+	 * @param size
+	 *            the size of the structuring element, in pixels
+	 * @return true if the engine can apply the operation
+	 */
+	public boolean isApplicable(int bitDepth, Morphology.Operation op,
+			Strel.Shape shape, SizeType sizeType, int size);
+
+	/**
+	 * Applies a morphological operation on an image. The result must be
+	 * identical to the result obtained with MorphoLibJ.
+	 *
+	 * @param image
+	 *            the image to process
+	 * @param op
+	 *            the morphological operation
+	 * @param shape
+	 *            the shape of the structuring element
+	 * @param sizeType
+	 *            specifies whether the size corresponds to radius or diameter
+	 * @param size
+	 *            the size of the structuring element, in pixels
+	 * @return a new image, with the same type and size as the input image
+	 */
+	public ImageProcessor apply(ImageProcessor image, Morphology.Operation op,
+			Strel.Shape shape, SizeType sizeType, int size);
+}
@@ -0,0 +1,43 @@
+package ijt.analysis.granulometry.engine;
+
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * The default engine, that applies the operations provided by MorphoLibJ.
+ * It can process all types of steps.
+ *
+ * @author David Legland
+ *
+ */
+public class MorphoLibJEngine implements GranulometryEngine
+{
+	/**
+	 * The name of the default engine.
+	 */
+	public static final String NAME = "MorphoLibJ";
+
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+
+	@Override
+	public boolean isApplicable(int bitDepth, Morphology.Operation op,
+			Strel.Shape shape, SizeType sizeType, int size)
+	{
+		return true;
+	}
+
+	@Override
+	public ImageProcessor apply(ImageProcessor image, Morphology.Operation op,
+			Strel.Shape shape, SizeType sizeType, int size)
+	{
+		Strel strel = sizeType.createStrel(shape, size);
+		strel.showProgress(false);
+		return op.apply(image, strel);
+	}
+}
@@ -0,0 +1,27 @@
+package ijt.analysis.granulometry.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event corresponding to the conversion and the contrast
+ * enhancement of an image before computation of the granulometric curve.
+ * 
+ * @author David Legland
+ *
+ */
+@Name("ijt.granulometry.Enhancement")
+@Label("Image Enhancement")
+@Category("Granulometry")
+@Description("Conversion and contrast enhancement of an image")
+public class EnhancementEvent extends Event
+{
+	@Label("File Name")
+	public String fileName;
+	
+	@Label("Enhancement")
+	public String enhancement;
+}
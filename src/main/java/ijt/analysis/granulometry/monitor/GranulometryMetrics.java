@@ -0,0 +1,234 @@
+package ijt.analysis.granulometry.monitor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import ij.IJ;
+
+/**
+ * Counters and latency histogram of granulometry computations.
+ * 
+ * Step latencies are stored in a histogram with one bin per power of two of
+ * nanoseconds, making it possible to update it without locking. Percentiles
+ * are therefore estimated within a factor two.
+ * 
+ * The metrics can be written to a text file, either on demand or
+ * periodically.
+ * 
+ * @author David Legland
+ *
+ */
+public class GranulometryMetrics
+{
+	private static final int BIN_COUNT = 64;
+	
+	AtomicLong imageCount = new AtomicLong();
+	AtomicLong bytesRead = new AtomicLong();
+	AtomicLong stepCount = new AtomicLong();
+	AtomicLong stepTotalTime = new AtomicLong();
+	AtomicLong stepMaxTime = new AtomicLong();
+	AtomicLongArray stepHistogram = new AtomicLongArray(BIN_COUNT);
+	
+	ScheduledExecutorService scheduler = null;
+	ScheduledFuture<?> dumpTask = null;
+	
+	/**
+	 * Resets all the counters.
+	 */
+	public void reset()
+	{
+		imageCount.set(0);
+		bytesRead.set(0);
+		stepCount.set(0);
+		stepTotalTime.set(0);
+		stepMaxTime.set(0);
+		for (int i = 0; i < BIN_COUNT; i++)
+			stepHistogram.set(i, 0);
+	}
+	
+	/**
+	 * Records that an image has been processed.
+	 */
+	public void addImage()
+	{
+		imageCount.incrementAndGet();
+	}
+	
+	/**
+	 * Records a number of bytes read from input files.
+	 * 
+	 * @param nBytes
+	 *            the number of bytes
+	 */
+	public void addBytesRead(long nBytes)
+	{
+		bytesRead.addAndGet(nBytes);
+	}
+	
+	/**
+	 * Records the latency of one step of granulometry computation.
+	 * 
+	 * @param nanos
+	 *            the duration of the step, in nanoseconds
+	 */
+	public void addStep(long nanos)
+	{
+		nanos = Math.max(nanos, 1);
+		stepCount.incrementAndGet();
+		stepTotalTime.addAndGet(nanos);
+		stepHistogram.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos));
+		
+		long max = stepMaxTime.get();
+		while (nanos > max && !stepMaxTime.compareAndSet(max, nanos))
+			max = stepMaxTime.get();
+	}
+	
+	/**
+	 * @return the number of processed images
+	 */
+	public long getImageCount()
+	{
+		return imageCount.get();
+	}
+	
+	/**
+	 * @return the number of bytes read from input files
+	 */
+	public long getBytesRead()
+	{
+		return bytesRead.get();
+	}
+	
+	/**
+	 * @return the number of computed steps
+	 */
+	public long getStepCount()
+	{
+		return stepCount.get();
+	}
+	
+	/**
+	 * Estimates a percentile of step latencies, as the upper bound of the
+	 * histogram bin containing the percentile.
+	 * 
+	 * @param percent
+	 *            the percentile, between 0 and 100
+	 * @return the estimated latency, in nanoseconds
+	 */
+	public long stepLatencyPercentile(double percent)
+	{
+		long total = stepCount.get();
+		if (total == 0)
+			return 0;
+		
+		double threshold = total * percent / 100.0;
+		long cumsum = 0;
+		for (int i = 0; i < BIN_COUNT; i++)
+		{
+			cumsum += stepHistogram.get(i);
+			if (cumsum >= threshold)
+				return Math.min(2L << i, stepMaxTime.get());
+		}
+		return stepMaxTime.get();
+	}
+	
+	/**
+	 * Writes the current values of metrics into a text file. The file is
+	 * overwritten if it exists.
+	 * 
+	 * @param file
+	 *            the file to write in
+	 * @throws IOException
+	 *             if an error occurs during writing
+	 */
+	public void writeTo(File file) throws IOException
+	{
+		long nSteps = stepCount.get();
+		double meanTime = nSteps > 0 ? stepTotalTime.get() / (double) nSteps : 0;
+		
+		try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file))))
+		{
+			writer.println("# Grayscale granulometry metrics, " + new Date());
+			writer.println("images.processed\t" + imageCount.get());
+			writer.println("bytes.read\t" + bytesRead.get());
+			writer.println("steps.count\t" + nSteps);
+			writer.println(formatMillis("steps.latency.mean.ms", meanTime));
+			writer.println(formatMillis("steps.latency.p50.ms", stepLatencyPercentile(50)));
+			writer.println(formatMillis("steps.latency.p90.ms", stepLatencyPercentile(90)));
+			writer.println(formatMillis("steps.latency.p99.ms", stepLatencyPercentile(99)));
+			writer.println(formatMillis("steps.latency.max.ms", stepMaxTime.get()));
+		}
+	}
+	
+	private static final String formatMillis(String key, double nanos)
+	{
+		return String.format(Locale.US, "%s\t%.3f", key, nanos / 1e6);
+	}
+	
+	/**
+	 * Starts writing the metrics to a file at regular time intervals. Any
+	 * previously started periodic writing is stopped.
+	 * 
+	 * @param file
+	 *            the file to write in
+	 * @param periodSeconds
+	 *            the delay between two writings, in seconds
+	 */
+	public synchronized void startPeriodicDump(final File file, long periodSeconds)
+	{
+		stopPeriodicDump();
+		if (scheduler == null)
+		{
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "granulometry-metrics");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		
+		dumpTask = scheduler.scheduleAtFixedRate(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					writeTo(file);
+				}
+				catch (IOException ex)
+				{
+					IJ.log("Could not write metrics file: " + file.getAbsolutePath());
+				}
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Stops writing the metrics periodically.
+	 */
+	public synchronized void stopPeriodicDump()
+	{
+		if (dumpTask != null)
+		{
+			dumpTask.cancel(false);
+			dumpTask = null;
+		}
+	}
+}
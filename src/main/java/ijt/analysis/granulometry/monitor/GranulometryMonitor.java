@@ -0,0 +1,55 @@
+package ijt.analysis.granulometry.monitor;
+
+/**
+ * Entry point for the monitoring of granulometry computations.
+ * 
+ * Keeps the name of the file processed by each thread, used for tagging the
+ * flight recorder events emitted by the core methods, and the global metrics
+ * of the application.
+ * 
+ * @author David Legland
+ *
+ */
+public class GranulometryMonitor
+{
+	private static final ThreadLocal<String> currentFile = new ThreadLocal<String>();
+	
+	private static final GranulometryMetrics metrics = new GranulometryMetrics();
+	
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private GranulometryMonitor()
+	{
+	}
+	
+	/**
+	 * Changes the name of the file processed by the current thread.
+	 * 
+	 * @param fileName
+	 *            the name of the file, or null when processing is finished
+	 */
+	public static final void setCurrentFile(String fileName)
+	{
+		if (fileName == null)
+			currentFile.remove();
+		else
+			currentFile.set(fileName);
+	}
+	
+	/**
+	 * @return the name of the file processed by the current thread, or null.
+	 */
+	public static final String currentFile()
+	{
+		return currentFile.get();
+	}
+	
+	/**
+	 * @return the global metrics of granulometry computations.
+	 */
+	public static final GranulometryMetrics metrics()
+	{
+		return metrics;
+	}
+}
@@ -0,0 +1,29 @@
+package ijt.analysis.granulometry.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event corresponding to the reading and the decoding of an
+ * image file.
+ * 
+ * @author David Legland
+ *
+ */
+@Name("ijt.granulometry.ImageDecode")
+@Label("Image Decode")
+@Category("Granulometry")
+@Description("Reading and decoding of an image file")
+public class ImageDecodeEvent extends Event
+{
+	@Label("File Name")
+	public String fileName;
+	
+	@Label("File Size")
+	@DataAmount
+	public long fileSize;
+}
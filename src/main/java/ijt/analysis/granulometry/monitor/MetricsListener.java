@@ -0,0 +1,49 @@
+package ijt.analysis.granulometry.monitor;
+
+import ijt.analysis.granulometry.GranulometryEvent;
+import ijt.analysis.granulometry.GranulometryListener;
+
+/**
+ * Records the latency of each step of granulometry computation into a set
+ * of metrics. The latency of a step is the sum of the times needed for
+ * creating the structuring element, applying the operation, and computing
+ * the volume.
+ *
+ * @see GranulometryMetrics
+ *
+ * @author David Legland
+ *
+ */
+public class MetricsListener implements GranulometryListener
+{
+	GranulometryMetrics metrics;
+
+	/**
+	 * Creates a new listener recording step latencies into the given
+	 * metrics.
+	 *
+	 * @param metrics
+	 *            the metrics to update
+	 */
+	public MetricsListener(GranulometryMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void stepStarted(GranulometryEvent evt)
+	{
+	}
+
+	@Override
+	public void stepFinished(GranulometryEvent evt)
+	{
+		metrics.addStep(evt.getStrelTime() + evt.getOperationTime() + evt.getVolumeTime());
+	}
+
+	@Override
+	public boolean isCancelRequested()
+	{
+		return false;
+	}
+}
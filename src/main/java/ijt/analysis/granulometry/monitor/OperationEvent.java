@@ -0,0 +1,59 @@
+package ijt.analysis.granulometry.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event corresponding to the application of a morphological
+ * operation for a given size of structuring element.
+ * 
+ * @author David Legland
+ *
+ */
+@Name("ijt.granulometry.Operation")
+@Label("Morphological Operation")
+@Category("Granulometry")
+@Description("Application of a morphological operation for a given strel size")
+public class OperationEvent extends Event
+{
+	@Label("File Name")
+	public String fileName;
+	
+	@Label("Operation")
+	public String operation;
+	
+	@Label("Strel Shape")
+	public String shape;
+	
+	@Label("Strel Size")
+	public int size;
+	
+	/**
+	 * Creates and starts a new event for the specified operation, tagged with
+	 * the name of the file currently processed by the calling thread.
+	 * 
+	 * @param operation
+	 *            the name of the operation
+	 * @param shape
+	 *            the name of the structuring element shape
+	 * @param size
+	 *            the size of the structuring element
+	 * @return the started event
+	 */
+	public static final OperationEvent start(String operation, String shape, int size)
+	{
+		OperationEvent event = new OperationEvent();
+		if (event.isEnabled())
+		{
+			event.fileName = GranulometryMonitor.currentFile();
+			event.operation = operation;
+			event.shape = shape;
+			event.size = size;
+		}
+		event.begin();
+		return event;
+	}
+}
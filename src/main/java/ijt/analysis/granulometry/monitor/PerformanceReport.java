@@ -0,0 +1,243 @@
+package ijt.analysis.granulometry.monitor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import ijt.analysis.granulometry.GranulometryEvent;
+import ijt.analysis.granulometry.GranulometryListener;
+
+/**
+ * Collects the time spent in each stage of a batch granulometry, for each
+ * processed file, and writes them as a text report.
+ * 
+ * For each file, the report contains the decoding time, the conversion and
+ * enhancement time, the total time of morphological operations (including
+ * strel creation), the strel size with the longest operation, the total
+ * volume computation time, and an estimate of the peak working set. The
+ * report ends with the aggregated throughput.
+ * 
+ * @author David Legland
+ *
+ */
+public class PerformanceReport
+{
+	/**
+	 * The timings of the processing of a single file. Step timings are
+	 * accumulated by using the entry as listener of the granulometry
+	 * computation.
+	 */
+	public static class Entry implements GranulometryListener
+	{
+		String fileName;
+		long decodeTime = 0;
+		long enhanceTime = 0;
+		long morphoTime = 0;
+		long volumeTime = 0;
+		int slowestSize = 0;
+		long slowestTime = 0;
+		long workingSet = 0;
+		
+		Entry(String fileName)
+		{
+			this.fileName = fileName;
+		}
+
+		/**
+		 * @param nanos the time needed for reading and decoding the file
+		 */
+		public void setDecodeTime(long nanos)
+		{
+			this.decodeTime = nanos;
+		}
+
+		/**
+		 * @param nanos the time needed for converting and enhancing the image
+		 */
+		public void setEnhanceTime(long nanos)
+		{
+			this.enhanceTime = nanos;
+		}
+		
+		/**
+		 * @param bytes the estimated peak memory used for processing the file
+		 */
+		public void setWorkingSet(long bytes)
+		{
+			this.workingSet = bytes;
+		}
+		
+		@Override
+		public void stepStarted(GranulometryEvent evt)
+		{
+		}
+
+		@Override
+		public void stepFinished(GranulometryEvent evt)
+		{
+			long stepTime = evt.getStrelTime() + evt.getOperationTime();
+			morphoTime += stepTime;
+			volumeTime += evt.getVolumeTime();
+			if (stepTime > slowestTime)
+			{
+				slowestTime = stepTime;
+				slowestSize = evt.getSize();
+			}
+		}
+
+		@Override
+		public boolean isCancelRequested()
+		{
+			return false;
+		}
+		
+		/**
+		 * @return the name of the processed file
+		 */
+		public String getFileName()
+		{
+			return fileName;
+		}
+		
+		/**
+		 * @return the time needed for reading and decoding the file, in
+		 *         nanoseconds
+		 */
+		public long getDecodeTime()
+		{
+			return decodeTime;
+		}
+		
+		/**
+		 * @return the time needed for converting and enhancing the image, in
+		 *         nanoseconds
+		 */
+		public long getEnhanceTime()
+		{
+			return enhanceTime;
+		}
+		
+		/**
+		 * @return the total time of morphological operations, including
+		 *         strel creation, in nanoseconds
+		 */
+		public long getMorphoTime()
+		{
+			return morphoTime;
+		}
+		
+		/**
+		 * @return the total time of volume computations, in nanoseconds
+		 */
+		public long getVolumeTime()
+		{
+			return volumeTime;
+		}
+		
+		/**
+		 * @return the total time spent for processing the file, in
+		 *         nanoseconds
+		 */
+		public long totalTime()
+		{
+			return decodeTime + enhanceTime + morphoTime + volumeTime;
+		}
+	}
+	
+	ArrayList<Entry> entries = new ArrayList<Entry>();
+	long startTime;
+	long endTime;
+	
+	/**
+	 * Creates a new report, and starts the measurement of total time.
+	 */
+	public PerformanceReport()
+	{
+		this.startTime = System.nanoTime();
+		this.endTime = startTime;
+	}
+	
+	/**
+	 * Creates and registers the entry for a new file.
+	 * 
+	 * @param fileName
+	 *            the name of the processed file
+	 * @return the new entry
+	 */
+	public Entry addEntry(String fileName)
+	{
+		Entry entry = new Entry(fileName);
+		entries.add(entry);
+		return entry;
+	}
+	
+	/**
+	 * Removes the entry of a file whose processing was not completed, so
+	 * that it is not counted within the report.
+	 * 
+	 * @param entry
+	 *            the entry to remove
+	 */
+	public void removeEntry(Entry entry)
+	{
+		entries.remove(entry);
+	}
+	
+	/**
+	 * @return the entries of the processed files, in processing order
+	 */
+	public List<Entry> getEntries()
+	{
+		return Collections.unmodifiableList(entries);
+	}
+	
+	/**
+	 * Stops the measurement of total time.
+	 */
+	public void finish()
+	{
+		this.endTime = System.nanoTime();
+	}
+	
+	/**
+	 * Writes the report into a text file.
+	 * 
+	 * @param file
+	 *            the file to write in
+	 * @throws IOException
+	 *             if an error occurs during writing
+	 */
+	public void write(File file) throws IOException
+	{
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		
+		writer.println("name\tdecodeMs\tenhanceMs\tmorphoMs\tslowestSize\tslowestMs\tvolumeMs\ttotalMs\tworkingSetMB");
+		long sumTime = 0;
+		for (Entry entry : entries)
+		{
+			writer.println(String.format(Locale.US, "%s\t%.2f\t%.2f\t%.2f\t%d\t%.2f\t%.2f\t%.2f\t%.2f",
+					entry.fileName, entry.decodeTime / 1e6, entry.enhanceTime / 1e6, 
+					entry.morphoTime / 1e6, entry.slowestSize, entry.slowestTime / 1e6,
+					entry.volumeTime / 1e6, entry.totalTime() / 1e6,
+					entry.workingSet / (1024.0 * 1024.0)));
+			sumTime += entry.totalTime();
+		}
+		
+		int nFiles = entries.size();
+		double seconds = (endTime - startTime) / 1e9;
+		writer.println();
+		writer.println("Processed files:     " + nFiles);
+		writer.println(String.format(Locale.US, "Elapsed time:        %.3f s", seconds));
+		writer.println(String.format(Locale.US, "Processing time:     %.3f s", sumTime / 1e9));
+		writer.println(String.format(Locale.US, "Throughput:          %.3f images/s", 
+				seconds > 0 ? nFiles / seconds : 0));
+		
+		writer.close();
+	}
+}
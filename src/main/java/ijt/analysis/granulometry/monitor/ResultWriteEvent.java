@@ -0,0 +1,26 @@
+package ijt.analysis.granulometry.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event corresponding to the writing of a result file.
+ * 
+ * @author David Legland
+ *
+ */
+@Name("ijt.granulometry.ResultWrite")
+@Label("Result Write")
+@Category("Granulometry")
+@Description("Writing of a result file")
+public class ResultWriteEvent extends Event
+{
+	@Label("File Name")
+	public String fileName;
+	
+	@Label("Row Count")
+	public int rowCount;
+}
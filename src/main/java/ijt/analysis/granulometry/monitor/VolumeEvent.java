@@ -0,0 +1,47 @@
+package ijt.analysis.granulometry.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event corresponding to the computation of the gray level
+ * volume of the result of a morphological operation.
+ * 
+ * @author David Legland
+ *
+ */
+@Name("ijt.granulometry.Volume")
+@Label("Volume Reduction")
+@Category("Granulometry")
+@Description("Computation of the gray level volume of a transformed image")
+public class VolumeEvent extends Event
+{
+	@Label("File Name")
+	public String fileName;
+	
+	@Label("Strel Size")
+	public int size;
+	
+	/**
+	 * Creates and starts a new event, tagged with the name of the file
+	 * currently processed by the calling thread.
+	 * 
+	 * @param size
+	 *            the size of the structuring element
+	 * @return the started event
+	 */
+	public static final VolumeEvent start(int size)
+	{
+		VolumeEvent event = new VolumeEvent();
+		if (event.isEnabled())
+		{
+			event.fileName = GranulometryMonitor.currentFile();
+			event.size = size;
+		}
+		event.begin();
+		return event;
+	}
+}
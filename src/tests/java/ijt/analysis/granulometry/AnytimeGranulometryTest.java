@@ -0,0 +1,101 @@
+package ijt.analysis.granulometry;
+
+import static org.junit.Assert.*;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.AnytimeGranulometry.Curve;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class AnytimeGranulometryTest
+{
+	@Test
+	public void testVolumeCurve_zeroBudget()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+
+		// the deadline expires before the first step, the curve contains
+		// only the original image
+		Curve curve = AnytimeGranulometry.volumeCurve(image, Morphology.Operation.CLOSING,
+				Strel.Shape.SQUARE, SizeType.RADIUS, 20, 0, null);
+		assertFalse(curve.isComplete());
+		assertArrayEquals(new int[] {0}, curve.getSizes());
+		assertEquals(GrayscaleGranulometry.imageVolume(image), curve.getVolumes()[0], 1e-6);
+		assertTrue(curve.isExact(0));
+
+		ResultsTable table = curve.getVolumeTable();
+		assertEquals(1, table.getCounter());
+		assertEquals(1, table.getValue("Exact", 0), 0);
+
+		// a single size does not define any interval
+		ResultsTable granulo = curve.getGranulometry();
+		assertEquals(0, granulo.getCounter());
+	}
+
+	@Test
+	public void testVolumeCurve_refinement()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+
+		final ArrayList<Curve> curves = new ArrayList<Curve>();
+		AnytimeGranulometry.CurveListener listener = new AnytimeGranulometry.CurveListener()
+		{
+			@Override
+			public void curveRefined(Curve curve)
+			{
+				curves.add(curve);
+			}
+		};
+		int sizeMax = 8;
+		Curve curve = AnytimeGranulometry.volumeCurve(image, Morphology.Operation.CLOSING,
+				Strel.Shape.SQUARE, SizeType.RADIUS, sizeMax, 600000, listener);
+		assertTrue(curve.isComplete());
+		assertTrue(curves.size() >= 3);
+		assertSame(curve, curves.get(curves.size() - 1));
+
+		// the coarse curve is computed on the pyramid for large sizes
+		ResultsTable coarse = curves.get(0).getVolumeTable();
+		assertEquals(5, coarse.getCounter());
+		assertEquals(1, coarse.getValue("Exact", 2), 0);
+		assertEquals(4, coarse.getValue("Radius", 3), 0);
+		assertEquals(0, coarse.getValue("Exact", 3), 0);
+		assertEquals(0, coarse.getValue("Exact", 4), 0);
+
+		// the second stage computes the same sizes on the original image
+		ResultsTable exact = curves.get(1).getVolumeTable();
+		assertEquals(5, exact.getCounter());
+		for (int i = 0; i < exact.getCounter(); i++)
+		{
+			assertEquals(1, exact.getValue("Exact", i), 0);
+		}
+		// sizes below the switchover size keep the volumes of the pyramid
+		for (int i = 0; i < 3; i++)
+		{
+			assertEquals(coarse.getValue("Volume", i), exact.getValue("Volume", i), 0);
+		}
+
+		// the final curve contains all the sizes, with exact volumes
+		int[] sizes = GrayscaleGranulometry.createSizes(0, 1, sizeMax);
+		double[] expected = GrayscaleGranulometry.volumeCurve(image, Morphology.Operation.CLOSING,
+				Strel.Shape.SQUARE, SizeType.RADIUS, sizes, null);
+		ResultsTable table = curve.getVolumeTable();
+		assertEquals(sizeMax + 1, table.getCounter());
+		for (int i = 0; i <= sizeMax; i++)
+		{
+			assertEquals(i, table.getValue("Radius", i), 0);
+			assertEquals(1, table.getValue("Exact", i), 0);
+			assertEquals(expected[i], table.getValue("Volume", i), .1);
+		}
+		assertEquals(sizeMax, curve.getGranulometry().getCounter());
+	}
+}
@@ -0,0 +1,74 @@
+package ijt.analysis.granulometry;
+
+import static org.junit.Assert.*;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+import org.junit.Test;
+
+public class DominantSizeListenerTest
+{
+	@Test
+	public void testSizeMap_twoDisks()
+	{
+		// two bright disks with radius 3 and 8 on a dark background
+		ImageProcessor smallDisk = createDisk(100, 80, 25, 25, 3);
+		ImageProcessor largeDisk = createDisk(100, 80, 70, 40, 8);
+		ImageProcessor image = new ByteProcessor(100, 80);
+		for (int i = 0; i < image.getPixelCount(); i++)
+		{
+			image.set(i, Math.max(smallDisk.get(i), largeDisk.get(i)));
+		}
+
+		DominantSizeListener listener = new DominantSizeListener(image);
+		GrayscaleGranulometry.radiusGranulometry(image, Operation.OPENING,
+				Strel.Shape.DISK, 12, 1, listener);
+		ImageProcessor sizeMap = listener.getSizeMap();
+		ImageProcessor residueMap = listener.getResidueMap();
+
+		// each disk vanishes when the radius of the strel exceeds its own
+		assertEquals(4, sizeMap.getf(25, 25), 0);
+		assertEquals(200, residueMap.getf(25, 25), 0);
+		assertEquals(9, sizeMap.getf(70, 40), 0);
+		assertEquals(200, residueMap.getf(70, 40), 0);
+
+		// border pixels of disks may vanish earlier, but not later
+		for (int i = 0; i < image.getPixelCount(); i++)
+		{
+			if (smallDisk.get(i) > 0)
+			{
+				assertTrue(sizeMap.getf(i) >= 2 && sizeMap.getf(i) <= 4);
+				assertEquals(200, residueMap.getf(i), 0);
+			}
+			else if (largeDisk.get(i) > 0)
+			{
+				assertTrue(sizeMap.getf(i) >= 2 && sizeMap.getf(i) <= 9);
+				assertEquals(200, residueMap.getf(i), 0);
+			}
+			else
+			{
+				// background does not change
+				assertEquals(0, sizeMap.getf(i), 0);
+				assertEquals(0, residueMap.getf(i), 0);
+			}
+		}
+	}
+
+	/**
+	 * Creates a disk with value 200, with the same shape as the structuring
+	 * element of the given radius.
+	 */
+	private static final ImageProcessor createDisk(int width, int height,
+			int x0, int y0, int radius)
+	{
+		ImageProcessor image = new ByteProcessor(width, height);
+		image.set(x0, y0, 200);
+		Strel strel = Strel.Shape.DISK.fromRadius(radius);
+		strel.showProgress(false);
+		return Morphology.dilation(image, strel);
+	}
+}
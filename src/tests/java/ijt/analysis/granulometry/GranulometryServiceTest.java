@@ -0,0 +1,95 @@
+package ijt.analysis.granulometry;
+
+import static org.junit.Assert.*;
+
+import ij.IJ;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.Test;
+
+public class GranulometryServiceTest
+{
+	@Test
+	public void testJob() throws Exception
+	{
+		GranulometryService service = new GranulometryService(0, 2);
+		service.start();
+		try
+		{
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), service.getPort());
+			PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			
+			String path = getClass().getResource("/images/euroCoins_gray8.png").getFile();
+			writer.println("JOB\tjob1\tdiameter=5\tstep=2");
+			writer.println(path);
+			writer.println("END");
+			writer.println("QUIT");
+			
+			assertEquals("ACCEPTED\tjob1\t1", reader.readLine());
+			assertEquals("COLUMNS\tjob1\t1\t3\t5", reader.readLine());
+			String[] tokens = reader.readLine().split("\t");
+			assertEquals("ROW", tokens[0]);
+			assertEquals("euroCoins_gray8.png", tokens[2]);
+			assertEquals(6, tokens.length);
+			assertEquals("DONE\tjob1\t1\t0", reader.readLine());
+			assertNull(reader.readLine());
+			socket.close();
+		}
+		finally
+		{
+			service.stop();
+		}
+		assertEquals(1, service.getProcessedCount());
+	}
+	
+	@Test
+	public void testJob_labelWithSpaces() throws Exception
+	{
+		GranulometryService service = new GranulometryService(0, 1);
+		service.start();
+		try
+		{
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), service.getPort());
+			PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			
+			String path = getClass().getResource("/images/euroCoins_gray8.png").getFile();
+			writer.println("JOB\tjob2\telement=" + Strel.Shape.LINE_HORIZ + "\tdiameter=7\tstep=3");
+			writer.println(path);
+			writer.println("END");
+			writer.println("QUIT");
+			
+			assertEquals("ACCEPTED\tjob2\t1", reader.readLine());
+			assertEquals("COLUMNS\tjob2\t1\t4\t7", reader.readLine());
+			String[] tokens = reader.readLine().split("\t");
+			assertEquals("ROW", tokens[0]);
+			assertEquals(6, tokens.length);
+			
+			// the volume curve is the same as the one computed locally
+			ImageProcessor image = IJ.openImage(path).getProcessor();
+			double[] volumes = GrayscaleGranulometry.volumeCurve(image, Morphology.Operation.CLOSING,
+					Strel.Shape.LINE_HORIZ, SizeType.DIAMETER, new int[] {4, 7}, null);
+			for (int i = 0; i < volumes.length; i++)
+			{
+				assertEquals(volumes[i], Double.parseDouble(tokens[i + 3]), 1e-6);
+			}
+			assertEquals("DONE\tjob2\t1\t0", reader.readLine());
+			assertNull(reader.readLine());
+			socket.close();
+		}
+		finally
+		{
+			service.stop();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package ijt.analysis.granulometry;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GranulometryStatsTest
+{
+	@Test
+	public void testCompute_parallelBlocks()
+	{
+		// enough rows for splitting the computation into several blocks
+		int nRows = 3 * GranulometryStats.MIN_BLOCK_SIZE + 17;
+		double[] sizes = new double[] {1, 3, 5, 7, 9, 11, 13};
+		GranulometryResult granulo = new GranulometryResult(sizes);
+		Random random = new Random(12);
+		for (int r = 0; r < nRows; r++)
+		{
+			double[] freqs = new double[sizes.length];
+			for (int c = 0; c < sizes.length; c++)
+			{
+				freqs[c] = random.nextDouble() * 100;
+			}
+			granulo.addRow("row" + r, freqs);
+		}
+		
+		GranulometryResult sequential = GranulometryStats.compute(granulo, 1);
+		GranulometryResult parallel = GranulometryStats.compute(granulo, 4);
+		assertEquals(nRows, parallel.getRowCount());
+		assertEquals(GranulometryStats.STAT_NAMES.length, parallel.getColumnCount());
+		for (int r = 0; r < nRows; r++)
+		{
+			assertEquals(sequential.getLabel(r), parallel.getLabel(r));
+			assertArrayEquals(sequential.getRow(r), parallel.getRow(r), 0);
+		}
+		
+		// rows of inner blocks match the statistics of a single curve
+		int r = nRows / 2;
+		assertArrayEquals(GranulometryStats.computeRow(granulo.getRow(r), sizes),
+				parallel.getRow(r), 1e-12);
+	}
+
+	@Test
+	public void testComputeRow_percentilesInFirstInterval()
+	{
+		// the first size corresponds to the interval between 1 and 3
+		double[] sizes = new double[] {3, 5, 7};
+		double[] stats = GranulometryStats.computeRow(new double[] {50, 30, 20}, sizes);
+
+		// D10, D50 (median) and D90
+		assertEquals(1.4, stats[5], 1e-10);
+		assertEquals(3, stats[6], 1e-10);
+		assertEquals(6, stats[7], 1e-10);
+	}
+}
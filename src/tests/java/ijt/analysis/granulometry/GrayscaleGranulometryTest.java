@@ -4,9 +4,15 @@ import static org.junit.Assert.*;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.Roi;
 import ij.measure.ResultsTable;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
 import inra.ijpb.morphology.Strel;
 
 import java.io.File;
@@ -27,6 +33,213 @@ public class GrayscaleGranulometryTest
 		assertEquals(17, res.getCounter());
 	}
 	
+	@Test
+	public void testRadiusGranulometryAll_euroCoins()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		ResultsTable res = GrayscaleGranulometry.radiusGranulometryAll(image,
+				Strel.Shape.SQUARE, 20, 5);
+		assertEquals(5, res.getCounter());
+		
+		// closing should give the same result as the dedicated computation
+		ResultsTable closing = GrayscaleGranulometry.radiusGranulometry(image,
+				Operation.CLOSING, Strel.Shape.SQUARE, 20, 5);
+		for (int i = 0; i < 5; i++)
+		{
+			assertEquals(closing.getValue("Volume", i), res.getValue("Closing", i), .1);
+		}
+		
+		// opening is anti-extensive, closing is extensive
+		double vol0 = res.getValue("Opening", 0);
+		assertTrue(res.getValue("Opening", 4) <= vol0);
+		assertTrue(res.getValue("Closing", 4) >= vol0);
+	}
+	
+	@Test
+	public void testVolumeCurveWithMask_euroCoins()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		// a rectangular region within the image
+		Roi roi = new Roi(40, 30, 60, 50);
+		ImageProcessor mask = GrayscaleGranulometry.createMask(roi, image.getWidth(), image.getHeight());
+		
+		int[] radiusList = GrayscaleGranulometry.createSizes(0, 4, 3);
+		double[] volumes = GrayscaleGranulometry.volumeCurve(image, mask,
+				Morphology.Operation.CLOSING, Strel.Shape.SQUARE, SizeType.RADIUS, radiusList, null);
+		assertEquals(4, volumes.length);
+		
+		// cropping should not change the values within the mask
+		assertEquals(GrayscaleGranulometry.imageVolume(image, mask), volumes[0], .1);
+		for (int i = 0; i < radiusList.length; i++)
+		{
+			Strel strel = Strel.Shape.SQUARE.fromRadius(radiusList[i]);
+			ImageProcessor closed = Morphology.closing(image, strel);
+			assertEquals(GrayscaleGranulometry.imageVolume(closed, mask), volumes[i + 1], .1);
+		}
+	}
+	
+	@Test
+	public void testLabelVolumeCurves_euroCoins()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		// split the image into left and right regions
+		int width = image.getWidth();
+		int height = image.getHeight();
+		ImageProcessor labelImage = new ByteProcessor(width, height);
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				labelImage.set(x, y, x < width / 2 ? 1 : 2);
+			}
+		}
+		
+		int[] radiusList = GrayscaleGranulometry.createSizes(0, 4, 3);
+		double[][] volumes = GrayscaleGranulometry.labelVolumeCurves(image, labelImage, 
+				new int[] {1, 2}, Morphology.Operation.OPENING, Strel.Shape.SQUARE, 
+				SizeType.RADIUS, radiusList, null);
+		double[] totals = GrayscaleGranulometry.volumeCurve(image,
+				Morphology.Operation.OPENING, Strel.Shape.SQUARE, SizeType.RADIUS, radiusList, null);
+		
+		// the volumes of the regions should sum to the volume of the image
+		assertEquals(2, volumes.length);
+		for (int i = 0; i < totals.length; i++)
+		{
+			assertEquals(totals[i], volumes[0][i] + volumes[1][i], .1);
+		}
+	}
+	
+	@Test
+	public void testAdaptiveGranulometry_euroCoins()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		ResultsTable res = AdaptiveGranulometry.adaptiveGranulometry(image,
+				Morphology.Operation.CLOSING, Strel.Shape.SQUARE, SizeType.RADIUS, 40, null);
+		assertTrue(res.getCounter() > 2);
+		assertTrue(res.getCounter() <= 41);
+		
+		// sizes are sorted, and volumes are the same as with regular sampling
+		for (int i = 1; i < res.getCounter(); i++)
+		{
+			int radius = (int) res.getValue("Radius", i);
+			assertTrue(radius > res.getValue("Radius", i - 1));
+			double[] volumes = GrayscaleGranulometry.volumeCurve(image, Morphology.Operation.CLOSING, 
+					Strel.Shape.SQUARE, SizeType.RADIUS, new int[] {radius}, null);
+			assertEquals(volumes[1], res.getValue("Volume", i), .1);
+		}
+		
+		// derivative contains one row per interval, and sums to 100%
+		ResultsTable granulo = GrayscaleGranulometry.derivate(res);
+		assertEquals(res.getCounter() - 1, granulo.getCounter());
+		double sum = 0;
+		for (int i = 0; i < granulo.getCounter(); i++)
+			sum += granulo.getValue("Variation", i);
+		assertEquals(100, sum, .01);
+	}
+	
+	@Test
+	public void testGranuloStats_result()
+	{
+		double[] volumes = new double[] {100, 90, 60, 50, 45, 40};
+		GranulometryResult volumeResult = new GranulometryResult(new double[] {1, 3, 5, 7, 9, 11});
+		volumeResult.addRow("img1", volumes);
+		volumeResult.addRow("img2", new double[] {100, 100, 80, 40, 20, 0});
+		
+		GranulometryResult granulo = GrayscaleGranulometry.derivate(volumeResult);
+		assertEquals(2, granulo.getRowCount());
+		assertEquals(5, granulo.getColumnCount());
+		assertEquals(3, granulo.getSizes()[0], 1e-10);
+		assertArrayEquals(GrayscaleGranulometry.derivate(volumes), granulo.getRow(0), 1e-10);
+		
+		GranulometryResult stats = GrayscaleGranulometry.granuloStats(granulo);
+		assertEquals(2, stats.getRowCount());
+		assertEquals("img2", stats.getLabel(1));
+		
+		// mean of second row: (20*5 + 40*7 + 20*9 + 20*11) / 100
+		assertEquals(7.8, stats.getValue(1, 0), 1e-10);
+		
+		// variance: (20*2.8^2 + 40*0.8^2 + 20*1.2^2 + 20*3.2^2) / 100
+		assertEquals(Math.sqrt(4.16), stats.getValue(1, 1), 1e-10);
+		
+		// geometric mean: (5^20 * 7^40 * 9^20 * 11^20)^(1/100)
+		assertEquals(Math.pow(5 * 49 * 9 * 11, 0.2), stats.getValue(1, 2), 1e-10);
+		
+		// skewness: (20*(-2.8)^3 + 40*(-0.8)^3 + 20*1.2^3 + 20*3.2^3) / 100
+		// divided by the cube of the standard deviation
+		assertEquals(2.304 / Math.pow(4.16, 1.5), stats.getValue(1, 3), 1e-10);
+		
+		// mode and percentiles, interpolated within the size intervals
+		assertEquals(7, stats.getValue(1, 4), 1e-10);
+		assertEquals(4, stats.getValue(1, 5), 1e-10);
+		assertEquals(6.5, stats.getValue(1, 6), 1e-10);
+		assertEquals(10, stats.getValue(1, 7), 1e-10);
+	}
+	
+	@Test
+	public void testIntensityReducer_euroCoins()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+		
+		int[] sizes = new int[] {2, 4, 6};
+		IntensityReducer reducer = new IntensityReducer(16, 0, 256, new double[] {100});
+		double[] volumes = GrayscaleGranulometry.volumeCurve(image, null, Morphology.Operation.CLOSING,
+				Strel.Shape.SQUARE, SizeType.RADIUS, sizes, reducer, null);
+		double[] expected = GrayscaleGranulometry.volumeCurve(image, Morphology.Operation.CLOSING,
+				Strel.Shape.SQUARE, SizeType.RADIUS, sizes, null);
+		assertArrayEquals(expected, volumes, .1);
+		
+		// one row per step, including the original image
+		GranulometryResult stats = reducer.getStatistics();
+		assertEquals(4, stats.getRowCount());
+		assertEquals("0", stats.getLabel(0));
+		assertEquals(expected[3], stats.getValue(3, 0), .1);
+		
+		// histograms contain all the pixels
+		GranulometryResult histograms = reducer.getHistograms();
+		double sum = 0;
+		for (double count : histograms.getRow(2))
+			sum += count;
+		assertEquals(image.getPixelCount(), sum, .1);
+		
+		// closing increases the number of bright pixels
+		assertTrue(stats.getValue(3, 6) >= stats.getValue(0, 6));
+	}
+	
+	@Test
+	public void testImageVolume_nativeTypes()
+	{
+		int width = 30;
+		int height = 20;
+		ImageProcessor image8 = new ByteProcessor(width, height);
+		ImageProcessor image16 = new ShortProcessor(width, height);
+		ImageProcessor image32 = new FloatProcessor(width, height);
+		double expected = 0;
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				int value = (x * 7 + y * 13) % 250;
+				image8.set(x, y, value);
+				image16.set(x, y, value * 200);
+				image32.setf(x, y, value * .5f);
+				expected += value;
+			}
+		}
+		
+		assertEquals(expected, GrayscaleGranulometry.imageVolume(image8), 1e-6);
+		assertEquals(expected * 200, GrayscaleGranulometry.imageVolume(image16), 1e-6);
+		assertEquals(expected * .5, GrayscaleGranulometry.imageVolume(image32), 1e-3);
+	}
+	
 	@Test
 	public void testListTiffFiles()
 	{
@@ -0,0 +1,101 @@
+package ijt.analysis.granulometry;
+
+import static org.junit.Assert.*;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+import org.junit.Test;
+
+public class LocalGranulometryTest
+{
+	@Test
+	public void testLocalGranuloStats_euroCoins()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+
+		// a window larger than the image covers the whole image for every
+		// pixel, so that local statistics are those of the global curve
+		int[] sizes = new int[] {2, 4, 6, 8};
+		ImageStack stats = LocalGranulometry.localGranuloStats(image, Morphology.Operation.CLOSING,
+				Strel.Shape.SQUARE, SizeType.RADIUS, sizes, 1000, null);
+		assertEquals(3, stats.getSize());
+
+		double[] volumes = GrayscaleGranulometry.volumeCurve(image, Morphology.Operation.CLOSING,
+				Strel.Shape.SQUARE, SizeType.RADIUS, sizes, null);
+		double sum0 = 0, sum1 = 0, sum2 = 0, sumLog = 0;
+		for (int i = 0; i < sizes.length; i++)
+		{
+			double diff = volumes[i + 1] - volumes[i];
+			sum0 += diff;
+			sum1 += diff * sizes[i];
+			sum2 += diff * sizes[i] * sizes[i];
+			sumLog += diff * Math.log(sizes[i]);
+		}
+		double mean = sum1 / sum0;
+		double std = Math.sqrt(sum2 / sum0 - mean * mean);
+		double geommean = Math.exp(sumLog / sum0);
+
+		for (int[] pos : new int[][] {{0, 0}, {425, 250}, {849, 499}})
+		{
+			assertEquals(mean, stats.getProcessor(1).getf(pos[0], pos[1]), 1e-4);
+			assertEquals(std, stats.getProcessor(2).getf(pos[0], pos[1]), 1e-4);
+			assertEquals(geommean, stats.getProcessor(3).getf(pos[0], pos[1]), 1e-4);
+		}
+	}
+
+	@Test
+	public void testLocalGranulometry_euroCoins()
+	{
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image = imagePlus.getProcessor();
+
+		int[] sizes = new int[] {2, 4, 6};
+		int radius = 10;
+		ImageStack variations = LocalGranulometry.localGranulometry(image, Morphology.Operation.CLOSING,
+				Strel.Shape.SQUARE, SizeType.RADIUS, sizes, radius, null);
+		assertEquals(sizes.length, variations.getSize());
+
+		// the global curve of the window around a pixel
+		int x0 = 300, y0 = 200;
+		double[] volumes = new double[sizes.length + 1];
+		volumes[0] = windowVolume(image, x0, y0, radius);
+		for (int i = 0; i < sizes.length; i++)
+		{
+			Strel strel = Strel.Shape.SQUARE.fromRadius(sizes[i]);
+			ImageProcessor closed = Morphology.closing(image, strel);
+			volumes[i + 1] = windowVolume(closed, x0, y0, radius);
+		}
+		double total = volumes[sizes.length] - volumes[0];
+		assertTrue(total > 0);
+
+		double sum = 0;
+		for (int i = 0; i < sizes.length; i++)
+		{
+			double expected = 100 * (volumes[i + 1] - volumes[i]) / total;
+			double value = variations.getProcessor(i + 1).getf(x0, y0);
+			assertEquals(expected, value, 1e-3);
+			sum += value;
+		}
+		assertEquals(100, sum, 1e-3);
+	}
+
+	private static final double windowVolume(ImageProcessor image, int x0, int y0, int radius)
+	{
+		double sum = 0;
+		for (int y = y0 - radius; y <= y0 + radius; y++)
+		{
+			for (int x = x0 - radius; x <= x0 + radius; x++)
+			{
+				sum += image.getf(x, y);
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,44 @@
+package ijt.analysis.granulometry;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class NpyResultFileTest
+{
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		GranulometryResult result = new GranulometryResult(new double[] {1, 3, 5.5});
+		for (int r = 0; r < 20; r++)
+		{
+			result.addRow("img" + r, new double[] {r, r * 0.1, Math.PI * r});
+		}
+		
+		File file = File.createTempFile("granulo", ".npy");
+		File indexFile = NpyResultFile.indexFile(file);
+		try
+		{
+			NpyResultFile.write(result, file);
+			
+			// header is aligned, followed by 20 rows of 3 doubles
+			assertEquals(128 + 20 * 3 * 8, file.length());
+			
+			GranulometryResult res2 = NpyResultFile.read(file);
+			assertEquals(20, res2.getRowCount());
+			assertEquals("img19", res2.getLabel(19));
+			assertEquals(5.5, res2.getSizes()[2], 0);
+			assertArrayEquals(result.getRow(7), res2.getRow(7), 0);
+			
+			assertEquals(Math.PI * 19, NpyResultFile.mapValues(file).get(19 * 3 + 2), 0);
+		}
+		finally
+		{
+			file.delete();
+			indexFile.delete();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package ijt.analysis.granulometry;
+
+import static org.junit.Assert.*;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class PyramidGranulometryTest
+{
+	/**
+	 * The sides of the square grains of the test image, multiple of the
+	 * largest downsampling factor.
+	 */
+	static final int[] GRAIN_SIDES = new int[] {16, 40, 64};
+
+	@Test
+	public void testVolumeCurve_errorBound()
+	{
+		ImageProcessor image = createGrainImage();
+		int switchSize = 16;
+		int sizeMax = 80;
+
+		int[] sizes = GrayscaleGranulometry.createSizes(1, 1, sizeMax - 1);
+		double[] approx = PyramidGranulometry.volumeCurve(image, Morphology.Operation.OPENING,
+				Strel.Shape.SQUARE, SizeType.DIAMETER, sizes, switchSize, null);
+		assertEquals(sizes.length + 1, approx.length);
+
+		// exact volume for each diameter, up to the largest bound
+		int[] exactSizes = GrayscaleGranulometry.createSizes(0, 1, sizeMax + sizeMax / switchSize + 1);
+		double[] exact = GrayscaleGranulometry.volumeCurve(image, Morphology.Operation.OPENING,
+				Strel.Shape.SQUARE, SizeType.DIAMETER, exactSizes, null);
+		assertEquals(exact[0], approx[0], 1e-6);
+
+		for (int i = 0; i < sizes.length; i++)
+		{
+			int size = sizes[i];
+			if (size < switchSize)
+			{
+				// small sizes are computed on the original image
+				assertEquals(exact[size], approx[i + 1], 1e-3);
+				continue;
+			}
+
+			// the effective size is within size*(1 +/- 1/switchSize), and
+			// opening volumes decrease with size
+			int sizeLow = (int) Math.floor(size * (1 - 1.0 / switchSize));
+			int sizeHigh = (int) Math.ceil(size * (1 + 1.0 / switchSize));
+			assertTrue("Size " + size, approx[i + 1] <= exact[sizeLow] + 1e-3);
+			assertTrue("Size " + size, approx[i + 1] >= exact[sizeHigh] - 1e-3);
+		}
+	}
+
+	@Test
+	public void testEstimateError()
+	{
+		ImageProcessor image = createGrainImage();
+		Morphology.Operation op = Morphology.Operation.OPENING;
+
+		// a diameter of 40 is processed with a factor 4, and scaled sizes
+		// are rounded to the exact grain size
+		assertEquals(0, PyramidGranulometry.estimateError(image, op, Strel.Shape.SQUARE,
+				SizeType.DIAMETER, 40, 16), 1e-10);
+		assertEquals(0, PyramidGranulometry.estimateError(image, op, Strel.Shape.SQUARE,
+				SizeType.DIAMETER, 42, 16), 1e-10);
+
+		// a diameter of 41 is rounded to 40, and the pyramid keeps the
+		// grain of side 40 that is removed at full resolution
+		double area16 = 16 * 16, area40 = 40 * 40;
+		assertEquals(area40 / (area16 + area40), PyramidGranulometry.estimateError(image, op,
+				Strel.Shape.SQUARE, SizeType.DIAMETER, 41, 16), 1e-10);
+
+		// below the switchover size, the computation is exact
+		assertEquals(0, PyramidGranulometry.estimateError(image, op, Strel.Shape.SQUARE,
+				SizeType.DIAMETER, 20, 32), 1e-10);
+	}
+
+	@Test
+	public void testVolumeCurve_listenerSteps()
+	{
+		ImageProcessor image = createGrainImage();
+		int[] sizes = new int[] {4, 12, 20, 36, 70};
+
+		final ArrayList<GranulometryEvent> events = new ArrayList<GranulometryEvent>();
+		GranulometryListener listener = new GranulometryListener()
+		{
+			@Override
+			public void stepStarted(GranulometryEvent evt)
+			{
+			}
+
+			@Override
+			public void stepFinished(GranulometryEvent evt)
+			{
+				events.add(evt);
+			}
+
+			@Override
+			public boolean isCancelRequested()
+			{
+				return false;
+			}
+		};
+		PyramidGranulometry.volumeCurve(image, Morphology.Operation.OPENING,
+				Strel.Shape.SQUARE, SizeType.DIAMETER, sizes, 16, listener);
+
+		// steps are numbered over the whole curve, with the original sizes
+		assertEquals(sizes.length, events.size());
+		for (int i = 0; i < sizes.length; i++)
+		{
+			GranulometryEvent evt = events.get(i);
+			assertEquals(i, evt.getStepIndex());
+			assertEquals(sizes.length, evt.getStepCount());
+			assertEquals(sizes[i], evt.getSize());
+		}
+	}
+
+	/**
+	 * Creates an image containing bright square grains on a dark background,
+	 * aligned on multiples of 8 pixels, so that downsampling does not
+	 * introduce smoothing errors.
+	 */
+	private static final ImageProcessor createGrainImage()
+	{
+		ImageProcessor image = new ByteProcessor(192, 80);
+		int x0 = 8;
+		for (int side : GRAIN_SIDES)
+		{
+			for (int y = 8; y < 8 + side; y++)
+			{
+				for (int x = x0; x < x0 + side; x++)
+				{
+					image.set(x, y, 200);
+				}
+			}
+			x0 += side + 16;
+		}
+		return image;
+	}
+}
@@ -0,0 +1,129 @@
+package ijt.analysis.granulometry;
+
+import static org.junit.Assert.*;
+
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter.Enhancement;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import inra.ijpb.morphology.Strel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ShardedBatchTest
+{
+	@Test
+	public void testMerge() throws IOException
+	{
+		File dir = Files.createTempDirectory("shards").toFile();
+		try
+		{
+			File[] files = new File[5];
+			for (int i = 0; i < files.length; i++)
+			{
+				files[i] = new File(dir, "img" + i + ".tif");
+			}
+			File manifest = new File(dir, "manifest.txt");
+			ShardedBatch.writeManifest(files, manifest);
+			String basePath = new File(dir, "result").getAbsolutePath();
+			
+			// write partial volume files, as computed by two shards
+			GranulometryResult header = new GranulometryResult(new double[] {1, 3, 5});
+			for (int s = 0; s < 2; s++)
+			{
+				File[] shard = ShardedBatch.selectShard(files, s, 2);
+				PrintWriter writer = new PrintWriter(
+						new File(ShardedBatch.shardBasePath(basePath, s, 2) + ".vols.txt"));
+				header.writeHeader(writer);
+				for (int i = shard.length - 1; i >= 0; i--)
+				{
+					int index = Integer.parseInt(shard[i].getName().substring(3, 4));
+					GranulometryResult.writeRow(writer, shard[i].getName(), new double[] {10 + index, 6, 1});
+				}
+				writer.close();
+			}
+			assertEquals(3, ShardedBatch.selectShard(files, 0, 2).length);
+			
+			GranulometryResult[] results = ShardedBatch.merge(manifest, basePath, 2);
+			GranulometryResult volumes = results[0];
+			assertEquals(5, volumes.getRowCount());
+			assertEquals("img3.tif", volumes.getLabel(3));
+			assertEquals(13, volumes.getValue(3, 0), 1e-10);
+			assertEquals(2, results[1].getColumnCount());
+			
+			// merge fails if an image of the manifest was not processed
+			files = Arrays.copyOf(files, 6);
+			files[5] = new File(dir, "img5.tif");
+			ShardedBatch.writeManifest(files, manifest);
+			try
+			{
+				ShardedBatch.merge(manifest, basePath, 2);
+				fail("Merge should detect the missing image");
+			}
+			catch (IOException ex)
+			{
+			}
+		}
+		finally
+		{
+			deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void testComputeShard_headerMismatch() throws IOException
+	{
+		File dir = Files.createTempDirectory("shards").toFile();
+		try
+		{
+			File[] files = new File[] {new File(dir, "img0.tif")};
+			File manifest = new File(dir, "manifest.txt");
+			ShardedBatch.writeManifest(files, manifest);
+			String basePath = new File(dir, "result").getAbsolutePath();
+			
+			// partial volume file computed with three diameters
+			File volumeFile = new File(ShardedBatch.shardBasePath(basePath, 0, 1) + ".vols.txt");
+			PrintWriter writer = new PrintWriter(volumeFile);
+			new GranulometryResult(new double[] {1, 3, 5}).writeHeader(writer);
+			writer.close();
+			long length = volumeFile.length();
+			
+			// resuming with five diameters must fail before appending
+			try
+			{
+				ShardedBatch.computeShard(manifest, basePath, 0, 1, Operation.CLOSING,
+						Strel.Shape.SQUARE, 9, 2, Enhancement.NONE, false, 1, "pixel", null);
+				fail("Shard computation should detect the change of sizes");
+			}
+			catch (IOException ex)
+			{
+				assertTrue(ex.getMessage().contains("do not match"));
+			}
+			assertEquals(length, volumeFile.length());
+		}
+		finally
+		{
+			deleteDirectory(dir);
+		}
+	}
+	
+	/**
+	 * Deletes a directory containing only files.
+	 */
+	static final void deleteDirectory(File dir)
+	{
+		File[] files = dir.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,203 @@
+package ijt.analysis.granulometry;
+
+import static org.junit.Assert.*;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.Batch_Granulometry_By_Diameter.Enhancement;
+import ijt.analysis.granulometry.GrayscaleGranulometry.Operation;
+import inra.ijpb.morphology.Strel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class StreamingGranulometryTest
+{
+	@Test
+	public void testStart_settleAndResume() throws Exception
+	{
+		File imageDir = Files.createTempDirectory("images").toFile();
+		File resultDir = Files.createTempDirectory("results").toFile();
+		String basePath = new File(resultDir, "result").getAbsolutePath();
+		try
+		{
+			writeImage(imageDir, "img0.tif", 0);
+
+			// the image is processed only once it did not change during the
+			// settle time
+			StreamingGranulometry streaming = createStreaming(imageDir, 9, 2);
+			streaming.setSettleTime(1500);
+			streaming.start(basePath);
+			Thread.sleep(500);
+			assertEquals(0, streaming.getProcessedCount());
+			waitForCount(streaming, 1);
+			streaming.stop();
+
+			GranulometryResult volumes = GranulometryResult.readText(new File(basePath + ".vols.txt"));
+			assertEquals(1, volumes.getRowCount());
+			assertEquals("img0.tif", volumes.getLabel(0));
+			assertEquals(5, volumes.getColumnCount());
+
+			// after restart, only the new image is processed
+			writeImage(imageDir, "img1.tif", 1);
+			streaming = createStreaming(imageDir, 9, 2);
+			streaming.setSettleTime(0);
+			streaming.start(basePath);
+			waitForCount(streaming, 1);
+			Thread.sleep(1000);
+			streaming.stop();
+			assertEquals(1, streaming.getProcessedCount());
+
+			volumes = GranulometryResult.readText(new File(basePath + ".vols.txt"));
+			assertEquals(2, volumes.getRowCount());
+			assertEquals("img0.tif", volumes.getLabel(0));
+			assertEquals("img1.tif", volumes.getLabel(1));
+			assertEquals(2, GranulometryResult.readText(new File(basePath + ".gr.txt")).getRowCount());
+			assertEquals(2, GranulometryResult.readText(new File(basePath + ".stats.txt")).getRowCount());
+		}
+		finally
+		{
+			ShardedBatchTest.deleteDirectory(imageDir);
+			ShardedBatchTest.deleteDirectory(resultDir);
+		}
+	}
+
+	@Test
+	public void testStart_headerMismatch() throws Exception
+	{
+		File imageDir = Files.createTempDirectory("images").toFile();
+		File resultDir = Files.createTempDirectory("results").toFile();
+		String basePath = new File(resultDir, "result").getAbsolutePath();
+		try
+		{
+			// create the result files, without any image
+			StreamingGranulometry streaming = createStreaming(imageDir, 9, 2);
+			streaming.start(basePath);
+			streaming.stop();
+
+			// resuming with other sizes must fail
+			for (int[] params : new int[][] {{11, 2}, {9, 1}})
+			{
+				streaming = createStreaming(imageDir, params[0], params[1]);
+				try
+				{
+					streaming.start(basePath);
+					streaming.stop();
+					fail("Start should detect the change of sizes");
+				}
+				catch (IOException ex)
+				{
+				}
+			}
+
+			// resuming with the same sizes is accepted
+			streaming = createStreaming(imageDir, 9, 2);
+			streaming.start(basePath);
+			streaming.stop();
+		}
+		finally
+		{
+			ShardedBatchTest.deleteDirectory(imageDir);
+			ShardedBatchTest.deleteDirectory(resultDir);
+		}
+	}
+
+	@Test
+	public void testStop_keepsRemainingImages() throws Exception
+	{
+		File imageDir = Files.createTempDirectory("images").toFile();
+		File resultDir = Files.createTempDirectory("results").toFile();
+		String basePath = new File(resultDir, "result").getAbsolutePath();
+		int nImages = 4;
+		try
+		{
+			for (int i = 0; i < nImages; i++)
+			{
+				writeImage(imageDir, "img" + i + ".tif", i);
+			}
+
+			// stop while images are being processed
+			StreamingGranulometry streaming = createStreaming(imageDir, 41, 2);
+			streaming.setSettleTime(0);
+			streaming.start(basePath);
+			waitForCount(streaming, 1);
+			streaming.stop();
+			int count = streaming.getProcessedCount();
+
+			// interrupted images are not written into result files
+			GranulometryResult volumes = GranulometryResult.readText(new File(basePath + ".vols.txt"));
+			assertEquals(count, volumes.getRowCount());
+
+			// stopping twice has no effect
+			streaming.stop();
+
+			// remaining images are processed at next start, without
+			// duplicates
+			streaming = createStreaming(imageDir, 41, 2);
+			streaming.setSettleTime(0);
+			streaming.start(basePath);
+			waitForCount(streaming, nImages - count);
+			streaming.stop();
+
+			volumes = GranulometryResult.readText(new File(basePath + ".vols.txt"));
+			assertEquals(nImages, volumes.getRowCount());
+			Set<String> labels = new HashSet<String>();
+			for (int r = 0; r < volumes.getRowCount(); r++)
+			{
+				labels.add(volumes.getLabel(r));
+			}
+			assertEquals(nImages, labels.size());
+		}
+		finally
+		{
+			ShardedBatchTest.deleteDirectory(imageDir);
+			ShardedBatchTest.deleteDirectory(resultDir);
+		}
+	}
+
+	private static final StreamingGranulometry createStreaming(File dir, int diamMax, int step)
+	{
+		return new StreamingGranulometry(dir, ".tif", Operation.CLOSING,
+				Strel.Shape.SQUARE, diamMax, step, Enhancement.NONE, false, 1, "pixel");
+	}
+
+	/**
+	 * Waits until the given number of images has been processed, and fails
+	 * after a time out.
+	 */
+	private static final void waitForCount(StreamingGranulometry streaming, int count)
+			throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 30000;
+		while (streaming.getProcessedCount() < count)
+		{
+			if (System.currentTimeMillis() > deadline)
+			{
+				fail("Images were not processed in time");
+			}
+			Thread.sleep(50);
+		}
+	}
+
+	/**
+	 * Writes a random 8-bit image into the directory.
+	 */
+	private static final void writeImage(File dir, String name, int seed)
+	{
+		Random random = new Random(seed);
+		ImageProcessor image = new ByteProcessor(200, 150);
+		for (int i = 0; i < image.getPixelCount(); i++)
+		{
+			image.set(i, random.nextInt(256));
+		}
+		IJ.saveAs(new ImagePlus(name, image), "tiff", new File(dir, name).getAbsolutePath());
+	}
+}
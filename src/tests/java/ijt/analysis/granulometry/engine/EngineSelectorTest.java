@@ -0,0 +1,176 @@
+package ijt.analysis.granulometry.engine;
+
+import static org.junit.Assert.*;
+
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class EngineSelectorTest
+{
+	@Test
+	public void testCalibration() throws IOException
+	{
+		// an engine slower than the default one, applicable only to 8-bit images
+		final int[] nCalls = new int[1];
+		GranulometryEngine slowEngine = new MorphoLibJEngine()
+		{
+			@Override
+			public String getName()
+			{
+				return "Slow";
+			}
+			
+			@Override
+			public boolean isApplicable(int bitDepth, Morphology.Operation op,
+					Strel.Shape shape, SizeType sizeType, int size)
+			{
+				return bitDepth == 8;
+			}
+			
+			@Override
+			public ImageProcessor apply(ImageProcessor image, Morphology.Operation op,
+					Strel.Shape shape, SizeType sizeType, int size)
+			{
+				nCalls[0]++;
+				try
+				{
+					Thread.sleep(20);
+				}
+				catch (InterruptedException ex)
+				{
+				}
+				return super.apply(image, op, shape, sizeType, size);
+			}
+		};
+		List<GranulometryEngine> engines = new ArrayList<GranulometryEngine>();
+		engines.add(new MorphoLibJEngine());
+		engines.add(slowEngine);
+		
+		File cacheFile = File.createTempFile("engines", ".properties");
+		cacheFile.delete();
+		try
+		{
+			EngineSelector selector = new EngineSelector(engines, cacheFile);
+			Morphology.Operation op = Morphology.Operation.CLOSING;
+			GranulometryEngine engine = selector.select(8, op, Strel.Shape.SQUARE, SizeType.DIAMETER, 5);
+			assertEquals(MorphoLibJEngine.NAME, engine.getName());
+			assertTrue(nCalls[0] > 0);
+			assertTrue(cacheFile.exists());
+			
+			// only one applicable engine, no calibration
+			nCalls[0] = 0;
+			selector.select(16, op, Strel.Shape.SQUARE, SizeType.DIAMETER, 5);
+			assertEquals(0, nCalls[0]);
+			
+			// calibration is read from the cache file
+			selector = new EngineSelector(engines, cacheFile);
+			engine = selector.select(8, op, Strel.Shape.SQUARE, SizeType.DIAMETER, 6);
+			assertEquals(MorphoLibJEngine.NAME, engine.getName());
+			assertEquals(0, nCalls[0]);
+		}
+		finally
+		{
+			cacheFile.delete();
+		}
+	}
+	
+	@Test
+	public void testFixedEngine() throws IOException
+	{
+		final int[] nCalls = new int[1];
+		GranulometryEngine slowEngine = new MorphoLibJEngine()
+		{
+			@Override
+			public String getName()
+			{
+				return "Slow";
+			}
+			
+			@Override
+			public boolean isApplicable(int bitDepth, Morphology.Operation op,
+					Strel.Shape shape, SizeType sizeType, int size)
+			{
+				return bitDepth == 8;
+			}
+			
+			@Override
+			public ImageProcessor apply(ImageProcessor image, Morphology.Operation op,
+					Strel.Shape shape, SizeType sizeType, int size)
+			{
+				nCalls[0]++;
+				return super.apply(image, op, shape, sizeType, size);
+			}
+		};
+		List<GranulometryEngine> engines = new ArrayList<GranulometryEngine>();
+		engines.add(new MorphoLibJEngine());
+		engines.add(slowEngine);
+		
+		File cacheFile = File.createTempFile("engines", ".properties");
+		cacheFile.delete();
+		try
+		{
+			// the fixed engine is used without calibration
+			EngineSelector selector = new EngineSelector(engines, cacheFile);
+			selector.setFixedEngine(slowEngine);
+			Morphology.Operation op = Morphology.Operation.CLOSING;
+			GranulometryEngine engine = selector.select(8, op, Strel.Shape.SQUARE, SizeType.DIAMETER, 5);
+			assertSame(slowEngine, engine);
+			assertEquals(0, nCalls[0]);
+			assertFalse(cacheFile.exists());
+			
+			// other steps use the first applicable engine
+			engine = selector.select(16, op, Strel.Shape.SQUARE, SizeType.DIAMETER, 5);
+			assertEquals(MorphoLibJEngine.NAME, engine.getName());
+			
+			// removing the fixed engine restores calibration
+			selector.setFixedEngine(null);
+			selector.select(8, op, Strel.Shape.SQUARE, SizeType.DIAMETER, 5);
+			assertTrue(nCalls[0] > 0);
+			assertTrue(cacheFile.exists());
+		}
+		finally
+		{
+			cacheFile.delete();
+		}
+	}
+	
+	@Test
+	public void testGetDefault_calibrationDisabled()
+	{
+		String engineName = System.clearProperty(EngineSelector.ENGINE_PROPERTY);
+		boolean calibrationEnabled = EngineSelector.isCalibrationEnabled();
+		try
+		{
+			// library calls use the MorphoLibJ engine, without calibration
+			EngineSelector.setCalibrationEnabled(false);
+			EngineSelector.setDefault(null);
+			EngineSelector selector = EngineSelector.getDefault();
+			assertEquals(MorphoLibJEngine.NAME, selector.getFixedEngine().getName());
+			assertNull(selector.cacheFile);
+			
+			// the system property takes precedence over calibration
+			System.setProperty(EngineSelector.ENGINE_PROPERTY, MorphoLibJEngine.NAME);
+			EngineSelector.setCalibrationEnabled(true);
+			selector = EngineSelector.getDefault();
+			assertEquals(MorphoLibJEngine.NAME, selector.getFixedEngine().getName());
+		}
+		finally
+		{
+			if (engineName != null)
+				System.setProperty(EngineSelector.ENGINE_PROPERTY, engineName);
+			else
+				System.clearProperty(EngineSelector.ENGINE_PROPERTY);
+			EngineSelector.setCalibrationEnabled(calibrationEnabled);
+			EngineSelector.setDefault(null);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package ijt.analysis.granulometry.engine;
+
+import static org.junit.Assert.*;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import ijt.analysis.granulometry.GrayscaleGranulometry.SizeType;
+import inra.ijpb.morphology.Morphology;
+import inra.ijpb.morphology.Strel;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class SeparableMinMaxEngineTest
+{
+	@Test
+	public void testApply_euroCoins()
+	{
+		// a crop keeps the test fast, and contains structures at borders
+		ImagePlus imagePlus = IJ.openImage(getClass().getResource("/images/euroCoins_gray8.png").getFile());
+		ImageProcessor image8 = imagePlus.getProcessor();
+		image8.setRoi(300, 200, 200, 150);
+		image8 = image8.crop();
+		ImageProcessor image16 = image8.convertToShort(false);
+		image16.multiply(200);
+		ImageProcessor image32 = image8.convertToFloat();
+		image32.multiply(.25);
+		
+		// results must be identical to the ones of MorphoLibJ, for even and
+		// odd sizes, and at image borders
+		GranulometryEngine engine = new SeparableMinMaxEngine();
+		GranulometryEngine reference = new MorphoLibJEngine();
+		Morphology.Operation[] ops = new Morphology.Operation[] {
+				Morphology.Operation.EROSION, Morphology.Operation.DILATION, 
+				Morphology.Operation.OPENING, Morphology.Operation.CLOSING};
+		Strel.Shape[] shapes = new Strel.Shape[] {Strel.Shape.SQUARE, 
+				Strel.Shape.LINE_HORIZ, Strel.Shape.LINE_VERT};
+		SizeType[] sizeTypes = new SizeType[] {SizeType.DIAMETER, SizeType.RADIUS};
+		int[] sizes = new int[] {4, 5};
+		for (ImageProcessor image : new ImageProcessor[] {image8, image16, image32})
+		{
+			for (Morphology.Operation op : ops)
+			{
+				for (Strel.Shape shape : shapes)
+				{
+					for (SizeType sizeType : sizeTypes)
+					{
+						for (int size : sizes)
+						{
+							assertTrue(engine.isApplicable(image.getBitDepth(), op, shape, sizeType, size));
+							ImageProcessor res = engine.apply(image, op, shape, sizeType, size);
+							ImageProcessor exp = reference.apply(image, op, shape, sizeType, size);
+							String message = String.format(Locale.ENGLISH, "%d-bit, %s, %s, %s=%d", 
+									image.getBitDepth(), op, shape, sizeType, size);
+							assertSamePixels(message, exp, res);
+						}
+					}
+				}
+			}
+		}
+		assertFalse(engine.isApplicable(8, Morphology.Operation.CLOSING, Strel.Shape.DISK, SizeType.RADIUS, 5));
+		assertFalse(engine.isApplicable(24, Morphology.Operation.CLOSING, Strel.Shape.SQUARE, SizeType.RADIUS, 5));
+	}
+	
+	/**
+	 * Checks that two images have the same type, size and pixel values.
+	 */
+	private static final void assertSamePixels(String message, ImageProcessor expected, ImageProcessor actual)
+	{
+		assertEquals(message, expected.getBitDepth(), actual.getBitDepth());
+		assertEquals(message, expected.getWidth(), actual.getWidth());
+		assertEquals(message, expected.getHeight(), actual.getHeight());
+		int width = expected.getWidth();
+		for (int i = 0; i < expected.getPixelCount(); i++)
+		{
+			if (expected.getf(i) != actual.getf(i))
+			{
+				fail(message + ": pixel (" + (i % width) + "," + (i / width) + ") is " 
+						+ actual.getf(i) + " instead of " + expected.getf(i));
+			}
+		}
+	}
+}